@@ -0,0 +1,27 @@
+package coe528.project.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Overview: Temporary directories for the persistence benchmarks.
+ */
+final class BenchmarkFiles {
+    private BenchmarkFiles() {
+    }
+
+    static File createDirectory(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
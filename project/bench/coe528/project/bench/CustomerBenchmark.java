@@ -0,0 +1,100 @@
+package coe528.project.bench;
+
+import coe528.project.Customer;
+import coe528.project.Money;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Overview: Benchmarks of the Customer account model: deposits, withdrawals, online purchases,
+ * level lookups and transactions that move a balance back and forth across the tier thresholds.
+ * Each benchmark is measured for throughput and for its latency distribution; run with
+ * -prof gc to also measure allocation per operation.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CustomerBenchmark {
+    // Far above every tier threshold and too large to run out or overflow within an iteration
+    private static final long LARGE_BALANCE = Long.MAX_VALUE / 4;
+
+    private Customer steady;
+    private Customer silver;
+    private Customer gold;
+    private Customer platinum;
+    private Customer crossing;
+    private long crossingStep;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        steady = new Customer("steady", "pw", LARGE_BALANCE);
+        silver = new Customer("silver", "pw", Money.ofDollars(5000));
+        gold = new Customer("gold", "pw", Money.ofDollars(15000));
+        platinum = new Customer("platinum", "pw", Money.ofDollars(25000));
+        // One cent below Gold; each deposit/withdraw pair crosses the $10000 threshold twice
+        crossing = new Customer("crossing", "pw", Money.ofDollars(10000) - 1);
+        crossingStep = 1;
+    }
+
+    @Benchmark
+    public long deposit() {
+        steady.deposit(1);
+        return steady.getBalance();
+    }
+
+    @Benchmark
+    public long withdraw() {
+        steady.withdraw(1);
+        return steady.getBalance();
+    }
+
+    @Benchmark
+    public long onlinePurchase() {
+        return steady.onlinePurchase(Money.ofDollars(50));
+    }
+
+    @Benchmark
+    public String getLevelSilver() {
+        return silver.getLevel();
+    }
+
+    @Benchmark
+    public String getLevelGold() {
+        return gold.getLevel();
+    }
+
+    @Benchmark
+    public String getLevelPlatinum() {
+        return platinum.getLevel();
+    }
+
+    @Benchmark
+    public String tierTransitionGold() {
+        crossing.deposit(crossingStep);
+        String level = crossing.getLevel();
+        crossing.withdraw(crossingStep);
+        return level;
+    }
+
+    @Benchmark
+    public String tierTransitionPlatinum() {
+        // $10000 up and down from just below Gold crosses both the Gold and the $20000 Platinum threshold
+        crossing.deposit(Money.ofDollars(10000));
+        String level = crossing.getLevel();
+        crossing.withdraw(Money.ofDollars(10000));
+        return level;
+    }
+}
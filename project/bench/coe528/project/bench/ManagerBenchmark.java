@@ -0,0 +1,61 @@
+package coe528.project.bench;
+
+import coe528.project.AccountStore;
+import coe528.project.LogAccountStore;
+import coe528.project.Manager;
+import coe528.project.TextFileAccountStore;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Overview: Benchmarks of Manager.addCustomer against the original one-file-per-customer
+ * store and the segmented log store. Every invocation adds a customer with a new username;
+ * each iteration starts from an empty directory.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ManagerBenchmark {
+    @Param({"text", "log"})
+    public String store;
+
+    private File directory;
+    private AccountStore accounts;
+    private Manager manager;
+    private long next;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        directory = BenchmarkFiles.createDirectory("bench-manager");
+        accounts = "text".equals(store) ? new TextFileAccountStore(directory) : new LogAccountStore(directory);
+        manager = new Manager("admin", "admin", accounts);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        accounts.close();
+        BenchmarkFiles.delete(directory);
+    }
+
+    @Benchmark
+    public void addCustomer() throws IOException {
+        manager.addCustomer("customer" + next++, "password");
+    }
+}
@@ -0,0 +1,63 @@
+package coe528.project.bench;
+
+import coe528.project.Money;
+import coe528.project.SpendingLimiter;
+import coe528.project.Tier;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Overview: Benchmark of the velocity check on online purchases, SpendingLimiter.acquire, with
+ * many threads purchasing from random accounts. The limits are high enough that every
+ * purchase is counted, so each operation also releases it again to keep the windows from
+ * filling. With few accounts the threads contend for the same counters.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class SpendingLimiterBenchmark {
+    private static final Tier TIER = new Tier("Gold", 1, Money.ofDollars(10000), Money.ofDollars(10), 0, 0,
+            SpendingLimiter.MAX_SPENDING_LIMIT, SpendingLimiter.MAX_PURCHASE_LIMIT);
+
+    @Param({"16", "100000"})
+    public int customers;
+
+    private SpendingLimiter limiter;
+    private String[] usernames;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        limiter = new SpendingLimiter();
+        usernames = new String[customers];
+        for (int i = 0; i < customers; i++) {
+            usernames[i] = "customer" + i;
+            limiter.acquire(usernames[i], TIER, Money.ofDollars(50));
+        }
+    }
+
+    @Benchmark
+    public long acquireAndRelease() {
+        String username = usernames[ThreadLocalRandom.current().nextInt(customers)];
+        long amount = Money.ofDollars(50);
+        long ticket = limiter.acquire(username, TIER, amount);
+        limiter.release(username, ticket, amount);
+        return ticket;
+    }
+}
@@ -0,0 +1,112 @@
+package coe528.project.bench;
+
+import coe528.project.AccountStore;
+import coe528.project.CachingAccountStore;
+import coe528.project.Customer;
+import coe528.project.Journal;
+import coe528.project.JournaledAccountStore;
+import coe528.project.LogAccountStore;
+import coe528.project.Manager;
+import coe528.project.Money;
+import coe528.project.ResidentAccountStore;
+import coe528.project.TextFileAccountStore;
+import coe528.project.TransactionService;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Overview: Benchmarks of the customer read and write paths used by the application: the login
+ * lookup (reading a customer from the store) and saving a customer after a transaction, for
+ * each layer of the persistence stack. The store holds a fixed population of customers and
+ * every invocation works on the next one in turn, so caches see a realistic spread of keys.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StoreBenchmark {
+    @Param({"text", "log", "cached", "resident", "journaled"})
+    public String store;
+
+    @Param({"1000"})
+    public int customers;
+
+    private File directory;
+    private AccountStore accounts;
+    private TransactionService service;
+    private String[] usernames;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = BenchmarkFiles.createDirectory("bench-store");
+        switch (store) {
+            case "text":
+                accounts = new TextFileAccountStore(directory);
+                break;
+            case "log":
+                accounts = new LogAccountStore(directory);
+                break;
+            case "cached":
+                accounts = new CachingAccountStore(new LogAccountStore(directory), 10000, 1000);
+                break;
+            case "resident":
+                accounts = new ResidentAccountStore(new LogAccountStore(directory), 1000);
+                break;
+            case "journaled":
+                accounts = new JournaledAccountStore(
+                        new CachingAccountStore(new LogAccountStore(directory), 10000, 1000),
+                        new Journal(new File(directory, "journal.log"), 0), 64L * 1024 * 1024);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown store: " + store);
+        }
+        service = new TransactionService(new Manager("admin", "admin", accounts));
+        usernames = new String[customers];
+        for (int i = 0; i < customers; i++) {
+            usernames[i] = "customer" + i;
+            accounts.create(usernames[i], "password", Money.ofDollars(100));
+        }
+        accounts.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        accounts.close();
+        BenchmarkFiles.delete(directory);
+    }
+
+    private String nextUsername() {
+        String username = usernames[next];
+        next = next + 1 == usernames.length ? 0 : next + 1;
+        return username;
+    }
+
+    @Benchmark
+    public Customer login() throws IOException {
+        return service.login(nextUsername(), "password");
+    }
+
+    @Benchmark
+    public Customer loginAndDeposit() throws IOException {
+        Customer customer = service.login(nextUsername(), "password");
+        service.deposit(customer, 1);
+        return customer;
+    }
+}
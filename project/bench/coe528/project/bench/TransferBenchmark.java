@@ -0,0 +1,99 @@
+package coe528.project.bench;
+
+import coe528.project.AccountStore;
+import coe528.project.CachingAccountStore;
+import coe528.project.Customer;
+import coe528.project.Journal;
+import coe528.project.JournaledAccountStore;
+import coe528.project.LedgerEntry;
+import coe528.project.LogAccountStore;
+import coe528.project.Manager;
+import coe528.project.Money;
+import coe528.project.TransactionLedger;
+import coe528.project.TransactionService;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Overview: Benchmark of TransactionService.transfer with many threads moving random amounts
+ * between random pairs of customers, through the journaled store and the ledger the application
+ * uses. With few customers most transfers contend for the same account locks, and opposite
+ * transfers between the same pair run at once, which would deadlock without lock ordering.
+ * After each trial the total of all balances is checked to be unchanged.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(16)
+@State(Scope.Benchmark)
+public class TransferBenchmark {
+    private static final long OPENING_BALANCE = Money.ofDollars(1000);
+
+    @Param({"16", "10000"})
+    public int customers;
+
+    private File directory;
+    private AccountStore accounts;
+    private TransactionLedger ledger;
+    private TransactionService service;
+    private Customer[] sessions;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = BenchmarkFiles.createDirectory("bench-transfer");
+        accounts = new JournaledAccountStore(new CachingAccountStore(new LogAccountStore(directory), customers, 1000),
+                new Journal(new File(directory, "journal.log"), 0), 64L * 1024 * 1024);
+        ledger = new TransactionLedger(new File(directory, "ledger"));
+        service = new TransactionService(new Manager("admin", "admin", accounts), ledger);
+        sessions = new Customer[customers];
+        for (int i = 0; i < customers; i++) {
+            accounts.create("customer" + i, "password", OPENING_BALANCE);
+            sessions[i] = service.find("customer" + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        long total = 0;
+        for (int i = 0; i < customers; i++) {
+            total += accounts.load("customer" + i).getBalance();
+        }
+        accounts.close();
+        ledger.close();
+        BenchmarkFiles.delete(directory);
+        if (total != OPENING_BALANCE * customers) {
+            throw new IllegalStateException("Transfers changed the total balance to " + Money.format(total));
+        }
+    }
+
+    @Benchmark
+    public LedgerEntry transfer() throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(customers);
+        int to = random.nextInt(customers - 1);
+        to = to >= from ? to + 1 : to;
+        try {
+            return service.transfer(sessions[from], "customer" + to, random.nextLong(1, Money.ofDollars(10)));
+        } catch (IllegalArgumentException e) {
+            return null; // Insufficient balance
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package coe528.project;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Overview: The AccountLocks class serializes changes to the same account across threads with
+ * a fixed array of locks (stripes), each guarding every account whose username hashes to it,
+ * so memory does not grow with the number of customers. An operation on two accounts, such as
+ * a transfer, takes both of their stripes in increasing stripe order (only once if they share
+ * a stripe). Since every thread takes stripes in that same order, two transfers between the
+ * same accounts in opposite directions, or any cycle of transfers, cannot deadlock. A batch of
+ * accounts, such as a chunk of the month-end job, is locked the same way, in increasing order
+ * of its distinct stripes.
+ * This class is mutable as its locks are taken and released.
+ *
+ * Abstraction Function: AF(c) = For each username u, the lock c.stripes[stripeOf(u)].
+ *
+ * Representation Invariant: c.stripes != null && c.stripes.length is a power of two &&
+ * no element of c.stripes is null
+ */
+public class AccountLocks {
+    public static final int DEFAULT_STRIPES = 1024;
+
+    private final ReentrantLock[] stripes;
+
+    public AccountLocks() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates the locks.
+     * @param stripes the number of locks, rounded up to a power of two; more stripes make it
+     *        less likely that unrelated accounts wait for each other
+     * @throws IllegalArgumentException if stripes is not positive
+     */
+    public AccountLocks(int stripes) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("Number of stripes must be positive");
+        }
+        this.stripes = new ReentrantLock[stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Returns the stripe of an account.
+     * @effects returns the index of the lock guarding username
+     */
+    public int stripeOf(String username) {
+        int hash = username.hashCode() * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (stripes.length - 1);
+    }
+
+    /**
+     * Locks an account, waiting until no other thread holds it.
+     * @modifies this
+     * @effects the current thread holds the stripe of username
+     */
+    public void lock(String username) {
+        stripes[stripeOf(username)].lock();
+    }
+
+    public void unlock(String username) {
+        stripes[stripeOf(username)].unlock();
+    }
+
+    /**
+     * Locks two accounts in stripe order, waiting until no other thread holds either.
+     * @modifies this
+     * @effects the current thread holds the stripes of first and second
+     */
+    public void lock(String first, String second) {
+        int a = stripeOf(first);
+        int b = stripeOf(second);
+        stripes[Math.min(a, b)].lock();
+        if (a != b) {
+            stripes[Math.max(a, b)].lock();
+        }
+    }
+
+    /**
+     * Unlocks two accounts locked with lock(first, second).
+     * @requires the current thread holds the stripes of first and second
+     * @modifies this
+     * @effects releases the stripes of first and second, in the reverse order they were taken
+     */
+    public void unlock(String first, String second) {
+        int a = stripeOf(first);
+        int b = stripeOf(second);
+        if (a != b) {
+            stripes[Math.max(a, b)].unlock();
+        }
+        stripes[Math.min(a, b)].unlock();
+    }
+
+    /**
+     * Locks many accounts in stripe order, waiting until no other thread holds any of them.
+     * @modifies this
+     * @effects the current thread holds the stripe of every username in usernames; returns
+     *          those stripes, to be passed to unlockAll
+     */
+    public BitSet lockAll(Collection<String> usernames) {
+        BitSet held = new BitSet(stripes.length);
+        for (String username : usernames) {
+            held.set(stripeOf(username));
+        }
+        for (int i = held.nextSetBit(0); i >= 0; i = held.nextSetBit(i + 1)) {
+            stripes[i].lock();
+        }
+        return held;
+    }
+
+    /**
+     * Unlocks the accounts locked with lockAll.
+     * @requires the current thread holds every stripe in held
+     * @modifies this
+     * @effects releases the stripes in held, in the reverse order they were taken
+     */
+    public void unlockAll(BitSet held) {
+        for (int i = held.previousSetBit(stripes.length - 1); i >= 0; i = held.previousSetBit(i - 1)) {
+            stripes[i].unlock();
+        }
+    }
+
+    public int getStripes() {
+        return stripes.length;
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        if (stripes == null || Integer.bitCount(stripes.length) != 1) {
+            return false;
+        }
+        for (ReentrantLock stripe : stripes) {
+            if (stripe == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "AccountLocks{" + "stripes=" + stripes.length + '}';
+    }
+}
@@ -0,0 +1,144 @@
+package coe528.project;
+
+import javafx.beans.property.ReadOnlyLongProperty;
+import javafx.beans.property.ReadOnlyLongWrapper;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.ReadOnlyStringWrapper;
+
+/**
+ * Overview: The AccountModel class exposes the account of the customer logged in to the
+ * application as JavaFX properties (balance, tier and latest transaction), so the customer
+ * screen is built once and its labels are bound to the properties rather than rebuilt after
+ * every action. The properties change only when the application says the account changed,
+ * after an operation is acknowledged, and only on the JavaFX application thread.
+ * This class is mutable as customers log in and out and make transactions.
+ *
+ * Abstraction Function: AF(c) = The account of c.customer (none if null) as last shown, with
+ * balance c.balance, tier c.tier and latest transaction c.lastTransaction, where c.recorded
+ * tells whether that transaction was made during this login rather than read from the history.
+ *
+ * Representation Invariant: c.balance != null && c.tier != null && c.lastTransaction != null &&
+ * (c.customer == null implies c.tier.get() == null && !c.recorded)
+ */
+public class AccountModel {
+    public static final String NO_TRANSACTION = "None";
+
+    private final ReadOnlyLongWrapper balance = new ReadOnlyLongWrapper(this, "balance");
+    private final ReadOnlyObjectWrapper<Tier> tier = new ReadOnlyObjectWrapper<>(this, "tier");
+    private final ReadOnlyStringWrapper lastTransaction = new ReadOnlyStringWrapper(this, "lastTransaction", NO_TRANSACTION);
+    private Customer customer;
+    private boolean recorded;
+
+    /**
+     * Shows the account of a customer who just logged in.
+     * @modifies this
+     * @effects makes customer the shown customer, with its current balance and tier and no
+     *          latest transaction until showLatest or record is called
+     */
+    public void show(Customer customer) {
+        this.customer = customer;
+        this.recorded = false;
+        lastTransaction.set(NO_TRANSACTION);
+        refresh();
+    }
+
+    /**
+     * Reads the balance and tier of the shown customer again.
+     * @modifies this
+     * @effects sets the balance and tier properties to the customer's current balance and tier
+     */
+    public void refresh() {
+        balance.set(customer == null ? 0 : customer.getBalance());
+        tier.set(customer == null ? null : customer.getTier());
+    }
+
+    /**
+     * Shows a transaction a customer just made. The transaction completes in the background,
+     * so the customer may have logged out, and another customer logged in, before it arrives.
+     * @requires entry is a transaction of customer
+     * @modifies this
+     * @effects if customer is still shown, refreshes the balance and tier and makes entry the
+     *          latest transaction; otherwise does nothing
+     */
+    public void record(Customer customer, LedgerEntry entry) {
+        if (customer == null || customer != this.customer) {
+            return;
+        }
+        recorded = true;
+        lastTransaction.set(entry.describe());
+        refresh();
+    }
+
+    /**
+     * Shows the latest transaction read from a customer's history. The history is read in
+     * the background, so the customer may have logged out, or made a newer transaction,
+     * before it arrives.
+     * @modifies this
+     * @effects makes entry the latest transaction if customer is still shown and has not made
+     *          a transaction since logging in; otherwise does nothing
+     */
+    public void showLatest(Customer customer, LedgerEntry entry) {
+        if (customer == this.customer && !recorded) {
+            lastTransaction.set(entry.describe());
+        }
+    }
+
+    /**
+     * Stops showing the account, when the customer logs out.
+     * @modifies this
+     * @effects no customer is shown
+     */
+    public void clear() {
+        show(null);
+    }
+
+    /**
+     * Returns the customer whose account is shown.
+     * @effects returns the shown customer, or null if none is logged in
+     */
+    public Customer getCustomer() {
+        return this.customer;
+    }
+
+    /**
+     * Returns the balance of the shown account.
+     * @effects returns a property holding the balance in cents, 0 if no customer is shown
+     */
+    public ReadOnlyLongProperty balanceProperty() {
+        return balance.getReadOnlyProperty();
+    }
+
+    /**
+     * Returns the tier of the shown account.
+     * @effects returns a property holding the customer's tier, null if no customer is shown
+     */
+    public ReadOnlyObjectProperty<Tier> tierProperty() {
+        return tier.getReadOnlyProperty();
+    }
+
+    /**
+     * Returns the latest transaction of the shown account.
+     * @effects returns a property holding the description of the latest transaction, or
+     *          NO_TRANSACTION if there is none
+     */
+    public ReadOnlyStringProperty lastTransactionProperty() {
+        return lastTransaction.getReadOnlyProperty();
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        return lastTransaction.get() != null && (customer != null || (tier.get() == null && !recorded));
+    }
+
+    @Override
+    public String toString() {
+        return "AccountModel{" + "customer=" + (customer == null ? null : customer.getUsername()) + ", balance="
+                + Money.format(balance.get()) + ", tier=" + (tier.get() == null ? null : tier.get().getName())
+                + ", lastTransaction=" + lastTransaction.get() + '}';
+    }
+}
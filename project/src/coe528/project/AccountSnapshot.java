@@ -0,0 +1,336 @@
+package coe528.project;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Overview: An AccountSnapshot is an immutable, memory-mapped image of every account at one
+ * point in a LogAccountStore's history. Each account is a record holding its username,
+ * password, balance and tier rank, and an open-addressing hash table of record positions sits
+ * in front of the records. Opening a snapshot only reads its header: the operating system
+ * pages records in as they are looked up, so opening costs the same however many accounts the
+ * snapshot holds. The file is mapped in chunks of at most 1 GB and no record crosses a chunk
+ * boundary, so snapshots are not limited to 2 GB.
+ * File layout: a 64-byte header (magic, version, covered segment, account count, hash slots,
+ * offsets and a CRC of the header), the hash table of 8-byte slots holding record position + 1
+ * (0 for an empty slot), then the records, each [tier rank byte][balance long]
+ * [username length short][username UTF-8][password length short][password UTF-8].
+ * A tier rank of -1 marks padding up to the next chunk boundary.
+ * This class is immutable.
+ *
+ * Abstraction Function: AF(c) = The accounts {(u, p, b, r) | a record of c holds username u,
+ * password p, balance b and tier rank r}, reflecting every change in segments before c.coveredSegment.
+ *
+ * Representation Invariant: c.file != null && c.chunks != null && c.count >= 0 &&
+ * c.slots is a power of two && c.slots > c.count
+ */
+public final class AccountSnapshot implements Closeable {
+    private static final int MAGIC = 0x41534E31; // "ASN1"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_BYTES = 1L << CHUNK_BITS;
+    private static final byte PADDING = -1;
+
+    private final File file;
+    private final long coveredSegment;
+    private final long count;
+    private final long slots;
+    private final long recordsOffset;
+    private final long recordsBytes;
+    private final MappedByteBuffer[] chunks;
+
+    /**
+     * Overview: A Visitor receives the accounts of a snapshot one at a time.
+     */
+    public interface Visitor {
+        void visit(String username, String password, long balance, int tierRank) throws IOException;
+    }
+
+    /**
+     * Overview: A Source supplies the accounts written to a new snapshot.
+     */
+    public interface Source {
+        void forEach(Visitor visitor) throws IOException;
+    }
+
+    private AccountSnapshot(File file, long coveredSegment, long count, long slots, long recordsOffset,
+            long recordsBytes, MappedByteBuffer[] chunks) {
+        this.file = file;
+        this.coveredSegment = coveredSegment;
+        this.count = count;
+        this.slots = slots;
+        this.recordsOffset = recordsOffset;
+        this.recordsBytes = recordsBytes;
+        this.chunks = chunks;
+    }
+
+    /**
+     * Maps a snapshot file.
+     * @param file the snapshot file
+     * @effects returns the snapshot, having read only its header
+     * @throws IOException if the file cannot be mapped or is not a valid snapshot
+     */
+    public static AccountSnapshot open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IOException("Truncated account snapshot " + file);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // Read the whole header
+            }
+            header.flip();
+            CRC32 crc = new CRC32();
+            crc.update(header.array(), 0, HEADER_BYTES - 4);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+                    || header.getInt(HEADER_BYTES - 4) != (int) crc.getValue()) {
+                throw new IOException("Invalid account snapshot " + file);
+            }
+            long coveredSegment = header.getLong(8);
+            long count = header.getLong(16);
+            long slots = header.getLong(24);
+            long recordsOffset = header.getLong(32);
+            long recordsBytes = header.getLong(40);
+            if (recordsOffset + recordsBytes != size) {
+                throw new IOException("Truncated account snapshot " + file);
+            }
+            MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((size + CHUNK_BYTES - 1) >>> CHUNK_BITS)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i << CHUNK_BITS;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_BYTES, size - start));
+            }
+            return new AccountSnapshot(file, coveredSegment, count, slots, recordsOffset, recordsBytes, chunks);
+        }
+    }
+
+    /**
+     * Writes a snapshot file.
+     * @param file the file to create
+     * @param coveredSegment the first log segment whose changes are not in the snapshot
+     * @param count the number of accounts source supplies
+     * @param source the accounts
+     * @param tiers the tier table used to record each account's tier
+     * @requires source supplies exactly count accounts with distinct usernames
+     * @effects writes the snapshot to file and forces it to disk
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(File file, long coveredSegment, long count, Source source, TierTable tiers)
+            throws IOException {
+        long slots = Long.highestOneBit(Math.max(16, count * 2 - 1)) << 1;
+        long tableBytes = slots * 8;
+        long recordsOffset = HEADER_BYTES + tableBytes;
+        // The table is filled in as records are written, so it is kept in memory in pieces
+        long[][] table = new long[(int) ((slots + (1 << 24) - 1) >>> 24)][];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = new long[(int) Math.min(1 << 24, slots - ((long) i << 24))];
+        }
+        long[] written = new long[2]; // records bytes, accounts
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            raf.seek(recordsOffset);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(raf.getFD()), 1 << 16));
+            source.forEach((username, password, balance, tierRank) -> {
+                byte[] name = username.getBytes(StandardCharsets.UTF_8);
+                byte[] secret = password.getBytes(StandardCharsets.UTF_8);
+                int length = 1 + 8 + 2 + name.length + 2 + secret.length;
+                long position = recordsOffset + written[0];
+                long chunkEnd = ((position >>> CHUNK_BITS) + 1) << CHUNK_BITS;
+                if (position + length > chunkEnd) {
+                    // Pad to the next chunk so the record can be read from a single mapping
+                    out.writeByte(PADDING);
+                    for (long i = position + 1; i < chunkEnd; i++) {
+                        out.writeByte(0);
+                    }
+                    written[0] += chunkEnd - position;
+                    position = chunkEnd;
+                }
+                int rank = tiers.tierFor(balance).getRank();
+                out.writeByte(rank);
+                out.writeLong(balance);
+                out.writeShort(name.length);
+                out.write(name);
+                out.writeShort(secret.length);
+                out.write(secret);
+                long slot = hash(username) & (slots - 1);
+                while (table[(int) (slot >>> 24)][(int) (slot & 0xFFFFFF)] != 0) {
+                    slot = (slot + 1) & (slots - 1);
+                }
+                table[(int) (slot >>> 24)][(int) (slot & 0xFFFFFF)] = position - recordsOffset + 1;
+                written[0] += length;
+                written[1]++;
+            });
+            out.flush();
+            if (written[1] != count) {
+                throw new IOException("Account snapshot expected " + count + " accounts but was given " + written[1]);
+            }
+            raf.seek(HEADER_BYTES);
+            DataOutputStream tableOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(raf.getFD()), 1 << 16));
+            for (long[] piece : table) {
+                for (long entry : piece) {
+                    tableOut.writeLong(entry);
+                }
+            }
+            tableOut.flush();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putLong(coveredSegment).putLong(count).putLong(slots)
+                    .putLong(recordsOffset).putLong(written[0]);
+            CRC32 crc = new CRC32();
+            crc.update(header.array(), 0, HEADER_BYTES - 4);
+            header.putInt(HEADER_BYTES - 4, (int) crc.getValue());
+            raf.seek(0);
+            raf.write(header.array());
+            raf.getFD().sync();
+            Metrics.getDefault().addBytesWritten(recordsOffset + written[0]);
+        }
+    }
+
+    private static long hash(String username) {
+        long h = username.hashCode() * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    private ByteBuffer chunkAt(long position) {
+        return chunks[(int) (position >>> CHUNK_BITS)];
+    }
+
+    private long slot(long index) {
+        long position = HEADER_BYTES + index * 8;
+        return chunkAt(position).getLong((int) (position & (CHUNK_BYTES - 1)));
+    }
+
+    /**
+     * Finds the position of an account's record.
+     * @effects returns the absolute file position of username's record, or -1 if it is not in the snapshot
+     */
+    private long find(String username) {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        for (long index = hash(username) & (slots - 1); ; index = (index + 1) & (slots - 1)) {
+            long entry = slot(index);
+            if (entry == 0) {
+                return -1;
+            }
+            long position = recordsOffset + entry - 1;
+            ByteBuffer chunk = chunkAt(position);
+            int offset = (int) (position & (CHUNK_BYTES - 1));
+            int length = chunk.getShort(offset + 9) & 0xFFFF;
+            if (length == name.length && sameBytes(chunk, offset + 11, name)) {
+                return position;
+            }
+        }
+    }
+
+    private static boolean sameBytes(ByteBuffer chunk, int offset, byte[] bytes) {
+        return ByteBuffer.wrap(bytes).mismatch(chunk.slice(offset, bytes.length)) < 0;
+    }
+
+    /**
+     * Returns whether an account is in the snapshot.
+     * @effects returns true if the snapshot holds an account named username
+     */
+    public boolean contains(String username) {
+        return find(username) >= 0;
+    }
+
+    /**
+     * Reads an account from the snapshot.
+     * @effects returns the customer named username as of the snapshot, or null if the snapshot does not hold it
+     */
+    public Customer load(String username) {
+        long position = find(username);
+        if (position < 0) {
+            return null;
+        }
+        ByteBuffer chunk = chunkAt(position);
+        int offset = (int) (position & (CHUNK_BYTES - 1));
+        long balance = chunk.getLong(offset + 1);
+        int nameLength = chunk.getShort(offset + 9) & 0xFFFF;
+        int passwordOffset = offset + 11 + nameLength;
+        int passwordLength = chunk.getShort(passwordOffset) & 0xFFFF;
+        byte[] password = new byte[passwordLength];
+        chunk.get(passwordOffset + 2, password);
+        Metrics.getDefault().addBytesRead(11 + nameLength + 2 + passwordLength);
+        return new Customer(username, new String(password, StandardCharsets.UTF_8), balance);
+    }
+
+    /**
+     * Reads every account in the snapshot in file order.
+     * @param visitor the receiver of the accounts
+     * @effects passes each account of the snapshot to visitor
+     * @throws IOException if visitor fails
+     */
+    public void forEach(Visitor visitor) throws IOException {
+        long position = recordsOffset;
+        long end = recordsOffset + recordsBytes;
+        while (position < end) {
+            ByteBuffer chunk = chunkAt(position);
+            int offset = (int) (position & (CHUNK_BYTES - 1));
+            byte rank = chunk.get(offset);
+            if (rank == PADDING) {
+                position = ((position >>> CHUNK_BITS) + 1) << CHUNK_BITS;
+                continue;
+            }
+            long balance = chunk.getLong(offset + 1);
+            int nameLength = chunk.getShort(offset + 9) & 0xFFFF;
+            byte[] name = new byte[nameLength];
+            chunk.get(offset + 11, name);
+            int passwordLength = chunk.getShort(offset + 11 + nameLength) & 0xFFFF;
+            byte[] password = new byte[passwordLength];
+            chunk.get(offset + 13 + nameLength, password);
+            visitor.visit(new String(name, StandardCharsets.UTF_8), new String(password, StandardCharsets.UTF_8),
+                    balance, rank);
+            position += 13 + nameLength + passwordLength;
+        }
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    public long getCoveredSegment() {
+        return this.coveredSegment;
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    public long getSizeBytes() {
+        return this.recordsOffset + this.recordsBytes;
+    }
+
+    /**
+     * Releases the snapshot. The mappings are released by the garbage collector once they are
+     * no longer referenced.
+     */
+    @Override
+    public void close() {
+        Arrays.fill(chunks, null);
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        return file != null && chunks != null && count >= 0 && Long.bitCount(slots) == 1 && slots > count;
+    }
+
+    @Override
+    public String toString() {
+        return "AccountSnapshot{" + "file=" + file + ", accounts=" + count + ", coveredSegment=" + coveredSegment + '}';
+    }
+}
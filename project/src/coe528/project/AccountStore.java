@@ -0,0 +1,145 @@
+package coe528.project;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Overview: An AccountStore persists the customer accounts of the bank application.
+ * It is responsible for creating, loading, updating and deleting customer accounts
+ * so that Manager and BankApp do not depend on how accounts are laid out on disk.
+ * Implementations are mutable as accounts can be created, updated and deleted.
+ */
+public interface AccountStore extends Closeable {
+
+    /**
+     * Checks whether an account exists for the given username.
+     * @param username the username to look up
+     * @effects returns true if an account with the username exists, false otherwise
+     * @throws IOException if an I/O error occurs
+     */
+    boolean exists(String username) throws IOException;
+
+    /**
+     * Loads the account with the given username.
+     * @param username the username to look up
+     * @effects returns a customer built from the stored account, or null if no such account exists
+     * @throws IOException if an I/O error occurs
+     */
+    Customer load(String username) throws IOException;
+
+    /**
+     * Creates a new account.
+     * @param username the username of the new account
+     * @param password the password of the new account
+     * @param balance the opening balance of the new account in cents
+     * @requires no account with the username exists
+     * @modifies this
+     * @effects stores a new account with the given username, password and balance
+     * @throws IllegalArgumentException if an account with the username already exists
+     * @throws IOException if an I/O error occurs
+     */
+    void create(String username, String password, long balance) throws IOException;
+
+    /**
+     * Creates several new accounts. Either every account is created or, if any of them cannot
+     * be, none is. Stores that can write the accounts together do so, making them durable all at
+     * once where they make changes durable.
+     * @param customers the accounts to create, each with its username, password and opening balance
+     * @requires no two customers have the same username and no account exists for any of them
+     * @modifies this
+     * @effects stores a new account for each customer
+     * @throws IllegalArgumentException if two customers have the same username or an account
+     *         already exists for one of them, in which case no account is created
+     * @throws IOException if an I/O error occurs
+     */
+    default void createAll(List<Customer> customers) throws IOException {
+        Set<String> usernames = new HashSet<>();
+        for (Customer customer : customers) {
+            if (!usernames.add(customer.getUsername()) || exists(customer.getUsername())) {
+                throw new IllegalArgumentException("Customer already exists: " + customer.getUsername());
+            }
+        }
+        for (Customer customer : customers) {
+            create(customer.getUsername(), customer.getPassword(), customer.getBalance());
+        }
+    }
+
+    /**
+     * Stores the current state of the customer's account.
+     * @param customer the customer to store
+     * @requires an account with customer.getUsername() exists
+     * @modifies this
+     * @effects replaces the stored account with the customer's current password and balance
+     * @throws IllegalArgumentException if no account with the username exists
+     * @throws IOException if an I/O error occurs
+     */
+    void save(Customer customer) throws IOException;
+
+    /**
+     * Stores the current state of several customers' accounts. Stores that can write the
+     * accounts together do so, making them durable all at once where they make changes durable.
+     * @param customers the customers to store
+     * @requires an account exists for the username of each customer
+     * @modifies this
+     * @effects replaces the stored account of each customer with its current password and balance
+     * @throws IllegalArgumentException if no account exists for some customer, in which case none is stored
+     * @throws IOException if an I/O error occurs
+     */
+    default void saveAll(List<Customer> customers) throws IOException {
+        for (Customer customer : customers) {
+            if (!exists(customer.getUsername())) {
+                throw new IllegalArgumentException("Customer does not exist");
+            }
+        }
+        for (Customer customer : customers) {
+            save(customer);
+        }
+    }
+
+    /**
+     * Deletes the account with the given username.
+     * @param username the username of the account to delete
+     * @requires an account with the username exists
+     * @modifies this
+     * @effects removes the account with the given username
+     * @throws IllegalArgumentException if no account with the username exists
+     * @throws IOException if an I/O error occurs
+     */
+    void delete(String username) throws IOException;
+
+    /**
+     * Returns the usernames of all stored accounts.
+     * @effects returns a new list containing the username of every stored account
+     * @throws IOException if an I/O error occurs
+     */
+    List<String> usernames() throws IOException;
+
+    /**
+     * Reads every stored account, for example to compute totals over all of them or to move
+     * them elsewhere. Stores that can read their accounts in bulk do so instead of loading
+     * them one at a time.
+     * @param visitor the receiver of the accounts; the tier rank it is given may be -1 if the
+     *        store does not know it
+     * @effects passes every stored account to visitor
+     * @throws IOException if an account cannot be read or visitor fails
+     */
+    default void forEach(AccountSnapshot.Visitor visitor) throws IOException {
+        for (String username : usernames()) {
+            Customer customer = load(username);
+            if (customer != null) {
+                visitor.visit(username, customer.getPassword(), customer.getBalance(), customer.getTier().getRank());
+            }
+        }
+    }
+
+    /**
+     * Writes any buffered changes to the underlying storage.
+     * @modifies the underlying storage
+     * @effects all changes made so far are handed to the underlying storage
+     * @throws IOException if an I/O error occurs
+     */
+    void flush() throws IOException;
+}
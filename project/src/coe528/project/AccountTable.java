@@ -0,0 +1,549 @@
+package coe528.project;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Overview: The AccountTable class keeps accounts in memory outside the Java heap, in
+ * primitive columns, so millions of accounts cost no heap objects and give the garbage
+ * collector nothing to trace. Each row has an account word (the balance in cents, with the
+ * rank of its tier in the top byte so the two always change together), a handle to the
+ * row's username and password in a byte arena, and a dirty bit. Every column is split into
+ * fixed pages of direct memory that never move once allocated, so a row can be read and
+ * updated with atomic operations without taking any lock.
+ * Usernames are found through an open-addressing hash table of (hash, row) pairs, probed
+ * linearly and resized to stay at most half full. Lookups are lock-free: they read the hash
+ * table optimistically and only retry under a read lock if a row was added or removed
+ * meanwhile. Adding and removing rows take a write lock.
+ * get returns a Customer that is a view of its row rather than a copy: its transactions
+ * compare-and-set the row's account word, so every view of an account sees the same
+ * balance. Rows of removed accounts are marked deleted and not reused, so an old view can
+ * never change another account; a transaction on it is rejected.
+ * This class is mutable as accounts are added, updated and removed.
+ *
+ * Abstraction Function: AF(c) = The accounts {(u, p, b) | row r < c.rows is not deleted,
+ * its arena entry holds username u and password p and its account word holds balance b},
+ * where the rows whose dirty bit is set have changed since they were last taken with takeDirty.
+ *
+ * Representation Invariant: c.tiers != null && c.listener != null && c.words.length ==
+ * c.handles.length && c.words.length == c.dirty.length && c.rows <= c.words.length * PAGE_ROWS &&
+ * c.live <= c.rows && c.slots holds exactly one (hash, row) pair for every row that is not
+ * deleted && c.slotsUsed * 2 <= the number of slots
+ */
+public class AccountTable {
+    public static final long MAX_BALANCE = (1L << 56) - 1;
+
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_ROWS = 1 << PAGE_BITS;
+    private static final int ARENA_PAGE_BITS = 20;
+    private static final int ARENA_PAGE_BYTES = 1 << ARENA_PAGE_BITS;
+    private static final int MAX_ARENA_PAGES = 1 << (31 - ARENA_PAGE_BITS);
+    private static final int MIN_SLOTS = 1024;
+    private static final long DELETED = Long.MIN_VALUE;
+    private static final long TOMBSTONE = -1L;
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final TierTable tiers;
+    private final Customer.BalanceListener listener;
+    private final StampedLock lock = new StampedLock();
+    // Page arrays are replaced by longer copies, never changed, so they can be read without the lock
+    private volatile ByteBuffer[] words = new ByteBuffer[0];
+    private volatile ByteBuffer[] handles = new ByteBuffer[0];
+    private volatile ByteBuffer[] dirty = new ByteBuffer[0];
+    private volatile ByteBuffer[] arena = new ByteBuffer[0];
+    private volatile ByteBuffer slots;
+    private volatile int rows;
+    private volatile int live;
+    private int arenaUsed = ARENA_PAGE_BYTES;
+    private int slotsUsed;
+
+    /**
+     * Overview: A View is a Customer whose username is the one it was looked up with and
+     * whose balance is the account word of its row.
+     */
+    private final class View extends Customer {
+        private final String username;
+        private final int row;
+        private final ByteBuffer words;
+        private final int offset;
+
+        View(String username, int row) {
+            super(tiers, listener);
+            this.username = username;
+            this.row = row;
+            this.words = AccountTable.this.words[row >>> PAGE_BITS];
+            this.offset = (row & (PAGE_ROWS - 1)) * Long.BYTES;
+        }
+
+        AccountTable table() {
+            return AccountTable.this;
+        }
+
+        @Override
+        public String getUsername() {
+            return this.username;
+        }
+
+        @Override
+        public String getPassword() {
+            return readPassword(row);
+        }
+
+        @Override
+        public boolean checkPassword(String password) {
+            int handle = handle(row);
+            ByteBuffer page = arena[handle >>> ARENA_PAGE_BITS];
+            int offset = handle & (ARENA_PAGE_BYTES - 1);
+            return entryEquals(page, offset + 2 + Short.toUnsignedInt(page.getShort(offset)), password);
+        }
+
+        @Override
+        protected long loadBalance() {
+            return (long) LONGS.getVolatile(words, offset) & MAX_BALANCE;
+        }
+
+        @Override
+        protected boolean compareAndSetBalance(long expected, long balance) {
+            if (LONGS.compareAndSet(words, offset, pack(expected), pack(balance))) {
+                return true;
+            }
+            if ((long) LONGS.getVolatile(words, offset) < 0) {
+                throw new IllegalArgumentException("Customer does not exist");
+            }
+            return false;
+        }
+    }
+
+    public AccountTable() {
+        this(TierTable.getDefault(), BankStatistics.getDefault());
+    }
+
+    /**
+     * Creates an empty table.
+     * @param tiers the tiers of the accounts, which fix the tier ranks kept in the rows
+     * @param listener the listener told about every change of balance made through a view
+     */
+    public AccountTable(TierTable tiers, Customer.BalanceListener listener) {
+        this.tiers = tiers;
+        this.listener = listener;
+        this.slots = allocate(MIN_SLOTS * Long.BYTES);
+    }
+
+    private static ByteBuffer allocate(int bytes) {
+        // Atomic access needs aligned addresses
+        return ByteBuffer.allocateDirect(bytes + Long.BYTES - 1).alignedSlice(Long.BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    private static int hash(String username) {
+        int hash = username.hashCode() * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private long pack(long balance) {
+        if (balance < 0 || balance > MAX_BALANCE) {
+            throw new ArithmeticException("Balance out of range: " + balance);
+        }
+        return (long) tiers.tierFor(balance).getRank() << 56 | balance;
+    }
+
+    private long word(int row) {
+        return (long) LONGS.getVolatile(words[row >>> PAGE_BITS], (row & (PAGE_ROWS - 1)) * Long.BYTES);
+    }
+
+    private int handle(int row) {
+        return (int) INTS.get(handles[row >>> PAGE_BITS], (row & (PAGE_ROWS - 1)) * Integer.BYTES);
+    }
+
+    /**
+     * Checks whether an arena entry holds some text.
+     * @effects returns true if the length-prefixed bytes at offset in page are text in UTF-8
+     */
+    private static boolean entryEquals(ByteBuffer page, int offset, String text) {
+        int length = Short.toUnsignedInt(page.getShort(offset));
+        if (length == text.length()) {
+            // Usernames and passwords are usually ASCII, which compares without encoding the text
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                if (c >= 0x80) {
+                    return Arrays.equals(readBytes(page, offset), text.getBytes(StandardCharsets.UTF_8));
+                }
+                if (page.get(offset + 2 + i) != c) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return length > text.length() && Arrays.equals(readBytes(page, offset), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Checks whether a row holds a username.
+     * @effects returns true if the arena entry of row holds username
+     */
+    private boolean nameEquals(int row, String username) {
+        int handle = handle(row);
+        return entryEquals(arena[handle >>> ARENA_PAGE_BITS], handle & (ARENA_PAGE_BYTES - 1), username);
+    }
+
+    private static byte[] readBytes(ByteBuffer page, int offset) {
+        byte[] bytes = new byte[Short.toUnsignedInt(page.getShort(offset))];
+        page.get(offset + 2, bytes);
+        return bytes;
+    }
+
+    private String readUsername(int row) {
+        int handle = handle(row);
+        return new String(readBytes(arena[handle >>> ARENA_PAGE_BITS], handle & (ARENA_PAGE_BYTES - 1)), StandardCharsets.UTF_8);
+    }
+
+    private String readPassword(int row) {
+        int handle = handle(row);
+        ByteBuffer page = arena[handle >>> ARENA_PAGE_BITS];
+        int offset = handle & (ARENA_PAGE_BYTES - 1);
+        return new String(readBytes(page, offset + 2 + Short.toUnsignedInt(page.getShort(offset))), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Finds the slot of a username.
+     * @effects returns the byte offset in slots of the slot holding username, or -1 if there is none
+     */
+    private int slotOf(ByteBuffer slots, String username, int hash) {
+        int mask = slots.capacity() / Long.BYTES - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            long slot = (long) LONGS.getAcquire(slots, i * Long.BYTES);
+            if (slot == 0) {
+                return -1;
+            }
+            if (slot != TOMBSTONE && (int) (slot >>> 32) == hash && nameEquals((int) slot - 1, username)) {
+                return i * Long.BYTES;
+            }
+        }
+    }
+
+    /**
+     * Finds the row of a username.
+     * @effects returns the row holding username, or -1 if there is none
+     */
+    private int rowOf(String username) {
+        int hash = hash(username);
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                ByteBuffer slots = this.slots;
+                int slot = slotOf(slots, username, hash);
+                int row = slot < 0 ? -1 : (int) (long) LONGS.getOpaque(slots, slot) - 1;
+                if (lock.validate(stamp)) {
+                    return row;
+                }
+            } catch (RuntimeException e) {
+                // A row changed under the lookup; it is repeated under the read lock
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            int slot = slotOf(slots, username, hash);
+            return slot < 0 ? -1 : (int) (long) LONGS.getOpaque(slots, slot) - 1;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Looks up an account.
+     * @effects returns a view of the account of username, or null if there is none
+     */
+    public Customer get(String username) {
+        int row = rowOf(username);
+        return row < 0 ? null : new View(username, row);
+    }
+
+    public boolean contains(String username) {
+        return rowOf(username) >= 0;
+    }
+
+    /**
+     * Adds an account.
+     * @param username the username of the account
+     * @param password the password of the account
+     * @param balance the balance in cents
+     * @requires 0 <= balance <= MAX_BALANCE
+     * @modifies this
+     * @effects adds the account as a new row, not marked dirty
+     * @throws IllegalArgumentException if the account already exists or the username and
+     *         password are too long to store
+     */
+    public void insert(String username, String password, long balance) {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        byte[] secret = password.getBytes(StandardCharsets.UTF_8);
+        if (name.length > 0xFFFF || secret.length > 0xFFFF || 4 + name.length + secret.length > ARENA_PAGE_BYTES) {
+            throw new IllegalArgumentException("Username or password is too long");
+        }
+        long word = pack(balance);
+        int hash = hash(username);
+        long stamp = lock.writeLock();
+        try {
+            if (slotOf(slots, username, hash) >= 0) {
+                throw new IllegalArgumentException("Customer already exists");
+            }
+            int row = rows;
+            if (row == words.length * PAGE_ROWS) {
+                addRowPage();
+            }
+            int handle = append(name, secret);
+            INTS.set(handles[row >>> PAGE_BITS], (row & (PAGE_ROWS - 1)) * Integer.BYTES, handle);
+            LONGS.setVolatile(words[row >>> PAGE_BITS], (row & (PAGE_ROWS - 1)) * Long.BYTES, word);
+            if ((slotsUsed + 1) * 2L > slots.capacity() / Long.BYTES) {
+                rehash(live + 1);
+            }
+            putSlot(hash, row);
+            rows = row + 1;
+            live++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void addRowPage() {
+        if (words.length == Integer.MAX_VALUE / PAGE_ROWS) {
+            throw new IllegalStateException("Account table is full");
+        }
+        int pages = words.length + 1;
+        ByteBuffer[] nextWords = Arrays.copyOf(words, pages);
+        ByteBuffer[] nextHandles = Arrays.copyOf(handles, pages);
+        ByteBuffer[] nextDirty = Arrays.copyOf(dirty, pages);
+        nextWords[pages - 1] = allocate(PAGE_ROWS * Long.BYTES);
+        nextHandles[pages - 1] = allocate(PAGE_ROWS * Integer.BYTES);
+        nextDirty[pages - 1] = allocate(PAGE_ROWS / Byte.SIZE);
+        words = nextWords;
+        handles = nextHandles;
+        dirty = nextDirty;
+    }
+
+    private int append(byte[] name, byte[] secret) {
+        int size = 4 + name.length + secret.length;
+        if (arenaUsed + size > ARENA_PAGE_BYTES) {
+            if (arena.length == MAX_ARENA_PAGES) {
+                throw new IllegalStateException("Account table is full");
+            }
+            ByteBuffer[] next = Arrays.copyOf(arena, arena.length + 1);
+            next[arena.length] = allocate(ARENA_PAGE_BYTES);
+            arena = next;
+            arenaUsed = 0;
+        }
+        ByteBuffer page = arena[arena.length - 1];
+        int offset = arenaUsed;
+        page.putShort(offset, (short) name.length).put(offset + 2, name);
+        page.putShort(offset + 2 + name.length, (short) secret.length).put(offset + 4 + name.length, secret);
+        arenaUsed += size;
+        return (arena.length - 1) << ARENA_PAGE_BITS | offset;
+    }
+
+    private void putSlot(int hash, int row) {
+        int mask = slots.capacity() / Long.BYTES - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            long slot = (long) LONGS.get(slots, i * Long.BYTES);
+            if (slot == 0 || slot == TOMBSTONE) {
+                slotsUsed += slot == 0 ? 1 : 0;
+                LONGS.setRelease(slots, i * Long.BYTES, (long) hash << 32 | (row + 1));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Replaces the hash table with one sized for some accounts, dropping the tombstones.
+     * @requires the current thread holds the write lock
+     */
+    private void rehash(int accounts) {
+        ByteBuffer previous = slots;
+        int capacity = MIN_SLOTS;
+        while (capacity < accounts * 4L && capacity < (1 << 30) / Long.BYTES) {
+            capacity <<= 1;
+        }
+        slots = allocate(capacity * Long.BYTES);
+        slotsUsed = 0;
+        for (int i = 0; i < previous.capacity(); i += Long.BYTES) {
+            long slot = (long) LONGS.get(previous, i);
+            if (slot != 0 && slot != TOMBSTONE) {
+                putSlot((int) (slot >>> 32), (int) slot - 1);
+            }
+        }
+    }
+
+    /**
+     * Removes an account.
+     * @modifies this
+     * @effects removes the account of username and returns true, or returns false if there is
+     *          none; later transactions on views of it are rejected
+     */
+    public boolean remove(String username) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = slotOf(slots, username, hash(username));
+            if (slot < 0) {
+                return false;
+            }
+            int row = (int) (long) LONGS.get(slots, slot) - 1;
+            LONGS.setRelease(slots, slot, TOMBSTONE);
+            LONGS.getAndBitwiseOr(words[row >>> PAGE_BITS], (row & (PAGE_ROWS - 1)) * Long.BYTES, DELETED);
+            live--;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Records a change of an account to be taken later with takeDirty. A view of this table
+     * already holds its new balance; any other Customer's balance is copied into the row.
+     * @modifies this
+     * @effects stores the balance of customer in its row and marks the row dirty
+     * @throws IllegalArgumentException if the account of customer does not exist
+     */
+    public void update(Customer customer) {
+        int row;
+        if (customer instanceof View && ((View) customer).table() == this) {
+            row = ((View) customer).row;
+        } else {
+            row = rowOf(customer.getUsername());
+            if (row < 0) {
+                throw new IllegalArgumentException("Customer does not exist");
+            }
+            ByteBuffer page = words[row >>> PAGE_BITS];
+            int offset = (row & (PAGE_ROWS - 1)) * Long.BYTES;
+            long next = pack(customer.getBalance());
+            long current;
+            do {
+                current = (long) LONGS.getVolatile(page, offset);
+            } while (current >= 0 && !LONGS.compareAndSet(page, offset, current, next));
+        }
+        if (word(row) < 0) {
+            throw new IllegalArgumentException("Customer does not exist");
+        }
+        setDirty(row);
+    }
+
+    /**
+     * Marks an account as changed again, when writing what takeDirty returned failed.
+     * @modifies this
+     * @effects marks the row of username dirty if the account exists
+     */
+    public void markDirty(String username) {
+        int row = rowOf(username);
+        if (row >= 0) {
+            setDirty(row);
+        }
+    }
+
+    private void setDirty(int row) {
+        int offset = (row & (PAGE_ROWS - 1)) >>> 6 << 3;
+        long bit = 1L << (row & 63);
+        ByteBuffer page = dirty[row >>> PAGE_BITS];
+        if (((long) LONGS.getVolatile(page, offset) & bit) == 0) {
+            LONGS.getAndBitwiseOr(page, offset, bit);
+        }
+    }
+
+    /**
+     * Takes changed accounts to be written elsewhere. A row is unmarked before it is read, so
+     * a change made while it is read marks it again.
+     * @param max the largest number of accounts to take
+     * @modifies this
+     * @effects unmarks up to max dirty rows and returns a copy of the accounts they hold,
+     *          skipping rows deleted since they were marked
+     */
+    public List<Customer> takeDirty(int max) {
+        List<Customer> taken = new ArrayList<>();
+        ByteBuffer[] pages = dirty;
+        int count = rows;
+        for (int page = 0; page < pages.length && taken.size() < max; page++) {
+            for (int offset = 0; offset < pages[page].capacity() && taken.size() < max; offset += Long.BYTES) {
+                long bits = (long) LONGS.getVolatile(pages[page], offset);
+                while (bits != 0 && taken.size() < max) {
+                    long bit = Long.lowestOneBit(bits);
+                    bits &= ~bit;
+                    int row = page * PAGE_ROWS + offset * Byte.SIZE + Long.numberOfTrailingZeros(bit);
+                    LONGS.getAndBitwiseAnd(pages[page], offset, ~bit);
+                    long word = row < count ? word(row) : DELETED;
+                    if (word >= 0) {
+                        taken.add(new Customer(readUsername(row), readPassword(row), word & MAX_BALANCE, tiers, listener));
+                    }
+                }
+            }
+        }
+        return taken;
+    }
+
+    /**
+     * Visits every account, with the balance and tier rank of its row as it is read.
+     * @effects calls visitor once for every account that is not removed while it runs
+     * @throws IOException if visitor throws it
+     */
+    public void forEach(AccountSnapshot.Visitor visitor) throws IOException {
+        int count = rows;
+        for (int row = 0; row < count; row++) {
+            long word = word(row);
+            if (word >= 0) {
+                visitor.visit(readUsername(row), readPassword(row), word & MAX_BALANCE, (int) (word >>> 56));
+            }
+        }
+    }
+
+    /**
+     * Returns the usernames.
+     * @effects returns a new list of the username of every account, in the order they were added
+     */
+    public List<String> usernames() {
+        int count = rows;
+        List<String> usernames = new ArrayList<>(live);
+        for (int row = 0; row < count; row++) {
+            if (word(row) >= 0) {
+                usernames.add(readUsername(row));
+            }
+        }
+        return usernames;
+    }
+
+    public int size() {
+        return this.live;
+    }
+
+    /**
+     * Returns the memory the table uses outside the heap.
+     * @effects returns the number of bytes of direct memory allocated for the columns, the
+     *          arena and the hash table
+     */
+    public long getOffHeapBytes() {
+        return (long) words.length * PAGE_ROWS * (Long.BYTES + Integer.BYTES) + (long) words.length * PAGE_ROWS / Byte.SIZE
+                + (long) arena.length * ARENA_PAGE_BYTES + slots.capacity();
+    }
+
+    /**
+     * Checks if the representation invariant holds, apart from the contents of the hash
+     * table, which would need every row to be read.
+     * @effects returns true if the checked part of the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        long stamp = lock.readLock();
+        try {
+            return tiers != null && listener != null && words.length == handles.length && words.length == dirty.length
+                    && rows <= (long) words.length * PAGE_ROWS && live <= rows && slotsUsed * 2L <= slots.capacity() / Long.BYTES;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AccountTable{" + "accounts=" + live + ", rows=" + rows + ", offHeapBytes=" + getOffHeapBytes() + '}';
+    }
+}
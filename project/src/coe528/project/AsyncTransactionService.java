@@ -0,0 +1,196 @@
+package coe528.project;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Overview: The AsyncTransactionService class runs the operations of a TransactionService on a
+ * dedicated pool of persistence threads and returns a CompletableFuture for each, so callers
+ * such as the JavaFX application thread never block on disk I/O. A future completes once the
+ * operation's changes have been acknowledged by the account store (for the journaled store,
+ * once they are durable), or completes exceptionally with the IllegalArgumentException or
+ * IOException the operation threw.
+ * This class is mutable as it can be closed.
+ *
+ * Abstraction Function: AF(c) = The operations of c.service, performed asynchronously by c.executor.
+ *
+ * Representation Invariant: c.service != null && c.executor != null
+ */
+public class AsyncTransactionService implements Closeable {
+    private final TransactionService service;
+    private final ExecutorService executor;
+
+    /**
+     * Overview: An Operation is a blocking call made on a persistence thread.
+     */
+    private interface Operation<T> {
+        T call() throws IOException;
+    }
+
+    /**
+     * Creates an asynchronous service.
+     * @param service the service whose operations are run
+     * @param threads the number of persistence threads
+     * @requires threads > 0
+     * @effects starts threads daemon persistence threads
+     */
+    public AsyncTransactionService(TransactionService service, int threads) {
+        this.service = service;
+        AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "bank-io-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public TransactionService getService() {
+        return this.service;
+    }
+
+    private <T> CompletableFuture<T> submit(Operation<T> operation) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                future.complete(operation.call());
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Logs a customer in asynchronously.
+     * @effects returns a future of the customer, see TransactionService.login
+     */
+    public CompletableFuture<Customer> login(String username, String password) {
+        return submit(() -> service.login(username, password));
+    }
+
+    /**
+     * Deposits money asynchronously.
+     * @effects returns a future of the recorded transaction, see TransactionService.deposit
+     */
+    public CompletableFuture<LedgerEntry> deposit(Customer customer, long amount) {
+        return submit(() -> service.deposit(customer, amount));
+    }
+
+    /**
+     * Withdraws money asynchronously.
+     * @effects returns a future of the recorded transaction, see TransactionService.withdraw
+     */
+    public CompletableFuture<LedgerEntry> withdraw(Customer customer, long amount) {
+        return submit(() -> service.withdraw(customer, amount));
+    }
+
+    /**
+     * Makes an online purchase asynchronously.
+     * @effects returns a future of the recorded transaction, see TransactionService.purchase
+     */
+    public CompletableFuture<LedgerEntry> purchase(Customer customer, long amount) {
+        return submit(() -> service.purchase(customer, amount));
+    }
+
+    /**
+     * Transfers money to another customer asynchronously.
+     * @effects returns a future of the transfer recorded for the sender, see TransactionService.transfer
+     */
+    public CompletableFuture<LedgerEntry> transfer(Customer from, String toUsername, long amount) {
+        return submit(() -> service.transfer(from, toUsername, amount));
+    }
+
+    /**
+     * Stores a customer's state asynchronously when they log out.
+     * @effects returns a future completed once the customer is saved, see TransactionService.logout
+     */
+    public CompletableFuture<Void> logout(Customer customer) {
+        return submit(() -> {
+            service.logout(customer);
+            return null;
+        });
+    }
+
+    /**
+     * Adds a customer asynchronously.
+     * @effects returns a future completed once the account is created, see TransactionService.addCustomer
+     */
+    public CompletableFuture<Void> addCustomer(String username, String password) {
+        return submit(() -> {
+            service.addCustomer(username, password);
+            return null;
+        });
+    }
+
+    /**
+     * Deletes a customer asynchronously.
+     * @effects returns a future completed once the account is removed, see TransactionService.deleteCustomer
+     */
+    public CompletableFuture<Void> deleteCustomer(String username) {
+        return submit(() -> {
+            service.deleteCustomer(username);
+            return null;
+        });
+    }
+
+    /**
+     * Lists the customers asynchronously.
+     * @effects returns a future of every customer's username, see TransactionService.listCustomers
+     */
+    public CompletableFuture<List<String>> listCustomers() {
+        return submit(service::listCustomers);
+    }
+
+    /**
+     * Finds a page of customers by username prefix asynchronously.
+     * @effects returns a future of up to limit sorted usernames, see TransactionService.findCustomers
+     */
+    public CompletableFuture<List<String>> findCustomers(String prefix, String after, int limit) {
+        return submit(() -> service.findCustomers(prefix, after, limit));
+    }
+
+    /**
+     * Reads a customer's most recent transactions asynchronously.
+     * @effects returns a future of up to n transactions, newest first, see TransactionService.history
+     */
+    public CompletableFuture<List<LedgerEntry>> history(String username, int n) {
+        return submit(() -> service.history(username, n));
+    }
+
+    /**
+     * Stops accepting operations and waits for the submitted ones to finish.
+     * @effects shuts the persistence threads down once every submitted operation has completed
+     * @throws IOException if interrupted while waiting
+     */
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                System.err.println("Waiting for pending account operations to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for pending account operations", e);
+        }
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        return service != null && executor != null;
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncTransactionService{" + "service=" + service + '}';
+    }
+}
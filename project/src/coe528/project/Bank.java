@@ -0,0 +1,237 @@
+package coe528.project;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import javax.management.JMException;
+
+/**
+ * Overview: The Bank class assembles the persistence stack, the manager and the transaction
+ * service for one data directory, so the JavaFX application and headless callers start the
+ * bank the same way. Settings are read from system properties:
+ * bank.data.dir (data directory, default bank-data),
+ * bank.manager.username and bank.manager.password (manager credentials, default admin),
+ * bank.cache.size (customers kept in memory, default 10000),
+ * bank.cache.flushMillis (write-behind interval, default 1000),
+ * bank.journal.groupCommitMicros (extra time the journal waits to group commits, default 0) and
+ * bank.journal.checkpointBytes (journal size that triggers a checkpoint, default 64 MB).
+ * When bank.shards lists the addresses (host:port, separated by commas) of ShardServer
+ * processes, the accounts are held by those shards instead, each with its own store, and the
+ * bank routes every account to its shard with a ShardedAccountStore.
+ * The transaction history of every customer is kept in the ledger subdirectory, and a sorted
+ * index of the customers in customers.idx.
+ * The service is also offered asynchronously on bank.io.threads persistence threads (default 4).
+ * Online purchases are held to their tier's limits over a rolling window of
+ * bank.limits.windowMillis milliseconds (default one minute).
+ * The default Metrics are published over JMX, and are also written to a file every
+ * bank.metrics.dumpMillis milliseconds when that property is set, in the format given by
+ * bank.metrics.format (json, the default, or text) to bank.metrics.file (default metrics.json
+ * or metrics.txt in the data directory).
+ * This class is mutable as it can be closed.
+ *
+ * Abstraction Function: AF(c) = The bank whose accounts are stored in c.dataDir and which is
+ * operated through c.service.
+ *
+ * Representation Invariant: c.dataDir != null && c.store != null && c.ledger != null &&
+ * c.service != null && c.service.getStore() == c.store && c.service.getLedger() == c.ledger &&
+ * c.asyncService != null && c.asyncService.getService() == c.service && c.index != null &&
+ * c.service.getManager().getIndex() == c.index && c.monthEndJob != null
+ */
+public class Bank implements Closeable {
+    private final File dataDir;
+    private final AccountStore store;
+    private final TransactionLedger ledger;
+    private final CustomerIndex index;
+    private final TransactionService service;
+    private final AsyncTransactionService asyncService;
+    private final MonthEndJob monthEndJob;
+    private final Closeable monthEndSchedule;
+    private final Closeable metricsDump;
+
+    private Bank(File dataDir, AccountStore store, TransactionLedger ledger, CustomerIndex index,
+            TransactionService service, Closeable metricsDump) {
+        this.dataDir = dataDir;
+        this.store = store;
+        this.ledger = ledger;
+        this.index = index;
+        this.service = service;
+        this.asyncService = new AsyncTransactionService(service, Integer.getInteger("bank.io.threads", 4));
+        this.monthEndJob = new MonthEndJob(service, new File(dataDir, "monthend"),
+                Integer.getInteger("bank.monthEnd.threads", Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("bank.monthEnd.chunkSize", MonthEndJob.DEFAULT_CHUNK_SIZE));
+        // Interest and fees are only applied automatically when asked for
+        this.monthEndSchedule = Boolean.getBoolean("bank.monthEnd.enabled") ? monthEndJob.schedule() : null;
+        this.metricsDump = metricsDump;
+    }
+
+    /**
+     * Opens the bank configured by the bank.data.dir, bank.manager.username and bank.manager.password system properties.
+     * @effects returns the opened bank
+     * @throws IOException if the account store cannot be opened
+     */
+    public static Bank open() throws IOException {
+        return open(new File(System.getProperty("bank.data.dir", "bank-data")),
+                System.getProperty("bank.manager.username", "admin"), System.getProperty("bank.manager.password", "admin"));
+    }
+
+    /**
+     * Opens the bank stored in a data directory.
+     * The first time a directory is used, customer .txt files from the working directory are imported.
+     * @param dataDir the directory holding the account store
+     * @param managerUsername the manager's username
+     * @param managerPassword the manager's password
+     * @effects returns the opened bank
+     * @throws IOException if the account store cannot be opened
+     */
+    public static Bank open(File dataDir, String managerUsername, String managerPassword) throws IOException {
+        String shards = System.getProperty("bank.shards", "");
+        // The ledger is opened first so the journal can restore the transfer entries of a crashed run
+        TransactionLedger ledger = new TransactionLedger(new File(dataDir, "ledger"));
+        AccountStore store;
+        try {
+            store = shards.isBlank() ? openLocalStore(dataDir, ledger) : ShardedAccountStore.connect(shards);
+        } catch (IOException | RuntimeException e) {
+            ledger.close();
+            throw e;
+        }
+        // Recovery has flushed everything to the stores, so one pass over them gives the starting totals
+        BankStatistics statistics = BankStatistics.getDefault();
+        statistics.reset();
+        store.forEach((username, password, balance, tierRank) -> statistics.accountOpened(balance));
+        CustomerIndex index = new CustomerIndex(new File(dataDir, "customers.idx"), store);
+        Manager manager = new Manager(managerUsername, managerPassword, store, index);
+        SpendingLimiter limiter = new SpendingLimiter(Long.getLong("bank.limits.windowMillis", SpendingLimiter.DEFAULT_WINDOW_MILLIS));
+        return new Bank(dataDir, store, ledger, index, new TransactionService(manager, ledger, limiter), startMetrics(dataDir));
+    }
+
+    /**
+     * Opens the account store kept in a data directory, as used by a bank without shards and by
+     * each ShardServer.
+     * The first time a directory is used, customer .txt files from the working directory are imported.
+     * @param dataDir the directory holding the account store
+     * @effects returns the opened store, with the changes of a crashed run recovered
+     * @throws IOException if the store cannot be opened
+     */
+    public static AccountStore openLocalStore(File dataDir) throws IOException {
+        return openLocalStore(dataDir, null);
+    }
+
+    /**
+     * Opens the account store kept in a data directory, journaling transfers together with their
+     * entries in a ledger.
+     * @param dataDir the directory holding the account store
+     * @param ledger the transaction history of the accounts, or null to journal balances only
+     * @effects returns the opened store, with the changes and transfer entries of a crashed run recovered
+     * @throws IOException if the store cannot be opened
+     */
+    public static AccountStore openLocalStore(File dataDir, TransactionLedger ledger) throws IOException {
+        // Accounts live in a memory-mapped snapshot plus the log of changes since it was taken
+        LogAccountStore logStore = new LogAccountStore(dataDir, LogAccountStore.DEFAULT_SEGMENT_BYTES,
+                Long.getLong("bank.snapshot.tailBytes", LogAccountStore.DEFAULT_SEGMENT_BYTES));
+        File migrated = new File(dataDir, "migrated");
+        if (!migrated.exists()) {
+            logStore.importFrom(new TextFileAccountStore(new File(".")));
+            migrated.createNewFile();
+        }
+        // Hot customers (or, with bank.cache.resident, all of them, off the heap) are served from
+        // memory and their updates are written behind in batches
+        long flushMillis = Long.getLong("bank.cache.flushMillis", 1000);
+        AccountStore cache = Boolean.getBoolean("bank.cache.resident") ? new ResidentAccountStore(logStore, flushMillis)
+                : new CachingAccountStore(logStore, Integer.getInteger("bank.cache.size", 10000), flushMillis);
+        // Every change is committed to the write-ahead journal first, recovering a crashed run on open
+        Journal journal = new Journal(new File(dataDir, "journal.log"), Long.getLong("bank.journal.groupCommitMicros", 0));
+        return new JournaledAccountStore(cache, journal, ledger,
+                Long.getLong("bank.journal.checkpointBytes", 64L * 1024 * 1024));
+    }
+
+    private static Closeable startMetrics(File dataDir) {
+        Metrics metrics = Metrics.getDefault();
+        try {
+            metrics.registerMBean();
+        } catch (JMException e) {
+            System.err.println("Failed to publish metrics over JMX: " + e.getMessage());
+        }
+        long dumpMillis = Long.getLong("bank.metrics.dumpMillis", 0);
+        if (dumpMillis <= 0) {
+            return null;
+        }
+        boolean json = !"text".equals(System.getProperty("bank.metrics.format", "json"));
+        File file = new File(System.getProperty("bank.metrics.file",
+                new File(dataDir, json ? "metrics.json" : "metrics.txt").getPath()));
+        return metrics.startDump(file, dumpMillis, json);
+    }
+
+    public File getDataDir() {
+        return this.dataDir;
+    }
+
+    public AccountStore getStore() {
+        return this.store;
+    }
+
+    public TransactionLedger getLedger() {
+        return this.ledger;
+    }
+
+    public CustomerIndex getIndex() {
+        return this.index;
+    }
+
+    public Manager getManager() {
+        return service.getManager();
+    }
+
+    public TransactionService getService() {
+        return this.service;
+    }
+
+    public AsyncTransactionService getAsyncService() {
+        return this.asyncService;
+    }
+
+    public BankStatistics getStatistics() {
+        return BankStatistics.getDefault();
+    }
+
+    public MonthEndJob getMonthEndJob() {
+        return this.monthEndJob;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (monthEndSchedule != null) {
+                monthEndSchedule.close(); // A run cut short is resumed the next time the bank opens
+            }
+            asyncService.close();
+        } finally {
+            try {
+                store.close();
+            } finally {
+                try {
+                    ledger.close();
+                    index.close();
+                } finally {
+                    if (metricsDump != null) {
+                        metricsDump.close();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        return dataDir != null && store != null && ledger != null && service != null && service.getStore() == store
+                && service.getLedger() == ledger && asyncService != null && asyncService.getService() == service
+                && index != null && service.getManager().getIndex() == index && monthEndJob != null;
+    }
+
+    @Override
+    public String toString() {
+        return "Bank{" + "dataDir=" + dataDir + ", service=" + service + '}';
+    }
+}
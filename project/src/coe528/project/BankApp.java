@@ -1,44 +1,143 @@
 package coe528.project;
 
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.PauseTransition;
+import javafx.animation.Timeline;
 import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.beans.binding.Bindings;
+import javafx.collections.ListChangeListener;
 import javafx.event.ActionEvent;
 import javafx.geometry.Insets;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.layout.GridPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
-import java.io.File;
-import java.io.FileWriter;
+import javafx.util.Duration;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 
 /**
  * Overview: The BankApp class is the main application class for the bank system.
  * It is responsible for launching the application and managing the user interface.
  * This class is mutable as it changes scenes based on user interaction.
  *
+ * All business operations go through a TransactionService, the same API used by non-UI callers.
+ * Operations that touch the disk run on the bank's persistence threads through an
+ * AsyncTransactionService; the screen is updated on the JavaFX application thread once the
+ * change is acknowledged, so a slow disk never freezes the interface.
+ *
+ * Each screen is built the first time it is shown and then kept, so moving between screens
+ * does not rebuild controls or lay them out again. The customer screen is shared by every
+ * customer: its labels are bound to an AccountModel, which is switched to the customer at
+ * login and updated when an operation is acknowledged. A screen clears its fields when it is
+ * left, so it never shows the previous user's input.
+ *
  * Abstraction Function: AF(c) = A banking application with a primary stage c.primaryStage
- * and a manager c.manager.
+ * operating the bank c.bank through the transaction service c.service, showing the screens
+ * c.scenes built so far and the account c.account of the logged-in customer.
  *
- * Representation Invariant: c.primaryStage != null && c.manager != null
+ * Representation Invariant: c.primaryStage != null && c.bank != null && c.service == c.bank.getAsyncService() &&
+ * c.scenes != null && c.account != null
  */
 public class BankApp extends Application {
 
+    /**
+     * Overview: A View is one of the application's screens; each is built once, the first
+     * time it is shown.
+     */
+    private enum View {
+        INITIAL, CUSTOMER_LOGIN, MANAGER_LOGIN, CUSTOMER, MANAGER, ADD_CUSTOMER, DELETE_CUSTOMER
+    }
+
     private Stage primaryStage;
-    private Manager manager;
+    private Bank bank;
+    private AsyncTransactionService service;
+    private final Map<View, Scene> scenes = new EnumMap<>(View.class);
+    private final AccountModel account = new AccountModel();
 
     @Override
     public void start(Stage primaryStage) {
         this.primaryStage = primaryStage;
         primaryStage.setTitle("Bank Application");
-        primaryStage.setScene(createInitialScene());
+        VBox opening = new VBox(new Label("Opening bank..."));
+        opening.setPadding(new Insets(10));
+        primaryStage.setScene(new Scene(opening, 300, 200));
         primaryStage.show();
         
-        //Manager initialiation
-        manager = new Manager("admin", "admin");
+        //Bank initialization, including the manager's credentials; recovery may read the disk for a while
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return Bank.open();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((opened, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                showAlert("Error", "Failed to open the bank: " + unwrap(error).getMessage());
+                Platform.exit();
+                return;
+            }
+            bank = opened;
+            service = bank.getAsyncService();
+            show(View.INITIAL);
+        }));
+    }
+
+    @Override
+    public void stop() throws IOException {
+        if (bank != null) {
+            bank.close();
+        }
+    }
+
+    /**
+     * Switches to a screen, building it the first time.
+     * @modifies this
+     * @effects makes the scene of view the scene of the primary stage
+     */
+    private void show(View view) {
+        Scene scene = scenes.get(view);
+        if (scene == null) {
+            scene = switch (view) {
+                case INITIAL -> createInitialScene();
+                case CUSTOMER_LOGIN -> createLoginScene("Customer");
+                case MANAGER_LOGIN -> createLoginScene("Manager");
+                case CUSTOMER -> createCustomerScene();
+                case MANAGER -> createManagerScene();
+                case ADD_CUSTOMER -> createAddCustomerScene();
+                case DELETE_CUSTOMER -> createDeleteCustomerScene();
+            };
+            scenes.put(view, scene);
+        }
+        primaryStage.setScene(scene);
+    }
+
+    /**
+     * Runs actions whenever a scene is shown or hidden, to reset a cached scene for its next
+     * use or to stop work it only does while visible.
+     * @modifies scene
+     * @effects runs shown each time scene is put on a window and hidden each time it is taken off
+     */
+    private static void onVisibility(Scene scene, Runnable shown, Runnable hidden) {
+        scene.windowProperty().addListener((observable, previous, current) -> {
+            if (current != null) {
+                shown.run();
+            } else {
+                hidden.run();
+            }
+        });
     }
 
     private Scene createInitialScene() {
@@ -51,10 +150,10 @@ public class BankApp extends Application {
         vbox.getChildren().add(label);
 
         Button customerBtn = new Button("Customer");
-        customerBtn.setOnAction(e -> primaryStage.setScene(createLoginScene("Customer")));
+        customerBtn.setOnAction(e -> show(View.CUSTOMER_LOGIN));
 
         Button managerBtn = new Button("Manager");
-        managerBtn.setOnAction(e -> primaryStage.setScene(createLoginScene("Manager")));
+        managerBtn.setOnAction(e -> show(View.MANAGER_LOGIN));
 
         vbox.getChildren().addAll(customerBtn, managerBtn);
 
@@ -90,45 +189,83 @@ public class BankApp extends Application {
         GridPane.setConstraints(backBtn, 1, 2);
         grid.getChildren().add(backBtn);
 
-        backBtn.setOnAction(e -> primaryStage.setScene(createInitialScene()));
+        backBtn.setOnAction(e -> show(View.INITIAL));
 
         if (role.equals("Customer")) {
-            loginBtn.setOnAction(e -> handleLogin(userTextField.getText(), pwBox.getText(), role));
+            loginBtn.setOnAction(e -> handleLogin(userTextField.getText(), pwBox.getText(), role, loginBtn));
         }else if(role.equals("Manager")){
-            loginBtn.setOnAction(f -> handleLogin(userTextField.getText(), pwBox.getText(), role));
+            loginBtn.setOnAction(f -> handleLogin(userTextField.getText(), pwBox.getText(), role, loginBtn));
         }
         
-        return new Scene(grid, 300, 200);
+        Scene scene = new Scene(grid, 300, 200);
+        // The scene is reused, so the last user's credentials must not stay on it
+        onVisibility(scene, () -> userTextField.requestFocus(), () -> {
+            userTextField.clear();
+            pwBox.clear();
+        });
+        return scene;
     }
 
 
-    private void handleLogin(String username, String password, String role) {
+    private void handleLogin(String username, String password, String role, Button loginBtn) {
         // Handle login logic for customer or manager
-        try{
-            if(role.equals("Manager")){
-                if(manager.getUsername().equals(username) && manager.getPassword().equals(password)){
-                    primaryStage.setScene(createManagerScene());
-                }else{
-                    showAlert("Login Error", "Invalid username or password.");
-                }
-            }else if(role.equals("Customer")){
-                File customerFile = new File(username + ".txt");
-                if(customerFile.exists()){
-                    List<String> lines = Files.readAllLines(customerFile.toPath());
-                    if(lines.size() == 4 && lines.get(3).equals("customer") && lines.get(1).equals(password)){
-                        Customer customer = new Customer(lines.get(0), lines.get(1), Double.parseDouble(lines.get(2)));
-                        primaryStage.setScene(createCustomerScene(customer));
-                    }else{
-                        showAlert("Login Error", "Invalid username or password.");
-                    }
-                }else{
-                    showAlert("Login Error", "Customer does not exist.");
-                }
+        if(role.equals("Manager")){
+            try{
+                service.getService().managerLogin(username, password);
+                show(View.MANAGER);
+            }catch(IllegalArgumentException e){
+                showAlert("Login Error", e.getMessage());
             }
-        }catch(IOException e){
-            e.printStackTrace();
-            showAlert("Error", "An error occured while accessing customer data.");
+        }else if(role.equals("Customer")){
+            whenDone(service.login(username, password), loginBtn, "Login Error",
+                    "An error occured while accessing customer data.",
+                    customer -> {
+                        account.show(customer);
+                        whenDone(service.history(customer.getUsername(), 1), null, "Error",
+                                "Failed to read transaction history", latest -> {
+                                    if (!latest.isEmpty()) {
+                                        account.showLatest(customer, latest.get(0));
+                                    }
+                                });
+                        show(View.CUSTOMER);
+                    });
+        }
+    }
+
+    /**
+     * Updates the screen once an asynchronous operation finishes.
+     * @param future the operation
+     * @param busy a control to disable while the operation runs, or null
+     * @param errorTitle the title of the alert shown if the operation is rejected
+     * @param ioErrorMessage the message shown if the operation fails with an I/O error
+     * @param onSuccess the screen update to make with the operation's result
+     * @effects runs onSuccess, or shows an alert, on the JavaFX application thread when future completes
+     */
+    private <T> void whenDone(CompletableFuture<T> future, Control busy, String errorTitle, String ioErrorMessage,
+            Consumer<T> onSuccess) {
+        if (busy != null) {
+            busy.setDisable(true);
         }
+        future.whenComplete((result, error) -> Platform.runLater(() -> {
+            if (busy != null) {
+                busy.setDisable(false);
+            }
+            if (error == null) {
+                onSuccess.accept(result);
+                return;
+            }
+            Throwable cause = unwrap(error);
+            if (cause instanceof IllegalArgumentException) {
+                showAlert(errorTitle, cause.getMessage());
+            } else {
+                cause.printStackTrace();
+                showAlert("Error", ioErrorMessage);
+            }
+        }));
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
     }
 
     private void showAlert(String title, String content) {
@@ -140,22 +277,17 @@ public class BankApp extends Application {
         alert.showAndWait();
     }
     
-    private void updateCustomerFile(Customer customer) throws IOException{
-        // Update customer file with new balance
-        File customerFile = new File(customer.getUsername() + ".txt");
-        try(FileWriter writer = new FileWriter(customerFile, false)){
-            writer.write(customer.getUsername() + "\n" + customer.getPassword() + "\n" + customer.getBalance() + "\n" + "customer");
-        }
-    }
-    
-    private Scene createCustomerScene(Customer customer) {
-        // Create the sene for customer interactions
+    private Scene createCustomerScene() {
+        // Create the sene for customer interactions, shared by every customer who logs in
     GridPane grid = new GridPane();
     grid.setPadding(new Insets(10, 10, 10, 10));
     grid.setVgap(5);
     grid.setHgap(5);
 
-    Label balanceLabel = new Label("Balance: $" + customer.getBalance());
+    // The labels follow the account, so acknowledged operations only update its properties
+    Label balanceLabel = new Label();
+    balanceLabel.textProperty().bind(Bindings.createStringBinding(
+            () -> "Balance: $" + Money.format(account.balanceProperty().get()), account.balanceProperty()));
     GridPane.setConstraints(balanceLabel, 0, 0);
     grid.getChildren().add(balanceLabel);
     
@@ -164,16 +296,18 @@ public class BankApp extends Application {
     GridPane.setConstraints(getBalanceBtn, 1, 0);
     grid.getChildren().add(getBalanceBtn);
     getBalanceBtn.setOnAction(e -> {
-        showAlert("Balance", "Current Balance: $"+customer.getBalance());
-        primaryStage.setScene(createCustomerScene(customer));
+        account.refresh();
+        showAlert("Balance", "Current Balance: $" + Money.format(account.balanceProperty().get()));
     });
 
-    Label levelLabel = new Label("Level: " + customer.getLevel());
+    Label levelLabel = new Label();
+    levelLabel.textProperty().bind(Bindings.createStringBinding(() -> "Level: "
+            + (account.tierProperty().get() == null ? "" : account.tierProperty().get().getName()), account.tierProperty()));
     GridPane.setConstraints(levelLabel, 0, 1);
     grid.getChildren().add(levelLabel);
     
-    String[] transaction = {"None"};
-    Label transactionLabel = new Label("Latest Transaction: " + transaction[0]);
+    Label transactionLabel = new Label();
+    transactionLabel.textProperty().bind(Bindings.concat("Latest Transaction: ", account.lastTransactionProperty()));
     GridPane.setConstraints(transactionLabel, 0, 2, 2, 1);
     grid.getChildren().add(transactionLabel);
     
@@ -190,23 +324,15 @@ public class BankApp extends Application {
     // Deposit
     depositBtn.setOnAction(e -> {
         try {
-            double amount = Double.parseDouble(depositAmountField.getText());
-            customer.deposit(amount);
-            balanceLabel.setText("Balance: $" + String.format("%.2f", customer.getBalance()));
-            levelLabel.setText("Level: " + customer.getLevel());
-            transaction[0] = String.format("Deposited $%.2f", amount);
-            transactionLabel.setText("Latest Transaction: " + transaction[0]);
-            depositAmountField.clear();
+            long amount = Money.parse(depositAmountField.getText());
+            Customer customer = account.getCustomer();
+            whenDone(service.deposit(customer, amount), depositBtn, "Error", "Failed to upload customer data",
+                    entry -> {
+                        account.record(customer, entry);
+                depositAmountField.clear();
+            });
         } catch (NumberFormatException ex) {// wrong format
             showAlert("Error", "Invalid amount.");
-        } catch (IllegalArgumentException ex){// 0 or less
-            showAlert("Error", ex.getMessage());
-        }
-        
-        try{
-            updateCustomerFile(customer);
-        }catch(IOException ex){
-            showAlert("Error", "Failed to upload customer data");
         }
     });
     
@@ -222,23 +348,15 @@ public class BankApp extends Application {
     //Withdrawal
     withdrawBtn.setOnAction(e -> {
         try {
-            double amount = Double.parseDouble(withdrawAmountField.getText());
-            customer.withdraw(amount);
-                balanceLabel.setText("Balance: $" + String.format("%.2f", customer.getBalance()));
-            levelLabel.setText("Level: " + customer.getLevel());
-            transaction[0] = String.format("Withdrew $%.2f", amount);
-            transactionLabel.setText("Latest Transaction: " + transaction[0]);
-            withdrawAmountField.clear();
+            long amount = Money.parse(withdrawAmountField.getText());
+            Customer customer = account.getCustomer();
+            whenDone(service.withdraw(customer, amount), withdrawBtn, "Error", "Failed to upload customer data",
+                    entry -> {
+                        account.record(customer, entry);
+                withdrawAmountField.clear();
+            });
         } catch (NumberFormatException ex) {
             showAlert("Error", "Invalid amount.");
-        } catch (IllegalArgumentException ex) {
-            showAlert("Error", ex.getMessage());
-        }
-        
-        try{
-            updateCustomerFile(customer);
-        }catch(IOException ex){
-            showAlert("Error", "Failed to upload customer data");
         }
     });
     
@@ -254,13 +372,11 @@ public class BankApp extends Application {
     // Online Purchases
     purchaseBtn.setOnAction(e -> {
         try {
-            double purchaseAmount = Double.parseDouble(purchaseAmountField.getText());
+            long purchaseAmount = Money.parse(purchaseAmountField.getText());
+            Customer customer = account.getCustomer();
             if (customer.getBalance() >= purchaseAmount) {
-                customer.onlinePurchase(purchaseAmount);
-                balanceLabel.setText("Balance: $" + String.format("%.2f", customer.getBalance()));
-                levelLabel.setText("Level: " + customer.getLevel());
-                transaction[0] = String.format("Purchased item for $%.2f", purchaseAmount);
-                transactionLabel.setText("Latest Transaction: " + transaction[0]);
+                whenDone(service.purchase(customer, purchaseAmount), purchaseBtn, "Error", "Failed to upload customer data",
+                        entry -> account.record(customer, entry));
             } else {
                 showAlert("Error", "Insufficient balance for this purchase.");
             }
@@ -268,31 +384,58 @@ public class BankApp extends Application {
             purchaseAmountField.clear();
         } catch (NumberFormatException ex) {
             showAlert("Error", "Invalid amount.");
-        } catch (IllegalArgumentException ex){
-            showAlert("Error", ex.getMessage());
         }
-        
-        try{
-            updateCustomerFile(customer);
-        }catch(IOException ex){
-            showAlert("Error", "Failed to upload customer data");
+    });
+
+    TextField recipientField = new TextField();
+    recipientField.setPromptText("Transfer To (username)");
+    GridPane.setConstraints(recipientField, 1, 6);
+    grid.getChildren().add(recipientField);
+
+    TextField transferAmountField = new TextField();
+    transferAmountField.setPromptText("Transfer Amount");
+    GridPane.setConstraints(transferAmountField, 1, 7);
+    grid.getChildren().add(transferAmountField);
+
+    Button transferBtn = new Button("Transfer");
+    GridPane.setConstraints(transferBtn, 0, 7);
+    grid.getChildren().add(transferBtn);
+
+    // Transfer to another customer, both accounts updated together
+    transferBtn.setOnAction(e -> {
+        try {
+            long amount = Money.parse(transferAmountField.getText());
+            Customer customer = account.getCustomer();
+            whenDone(service.transfer(customer, recipientField.getText().trim(), amount), transferBtn, "Error",
+                    "Failed to upload customer data", entry -> {
+                        account.record(customer, entry);
+                        recipientField.clear();
+                        transferAmountField.clear();
+                    });
+        } catch (NumberFormatException ex) {
+            showAlert("Error", "Invalid amount.");
         }
     });
 
     Button backBtn = new Button("Logout");
-    GridPane.setConstraints(backBtn, 0, 6);
+    GridPane.setConstraints(backBtn, 0, 8);
     grid.getChildren().add(backBtn);
 
-    backBtn.setOnAction(e -> {
-        try{
-            updateCustomerFile(customer);
-            primaryStage.setScene(createLoginScene("Customer"));
-        }catch(IOException ex){
-            showAlert("Error", "Failed to update customer data.");
-        }
+    backBtn.setOnAction(e -> whenDone(service.logout(account.getCustomer()), backBtn, "Error",
+            "Failed to update customer data.", done -> {
+                account.clear();
+                show(View.CUSTOMER_LOGIN);
+            }));
+
+    Scene scene = new Scene(grid, 300, 310);
+    onVisibility(scene, () -> { }, () -> {
+        depositAmountField.clear();
+        withdrawAmountField.clear();
+        purchaseAmountField.clear();
+        recipientField.clear();
+        transferAmountField.clear();
     });
-
-    return new Scene(grid, 300, 250);
+    return scene;
     }
 
 
@@ -307,19 +450,48 @@ public class BankApp extends Application {
         Label label = new Label("Manager View");
         vbox.getChildren().add(label);
 
+        // Bank-wide totals, read from counters kept up to date by every transaction
+        Label totalsLabel = new Label();
+        vbox.getChildren().add(totalsLabel);
+        List<Label> tierLabels = new ArrayList<>();
+        BankStatistics statistics = bank.getStatistics();
+        for (Tier tier : statistics.getTiers().getTiers()) {
+            Label tierLabel = new Label();
+            tierLabels.add(tierLabel);
+            vbox.getChildren().add(tierLabel);
+        }
+        Runnable showStatistics = () -> {
+            totalsLabel.setText("Total deposits: $" + Money.format(statistics.getTotalBalance())
+                    + " (" + statistics.getCustomers() + " customers)");
+            List<Tier> tiers = statistics.getTiers().getTiers();
+            for (int i = 0; i < tiers.size(); i++) {
+                Tier tier = tiers.get(i);
+                tierLabels.get(i).setText(tier.getName() + ": " + statistics.getCustomers(tier)
+                        + " customers, average $" + Money.format(statistics.getAverageBalance(tier)));
+            }
+        };
+        Timeline refresh = new Timeline(new KeyFrame(Duration.seconds(1), e -> showStatistics.run()));
+        refresh.setCycleCount(Animation.INDEFINITE);
+
         Button addCustomerBtn = new Button("Add Customer");
-        addCustomerBtn.setOnAction(e -> primaryStage.setScene(createAddCustomerScene()));
+        addCustomerBtn.setOnAction(e -> show(View.ADD_CUSTOMER));
         vbox.getChildren().add(addCustomerBtn);
 
         Button deleteCustomerBtn = new Button("Delete Customer");
-        deleteCustomerBtn.setOnAction(e -> primaryStage.setScene(createDeleteCustomerScene()));
+        deleteCustomerBtn.setOnAction(e -> show(View.DELETE_CUSTOMER));
         vbox.getChildren().add(deleteCustomerBtn);
 
         Button backBtn = new Button("Logout");
-        backBtn.setOnAction(e -> primaryStage.setScene(createInitialScene()));
+        backBtn.setOnAction(e -> show(View.INITIAL));
         vbox.getChildren().add(backBtn);
 
-        return new Scene(vbox, 300, 200);
+        Scene scene = new Scene(vbox, 350, 300);
+        // Refresh the totals only while the manager is on this screen
+        onVisibility(scene, () -> {
+            showStatistics.run();
+            refresh.play();
+        }, refresh::stop);
+        return scene;
     }
 
 
@@ -360,66 +532,107 @@ public class BankApp extends Application {
                 return;
             }
 
-            try{
-                manager.addCustomer(username, password);
-                primaryStage.setScene(createManagerScene());
-            }catch(IOException ex){
-                showAlert("Error", "Failed to add customer.");
-            }catch(IllegalArgumentException ex){
-                showAlert("Error", ex.getMessage());
-            }
-            primaryStage.setScene(createManagerScene()); // Go back to the manager scene after adding the customer
+            // Go back to the manager scene once the customer has been added
+            whenDone(service.addCustomer(username, password), addButton, "Error", "Failed to add customer.",
+                    done -> show(View.MANAGER));
         });
 
         Button backButton = new Button("Back");
         GridPane.setConstraints(backButton, 1, 3);
         grid.getChildren().add(backButton);
 
-        backButton.setOnAction(e -> primaryStage.setScene(createManagerScene()));
+        backButton.setOnAction(e -> show(View.MANAGER));
 
-        return new Scene(grid, 300, 200);
+        Scene scene = new Scene(grid, 300, 200);
+        onVisibility(scene, () -> { }, () -> {
+            usernameField.clear();
+            passwordField.clear();
+        });
+        return scene;
 }
 
     
 private Scene createDeleteCustomerScene() {
-    // Create scene for deleting an existing customer
+    // Create scene for deleting existing customers
     VBox vbox = new VBox();
     vbox.setPadding(new Insets(10));
     vbox.setSpacing(8);
 
-    Label label = new Label("Select a Customer to Delete:");
+    Label label = new Label("Select Customers to Delete:");
     vbox.getChildren().add(label);
 
-    File[] files = new File(".").listFiles((dir,name) -> name.endsWith(".txt"));
-    boolean customersExist = false;
-    for(int i=0; i<files.length; i++){
-        try{
-            List<String> lines = Files.readAllLines(files[i].toPath());
-            if(lines.size() == 4 && lines.get(3).equals("customer")){
-                customersExist = true;
-                String username = lines.get(0);
-                Button deleteButton = new Button("Delete "+username);
-                deleteButton.setOnAction(e -> {
-                    manager.deleteCustomer(username);
-                    primaryStage.setScene(createDeleteCustomerScene());
-                });
-                vbox.getChildren().add(deleteButton);
+    TextField searchField = new TextField();
+    searchField.setPromptText("Search by username");
+    vbox.getChildren().add(searchField);
+
+    // The list is virtualized: only the visible rows have nodes, and pages of usernames are
+    // read from the customer index in the background as the manager scrolls
+    CustomerPager pager = new CustomerPager(service, CustomerPager.DEFAULT_PAGE_SIZE,
+            error -> showAlert("Error", "Failed to load customer data."));
+    ListView<String> customerList = new ListView<>(pager.getItems());
+    customerList.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+    customerList.setPlaceholder(new Label("No existing customers"));
+    customerList.setCellFactory(view -> new ListCell<String>() {
+        @Override
+        protected void updateItem(String username, boolean empty) {
+            super.updateItem(username, empty);
+            setText(empty ? null : username);
+            if (!empty) {
+                pager.showing(getIndex());
             }
-        }catch(IOException e){
-            showAlert("Error", "Failed to load customer data.");
         }
-    }
-    
-    if(!customersExist){
-        Label noCustomersLabel = new Label("No existing customers");
-        vbox.getChildren().add(noCustomersLabel);
-    }
+    });
+    VBox.setVgrow(customerList, Priority.ALWAYS);
+    vbox.getChildren().add(customerList);
+
+    Label statusLabel = new Label();
+    Runnable updateStatus = () -> statusLabel.setText(pager.getItems().size()
+            + (pager.isExhausted() ? "" : "+") + " customers, "
+            + customerList.getSelectionModel().getSelectedItems().size() + " selected");
+    pager.getItems().addListener((ListChangeListener<String>) change -> updateStatus.run());
+    customerList.getSelectionModel().getSelectedItems().addListener((ListChangeListener<String>) change -> updateStatus.run());
+    vbox.getChildren().add(statusLabel);
+
+    // Search as you type, once typing pauses
+    PauseTransition typing = new PauseTransition(Duration.millis(200));
+    typing.setOnFinished(e -> pager.search(searchField.getText()));
+    searchField.textProperty().addListener((observable, oldText, newText) -> typing.playFromStart());
+
+    Button deleteButton = new Button("Delete Selected");
+    deleteButton.disableProperty().bind(Bindings.isEmpty(customerList.getSelectionModel().getSelectedItems()));
+    deleteButton.setOnAction(e -> {
+        List<String> selected = new ArrayList<>(customerList.getSelectionModel().getSelectedItems());
+        Alert confirm = new Alert(Alert.AlertType.CONFIRMATION, "Delete " + selected.size() + " customer(s)?");
+        confirm.setHeaderText(null);
+        if (confirm.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK) {
+            return;
+        }
+        List<String> deleted = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<?>[] deletions = new CompletableFuture<?>[selected.size()];
+        for (int i = 0; i < deletions.length; i++) {
+            String username = selected.get(i);
+            deletions[i] = service.deleteCustomer(username).thenRun(() -> deleted.add(username));
+        }
+        CompletableFuture<Void> all = CompletableFuture.allOf(deletions);
+        // Remove whatever was deleted even if some deletions failed
+        all.whenComplete((done, error) -> Platform.runLater(() -> {
+            customerList.getSelectionModel().clearSelection();
+            pager.removeAll(deleted);
+        }));
+        whenDone(all, customerList, "Error", "Failed to delete customer.", done -> { });
+    });
 
     Button backButton = new Button("Back");
-    backButton.setOnAction(e -> primaryStage.setScene(createManagerScene()));
-    vbox.getChildren().add(backButton);
-
-    return new Scene(vbox, 300, 200);
+    backButton.setOnAction(e -> show(View.MANAGER));
+    vbox.getChildren().add(new HBox(8, deleteButton, backButton));
+
+    Scene scene = new Scene(vbox, 350, 450);
+    // Customers may have been added since the list was last shown, so it is read again each time
+    onVisibility(scene, () -> pager.search(searchField.getText()), () -> {
+        typing.stop();
+        customerList.getSelectionModel().clearSelection();
+    });
+    return scene;
 }
 
     /**
@@ -427,7 +640,8 @@ private Scene createDeleteCustomerScene() {
      * @effects returns true if the rep invariant holds, false otherwise
      */
      public boolean repOK(){
-         return primaryStage != null && manager != null;
+         return primaryStage != null && bank != null && service == bank.getAsyncService() && scenes != null
+                 && account != null;
      }
 
      @Override
@@ -435,7 +649,9 @@ private Scene createDeleteCustomerScene() {
         // Implement the abstraction function
         return "BankApp{" +
                 "primaryStage=" + primaryStage +
-                ", manager=" + manager +
+                ", bank=" + bank +
+                ", scenes=" + scenes.keySet() +
+                ", account=" + account +
                 '}';
     }
 
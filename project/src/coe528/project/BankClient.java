@@ -0,0 +1,249 @@
+package coe528.project;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * Overview: The BankClient class is one session with a BankServer over TCP, for tellers, ATMs,
+ * other applications and load tests. Requests are pipelined: each send method only buffers its
+ * request, flush sends everything buffered at once, and receive reads the responses one by one
+ * in the order the requests were sent. A client that wants to wait for each answer sends,
+ * flushes and receives in turn. The session's customer is the one of its last successful
+ * login. A BankClient is used by one thread at a time.
+ * This class is mutable as requests are sent and responses received.
+ *
+ * Abstraction Function: AF(c) = The session on c.socket, with c.outstanding requests sent or
+ * buffered whose responses have not been received.
+ *
+ * Representation Invariant: c.socket != null && c.outstanding >= 0
+ */
+public class BankClient implements Closeable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final ByteBuffer request = ByteBuffer.allocate(2 + BankServer.MAX_FRAME_BYTES);
+    private long outstanding;
+
+    /**
+     * Overview: A Response is the server's answer to one request: whether it succeeded and, if
+     * not, why, and for customer operations the customer's balance and tier rank afterwards
+     * (and the fee for a purchase).
+     * This class is immutable.
+     */
+    public static final class Response {
+        private final byte status;
+        private final String message;
+        private final long balance;
+        private final int tierRank;
+        private final long fee;
+
+        Response(byte status, String message, long balance, int tierRank, long fee) {
+            this.status = status;
+            this.message = message;
+            this.balance = balance;
+            this.tierRank = tierRank;
+            this.fee = fee;
+        }
+
+        public boolean isOk() {
+            return status == BankServer.OK;
+        }
+
+        /**
+         * Returns whether the request broke one of the bank's rules, such as a withdrawal larger
+         * than the balance or a wrong password, as opposed to failing on an I/O error.
+         * @effects returns true if the server rejected the request
+         */
+        public boolean isRejected() {
+            return status == BankServer.REJECTED;
+        }
+
+        /**
+         * Returns why the request did not succeed.
+         * @effects returns the server's message, or null if the request succeeded
+         */
+        public String getMessage() {
+            return this.message;
+        }
+
+        /**
+         * Returns the customer's balance after a customer operation.
+         * @effects returns the balance in cents, or -1 if the response carries none
+         */
+        public long getBalance() {
+            return this.balance;
+        }
+
+        /**
+         * Returns the rank of the customer's tier after a customer operation.
+         * @effects returns the rank in the default TierTable, or -1 if the response carries none
+         */
+        public int getTierRank() {
+            return this.tierRank;
+        }
+
+        public long getFee() {
+            return this.fee;
+        }
+
+        @Override
+        public String toString() {
+            return isOk() ? "Response{OK, balance=" + (balance < 0 ? "none" : Money.format(balance)) + ", tierRank="
+                    + tierRank + ", fee=" + Money.format(fee) + '}' : "Response{" + (isRejected() ? "REJECTED" : "FAILED")
+                    + ", message=" + message + '}';
+        }
+    }
+
+    /**
+     * Connects to a server.
+     * @param host the host the server runs on
+     * @param port the port the server listens on
+     * @effects opens a session with the server
+     * @throws IOException if the server cannot be reached
+     */
+    public BankClient(String host, int port) throws IOException {
+        this.socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), 5000);
+            socket.setTcpNoDelay(true);
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 8192));
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private ByteBuffer begin(byte op) {
+        request.clear().position(2);
+        return request.put(op);
+    }
+
+    private void end() throws IOException {
+        request.putShort(0, (short) (request.position() - 2));
+        out.write(request.array(), 0, request.position());
+        outstanding++;
+    }
+
+    public void sendLogin(String username, String password) throws IOException {
+        BankServer.putString(BankServer.putString(begin(BankServer.LOGIN), username), password);
+        end();
+    }
+
+    public void sendBalance() throws IOException {
+        begin(BankServer.BALANCE);
+        end();
+    }
+
+    public void sendDeposit(long amount) throws IOException {
+        begin(BankServer.DEPOSIT).putLong(amount);
+        end();
+    }
+
+    public void sendWithdraw(long amount) throws IOException {
+        begin(BankServer.WITHDRAW).putLong(amount);
+        end();
+    }
+
+    public void sendPurchase(long amount) throws IOException {
+        begin(BankServer.PURCHASE).putLong(amount);
+        end();
+    }
+
+    public void sendTransfer(String toUsername, long amount) throws IOException {
+        BankServer.putString(begin(BankServer.TRANSFER), toUsername).putLong(amount);
+        end();
+    }
+
+    public void sendLogout() throws IOException {
+        begin(BankServer.LOGOUT);
+        end();
+    }
+
+    public void sendManagerLogin(String username, String password) throws IOException {
+        BankServer.putString(BankServer.putString(begin(BankServer.MANAGER_LOGIN), username), password);
+        end();
+    }
+
+    public void sendAddCustomer(String username, String password) throws IOException {
+        BankServer.putString(BankServer.putString(begin(BankServer.ADD_CUSTOMER), username), password);
+        end();
+    }
+
+    public void sendDeleteCustomer(String username) throws IOException {
+        BankServer.putString(begin(BankServer.DELETE_CUSTOMER), username);
+        end();
+    }
+
+    /**
+     * Sends every buffered request.
+     * @modifies this
+     * @effects writes the buffered requests to the server
+     * @throws IOException if the connection fails
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Waits for the response to the oldest request whose response has not been received.
+     * @requires a request has been sent and not answered yet
+     * @modifies this
+     * @effects returns the next response
+     * @throws IllegalStateException if no request is waiting for a response
+     * @throws IOException if the connection fails
+     */
+    public Response receive() throws IOException {
+        if (outstanding == 0) {
+            throw new IllegalStateException("No request is waiting for a response");
+        }
+        out.flush(); // A response never comes for a request that was not sent
+        byte[] frame = new byte[in.readUnsignedShort()];
+        in.readFully(frame);
+        outstanding--;
+        ByteBuffer response = ByteBuffer.wrap(frame);
+        byte status = response.get();
+        if (status != BankServer.OK) {
+            return new Response(status, BankServer.readString(response), -1, -1, 0);
+        }
+        if (!response.hasRemaining()) {
+            return new Response(status, null, -1, -1, 0);
+        }
+        long balance = response.getLong();
+        int tierRank = response.get();
+        return new Response(status, null, balance, tierRank, response.hasRemaining() ? response.getLong() : 0);
+    }
+
+    /**
+     * Returns the number of requests waiting for a response.
+     * @effects returns the number of requests sent or buffered whose responses have not been received
+     */
+    public long getOutstanding() {
+        return this.outstanding;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        return socket != null && outstanding >= 0;
+    }
+
+    @Override
+    public String toString() {
+        return "BankClient{" + "server=" + socket.getRemoteSocketAddress() + ", outstanding=" + outstanding + '}';
+    }
+}
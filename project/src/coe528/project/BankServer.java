@@ -0,0 +1,516 @@
+package coe528.project;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Overview: The BankServer class serves the bank's operations over TCP, so tellers, ATMs and
+ * other applications can share one bank. Every connection is a session: after LOGIN it can
+ * check the balance, deposit, withdraw, make online purchases and transfer money for that
+ * customer, and after MANAGER_LOGIN it can add and delete customers. All operations go through
+ * the bank's TransactionService, so they follow exactly the rules of the application.
+ * <p>
+ * One selector thread reads and writes every connection without blocking, so an idle
+ * connection costs a socket and a small buffer rather than a thread, and tens of thousands of
+ * clients can stay connected at once. Requests are pipelined: a client may send many requests
+ * without waiting, and the requests of a connection are performed one after another, in order,
+ * by one of a fixed pool of worker threads, while other connections are served by the other
+ * workers. Each response is sent in the order of its request; the responses to the requests a
+ * worker takes together (up to BATCH) are sent with a single write. A connection with too many
+ * requests waiting is not read until its worker catches up.
+ * <p>
+ * Every request and response is a frame: an unsigned 16-bit length followed by that many
+ * bytes. A request is an operation byte followed by its arguments, with strings written as an
+ * unsigned 16-bit length and UTF-8 bytes and amounts as 64-bit numbers of cents. A response is
+ * OK, REJECTED (the operation broke a rule) or FAILED (an I/O error), followed for REJECTED and
+ * FAILED by the message and for OK by the result: the customer's balance and tier rank for
+ * customer operations, then the fee for PURCHASE, and nothing for the others. All numbers are
+ * big-endian. BankClient implements the client side.
+ * This class is mutable as connections are opened and closed.
+ *
+ * Abstraction Function: AF(c) = The bank operated through c.service, served on c.server to the
+ * clients whose sessions are attached to the keys of c.selector.
+ *
+ * Representation Invariant: c.service != null && c.server != null && c.selector != null &&
+ * c.workers != null && c.maxPending > 0
+ */
+public class BankServer implements Closeable {
+    static final byte LOGIN = 1;
+    static final byte BALANCE = 2;
+    static final byte DEPOSIT = 3;
+    static final byte WITHDRAW = 4;
+    static final byte PURCHASE = 5;
+    static final byte TRANSFER = 6;
+    static final byte LOGOUT = 7;
+    static final byte MANAGER_LOGIN = 8;
+    static final byte ADD_CUSTOMER = 9;
+    static final byte DELETE_CUSTOMER = 10;
+
+    static final byte OK = 0;
+    static final byte REJECTED = 1;
+    static final byte FAILED = 2;
+
+    static final int MAX_FRAME_BYTES = 0xFFFF;
+    static final int MAX_RESPONSE_BYTES = 256;
+    static final int BATCH = 64;
+    public static final int DEFAULT_PORT = 7000;
+    public static final int DEFAULT_MAX_PENDING = 1024;
+
+    private final TransactionService service;
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final int maxPending;
+    // Changes to a key's interest made by workers, applied by the selector thread
+    private final Queue<Session> wakeups = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final Thread selectorThread;
+    private volatile boolean closed;
+
+    /**
+     * Overview: A Session is one client connection: the bytes read but not yet framed, the
+     * requests waiting for its worker, the responses waiting to be sent, and the customer or
+     * manager logged in on it. The requests and login state are only used by the one worker
+     * performing its requests at a time; the rest is guarded by the session's lock.
+     */
+    private final class Session {
+        final SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer input = ByteBuffer.allocate(256);
+        final Queue<byte[]> requests = new ArrayDeque<>();
+        final Queue<ByteBuffer> output = new ArrayDeque<>();
+        boolean running;
+        boolean paused;
+        Customer customer;
+        boolean manager;
+
+        Session(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Performs the waiting requests in order until there are none, then releases the session.
+         */
+        void drain() {
+            List<byte[]> batch = new ArrayList<>(BATCH);
+            while (true) {
+                boolean resume = false;
+                synchronized (this) {
+                    while (batch.size() < BATCH && !requests.isEmpty()) {
+                        batch.add(requests.poll());
+                    }
+                    if (batch.isEmpty()) {
+                        running = false;
+                        return;
+                    }
+                    if (paused && requests.size() < maxPending / 2) {
+                        paused = false;
+                        resume = true;
+                    }
+                }
+                ByteBuffer responses = ByteBuffer.allocate(batch.size() * MAX_RESPONSE_BYTES);
+                for (byte[] request : batch) {
+                    perform(this, ByteBuffer.wrap(request), responses);
+                }
+                batch.clear();
+                synchronized (this) {
+                    output.add(responses.flip());
+                }
+                if (!flush(this) || resume) {
+                    wakeups.add(this);
+                    selector.wakeup();
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts serving a bank.
+     * @param service the operations of the bank
+     * @param port the TCP port to listen on, or 0 for any free port
+     * @param workers the number of threads performing requests
+     * @param maxPending the number of requests a connection may have waiting before it is no longer read
+     * @requires workers > 0 && maxPending > 0
+     * @effects listens on port and serves service to every client that connects
+     * @throws IOException if the port cannot be bound
+     */
+    public BankServer(TransactionService service, int port, int workers, int maxPending) throws IOException {
+        this.service = service;
+        this.maxPending = maxPending;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), 4096);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workers, task -> {
+            Thread thread = new Thread(task, "bank-server-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // The selector thread keeps the process alive until the server is closed
+        this.selectorThread = new Thread(this::select, "bank-server-selector");
+        selectorThread.start();
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    public int getConnections() {
+        return connections.get();
+    }
+
+    private void select() {
+        try {
+            while (!closed) {
+                selector.select();
+                Session session;
+                while ((session = wakeups.poll()) != null) {
+                    update(session);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    session = (Session) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(session);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flush(session);
+                            update(session);
+                        }
+                    } catch (IOException e) {
+                        disconnect(session);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (!closed) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Session session = new Session(channel);
+            session.key = channel.register(selector, SelectionKey.OP_READ, session);
+            connections.incrementAndGet();
+        }
+    }
+
+    private void disconnect(Session session) {
+        synchronized (session) {
+            if (!session.key.isValid()) {
+                return;
+            }
+            session.key.cancel();
+            session.output.clear();
+        }
+        connections.decrementAndGet();
+        try {
+            session.channel.close();
+        } catch (IOException e) {
+            // Nothing more to release
+        }
+    }
+
+    /**
+     * Reads what a client has sent and hands its complete requests to a worker.
+     * @modifies session
+     * @effects frames the bytes read from the session's channel, queues each complete request
+     *          and starts a worker on the session if none is running
+     * @throws IOException if the client has disconnected or sent a frame that cannot be read
+     */
+    private void read(Session session) throws IOException {
+        ByteBuffer input = session.input;
+        int read = session.channel.read(input);
+        if (read < 0) {
+            throw new IOException("Client disconnected");
+        }
+        input.flip();
+        boolean start = false;
+        synchronized (session) {
+            while (input.remaining() >= 2) {
+                int length = Short.toUnsignedInt(input.getShort(input.position()));
+                if (length == 0) {
+                    throw new IOException("Empty request");
+                }
+                if (input.remaining() < 2 + length) {
+                    break;
+                }
+                byte[] request = new byte[length];
+                input.position(input.position() + 2);
+                input.get(request);
+                session.requests.add(request);
+            }
+            if (!session.running && !session.requests.isEmpty()) {
+                session.running = true;
+                start = true;
+            }
+            if (session.requests.size() >= maxPending) {
+                session.paused = true;
+            }
+        }
+        input.compact();
+        if (input.remaining() == 0) {
+            // Only a frame larger than the buffer fills it, so make room for the largest one
+            session.input = ByteBuffer.allocate(2 + MAX_FRAME_BYTES).put(input.flip());
+        }
+        if (start) {
+            workers.execute(session::drain);
+        }
+        update(session);
+    }
+
+    /**
+     * Writes as many waiting responses as the socket accepts.
+     * @modifies session
+     * @effects sends the responses of session in order until none is left or the socket is full,
+     *          and returns true if none is left
+     */
+    private boolean flush(Session session) {
+        synchronized (session) {
+            try {
+                while (!session.output.isEmpty()) {
+                    ByteBuffer response = session.output.peek();
+                    session.channel.write(response);
+                    if (response.hasRemaining()) {
+                        return false;
+                    }
+                    session.output.poll();
+                }
+            } catch (IOException e) {
+                disconnect(session);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Sets what the selector waits for on a session.
+     * @modifies session.key
+     * @effects waits for the session to be readable unless it has too many waiting requests, and
+     *          writable while it has responses that did not fit in the socket
+     */
+    private void update(Session session) {
+        if (!session.key.isValid()) {
+            return;
+        }
+        synchronized (session) {
+            int interest = session.paused ? 0 : SelectionKey.OP_READ;
+            if (!session.output.isEmpty()) {
+                interest |= SelectionKey.OP_WRITE;
+            }
+            session.key.interestOps(interest);
+        }
+    }
+
+    /**
+     * Performs one request of a session.
+     * @requires response has at least MAX_RESPONSE_BYTES remaining
+     * @modifies session, the bank, response
+     * @effects performs the operation read from request and appends its response frame to response
+     */
+    private void perform(Session session, ByteBuffer request, ByteBuffer response) {
+        int start = response.position();
+        response.limit(start + MAX_RESPONSE_BYTES).position(start + 2);
+        try {
+            byte op = request.get();
+            switch (op) {
+                case LOGIN: {
+                    String username = readString(request);
+                    session.customer = service.login(username, readString(request));
+                    session.manager = false;
+                    putCustomer(response.put(OK), session.customer);
+                    break;
+                }
+                case BALANCE:
+                    putCustomer(response.put(OK), customer(session));
+                    break;
+                case DEPOSIT:
+                    service.deposit(customer(session), request.getLong());
+                    putCustomer(response.put(OK), session.customer);
+                    break;
+                case WITHDRAW:
+                    service.withdraw(customer(session), request.getLong());
+                    putCustomer(response.put(OK), session.customer);
+                    break;
+                case PURCHASE: {
+                    LedgerEntry entry = service.purchase(customer(session), request.getLong());
+                    putCustomer(response.put(OK), session.customer).putLong(entry.getFee());
+                    break;
+                }
+                case TRANSFER: {
+                    String to = readString(request);
+                    service.transfer(customer(session), to, request.getLong());
+                    putCustomer(response.put(OK), session.customer);
+                    break;
+                }
+                case LOGOUT:
+                    service.logout(customer(session));
+                    session.customer = null;
+                    response.put(OK);
+                    break;
+                case MANAGER_LOGIN: {
+                    String username = readString(request);
+                    service.managerLogin(username, readString(request));
+                    session.manager = true;
+                    session.customer = null;
+                    response.put(OK);
+                    break;
+                }
+                case ADD_CUSTOMER: {
+                    requireManager(session);
+                    String username = readString(request);
+                    service.addCustomer(username, readString(request));
+                    response.put(OK);
+                    break;
+                }
+                case DELETE_CUSTOMER:
+                    requireManager(session);
+                    service.deleteCustomer(readString(request));
+                    response.put(OK);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown operation " + op);
+            }
+        } catch (IllegalArgumentException | IllegalStateException | BufferUnderflowException e) {
+            String message = e.getMessage() == null ? "Malformed request" : e.getMessage();
+            putString(response.position(start + 2).put(REJECTED), message);
+        } catch (IOException e) {
+            putString(response.position(start + 2).put(FAILED), String.valueOf(e.getMessage()));
+        }
+        response.putShort(start, (short) (response.position() - start - 2));
+        response.limit(response.capacity());
+    }
+
+    private static Customer customer(Session session) {
+        if (session.customer == null) {
+            throw new IllegalStateException("Not logged in.");
+        }
+        return session.customer;
+    }
+
+    private static void requireManager(Session session) {
+        if (!session.manager) {
+            throw new IllegalStateException("Manager login required.");
+        }
+    }
+
+    private static ByteBuffer putCustomer(ByteBuffer response, Customer customer) {
+        long balance = customer.getBalance(); // Read once so the balance and tier agree
+        return response.putLong(balance).put((byte) customer.getTierTable().tierFor(balance).getRank());
+    }
+
+    static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static ByteBuffer putString(ByteBuffer buffer, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, buffer.remaining() - 2);
+        return buffer.putShort((short) length).put(bytes, 0, length);
+    }
+
+    /**
+     * Stops serving. The bank itself is not closed.
+     * @modifies this
+     * @effects stops accepting clients, disconnects every client and stops the workers
+     * @throws IOException if the server socket cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        try {
+            selectorThread.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+        server.close();
+        workers.shutdown();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        return service != null && server != null && selector != null && workers != null && maxPending > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "BankServer{" + "port=" + getPort() + ", connections=" + connections + ", service=" + service + '}';
+    }
+
+    /**
+     * Serves the bank configured by the bank.* system properties until the process is stopped,
+     * on bank.server.port (default 7000) with bank.server.workers worker threads (default 32).
+     * Usage: BankServer [port]
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Integer.getInteger("bank.server.port", DEFAULT_PORT);
+        Bank bank = Bank.open();
+        BankServer server = new BankServer(bank.getService(), port, Integer.getInteger("bank.server.workers", 32),
+                Integer.getInteger("bank.server.maxPending", DEFAULT_MAX_PENDING));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                try {
+                    bank.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "bank-server-shutdown"));
+        System.out.println("Serving " + bank.getDataDir() + " on port " + server.getPort());
+    }
+}
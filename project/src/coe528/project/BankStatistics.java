@@ -0,0 +1,172 @@
+package coe528.project;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Overview: The BankStatistics class keeps bank-wide aggregates of the customer accounts:
+ * the number of customers and the total balance held in each tier, from which the total
+ * deposits held and the average balance of each tier follow. The aggregates are maintained
+ * incrementally: they are loaded once from the account store when the bank is opened, and
+ * then every balance change is reported by the customer that made it (with the exact old and
+ * new balance of its compare-and-set) and every account opened or closed by the manager.
+ * Updates only add to LongAdders, so concurrent transactions never contend on a lock or lose
+ * an update, and each query reads a fixed number of counters whatever the number of customers.
+ * A query made while updates are in flight may see some of them but not others.
+ * Tiers are those of the default TierTable.
+ * This class is mutable as balances change and accounts are opened and closed.
+ *
+ * Abstraction Function: AF(c) = For each tier of rank r of c.tiers, c.customers[r].sum()
+ * customers holding a total of c.balances[r].sum() cents.
+ *
+ * Representation Invariant: c.tiers != null && c.customers.length == c.balances.length == c.tiers.size()
+ */
+public class BankStatistics implements Customer.BalanceListener {
+    private static final BankStatistics DEFAULT = new BankStatistics(TierTable.getDefault());
+
+    private final TierTable tiers;
+    private final LongAdder[] customers;
+    private final LongAdder[] balances;
+
+    public BankStatistics(TierTable tiers) {
+        this.tiers = tiers;
+        this.customers = new LongAdder[tiers.size()];
+        this.balances = new LongAdder[tiers.size()];
+        for (int i = 0; i < customers.length; i++) {
+            customers[i] = new LongAdder();
+            balances[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Returns the statistics shared by the whole application.
+     * @effects returns the default statistics, which customers report to unless given another listener
+     */
+    public static BankStatistics getDefault() {
+        return DEFAULT;
+    }
+
+    public TierTable getTiers() {
+        return this.tiers;
+    }
+
+    @Override
+    public void balanceChanged(Customer customer, long oldBalance, long newBalance) {
+        int from = tiers.tierFor(oldBalance).getRank();
+        int to = tiers.tierFor(newBalance).getRank();
+        if (from == to) {
+            balances[to].add(newBalance - oldBalance);
+        } else {
+            customers[from].decrement();
+            balances[from].add(-oldBalance);
+            customers[to].increment();
+            balances[to].add(newBalance);
+        }
+    }
+
+    /**
+     * Records a new account.
+     * @param balance the opening balance in cents
+     * @modifies this
+     * @effects counts a customer holding balance in the tier for balance
+     */
+    public void accountOpened(long balance) {
+        int rank = tiers.tierFor(balance).getRank();
+        customers[rank].increment();
+        balances[rank].add(balance);
+    }
+
+    /**
+     * Records a closed account.
+     * @param balance the balance of the account when it was closed, in cents
+     * @modifies this
+     * @effects stops counting a customer holding balance in the tier for balance
+     */
+    public void accountClosed(long balance) {
+        int rank = tiers.tierFor(balance).getRank();
+        customers[rank].decrement();
+        balances[rank].add(-balance);
+    }
+
+    /**
+     * Forgets every account, before the statistics are loaded again.
+     * @modifies this
+     * @effects sets every count and total to 0
+     */
+    public void reset() {
+        for (int i = 0; i < customers.length; i++) {
+            customers[i].reset();
+            balances[i].reset();
+        }
+    }
+
+    /**
+     * Returns the total deposits held.
+     * @effects returns the sum of every customer's balance in cents
+     */
+    public long getTotalBalance() {
+        long total = 0;
+        for (LongAdder balance : balances) {
+            total += balance.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Returns the number of customers.
+     * @effects returns the number of accounts
+     */
+    public long getCustomers() {
+        long total = 0;
+        for (LongAdder count : customers) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Returns the number of customers in a tier.
+     * @param tier a tier of getTiers()
+     * @effects returns the number of customers whose balance is in tier
+     */
+    public long getCustomers(Tier tier) {
+        return customers[tier.getRank()].sum();
+    }
+
+    /**
+     * Returns the total balance held by the customers of a tier.
+     * @param tier a tier of getTiers()
+     * @effects returns the sum of the balances in tier, in cents
+     */
+    public long getTotalBalance(Tier tier) {
+        return balances[tier.getRank()].sum();
+    }
+
+    /**
+     * Returns the average balance of the customers of a tier.
+     * @param tier a tier of getTiers()
+     * @effects returns the total balance of tier divided by its number of customers, rounded
+     *          down to a whole cent, or 0 if the tier has no customers
+     */
+    public long getAverageBalance(Tier tier) {
+        long count = getCustomers(tier);
+        return count <= 0 ? 0 : getTotalBalance(tier) / count;
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        return tiers != null && customers.length == tiers.size() && balances.length == tiers.size();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("BankStatistics{totalBalance=").append(Money.format(getTotalBalance()));
+        for (Tier tier : tiers.getTiers()) {
+            text.append(", ").append(tier.getName()).append("=").append(getCustomers(tier)).append(" avg ")
+                    .append(Money.format(getAverageBalance(tier)));
+        }
+        return text.append('}').toString();
+    }
+}
@@ -0,0 +1,352 @@
+package coe528.project;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Overview: The BatchIngestor class applies a file of customer transactions, such as an
+ * end-of-day file, through a TransactionService. Records are streamed from the file and
+ * partitioned by username, so all records of one account go to the same worker and are
+ * applied in file order, while different partitions are applied in parallel.
+ * Each record follows the normal Customer rules, including the purchase fee and the $50
+ * purchase minimum; a record that breaks a rule is rejected without stopping the batch.
+ * A result line is written for every record, in input order.
+ * <p>
+ * Input is either CSV, one "username,type,amount" record per line with the amount in
+ * dollars (blank lines and lines starting with # are skipped), or, for files ending in
+ * ".bin", the binary format: the int MAGIC followed by records of a modified UTF-8
+ * username, a TransactionType code byte and the amount as a long number of cents.
+ * Result lines have the form "record,username,type,amount,OK,balance" or
+ * "record,username,type,amount,REJECTED,reason".
+ * This class is immutable.
+ *
+ * Abstraction Function: AF(c) = A batch processor applying transactions through c.service
+ * with c.partitions parallel workers.
+ *
+ * Representation Invariant: c.service != null && c.partitions > 0
+ */
+public class BatchIngestor {
+    public static final int MAGIC = 0x42545831; // "BTX1"
+
+    private static final int CHUNK_SIZE = 256;
+    private static final int QUEUE_CHUNKS = 64;
+    private static final List<Record> END = new ArrayList<>();
+
+    private final TransactionService service;
+    private final int partitions;
+
+    /**
+     * Overview: A Record is one transaction read from the input, numbered from 1 in input order.
+     * If the line could not be parsed, error holds the reason and the other fields may be null.
+     * This class is immutable.
+     */
+    private static final class Record {
+        final long number;
+        final String username;
+        final TransactionType type;
+        final long amount;
+        final String error;
+
+        Record(long number, String username, TransactionType type, long amount, String error) {
+            this.number = number;
+            this.username = username;
+            this.type = type;
+            this.amount = amount;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Overview: A Result is the result line written for one record. This class is immutable.
+     */
+    private static final class Result {
+        final long number;
+        final String line;
+        final boolean accepted;
+
+        Result(long number, String line, boolean accepted) {
+            this.number = number;
+            this.line = line;
+            this.accepted = accepted;
+        }
+    }
+
+    /**
+     * Overview: A RecordReader reads the records of one input format.
+     */
+    private interface RecordReader extends AutoCloseable {
+        /**
+         * @effects returns the next record numbered number, or null at the end of the input
+         */
+        Record next(long number) throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    public BatchIngestor(TransactionService service, int partitions) {
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("At least one partition is required");
+        }
+        this.service = service;
+        this.partitions = partitions;
+    }
+
+    /**
+     * Applies every transaction in a file and writes the result of each to another file.
+     * @param input the CSV file, or binary file ending in ".bin", of transactions
+     * @param results the file to write the result lines to
+     * @modifies the accounts of service, results
+     * @effects applies every valid record of input in per-account order, writes one result
+     *          line per record to results, and returns a report of the run
+     * @throws IOException if input cannot be read, results cannot be written, or the
+     *         account store cannot be flushed
+     */
+    public BatchReport ingest(File input, File results) throws IOException {
+        try (RecordReader reader = input.getName().endsWith(".bin") ? binaryReader(input) : csvReader(input);
+                Writer writer = new BufferedWriter(new FileWriter(results))) {
+            return ingest(reader, writer);
+        }
+    }
+
+    private BatchReport ingest(RecordReader reader, Writer writer) throws IOException {
+        long start = System.nanoTime();
+        List<BlockingQueue<List<Record>>> queues = new ArrayList<>();
+        List<List<Result>> resultsByPartition = new ArrayList<>();
+        List<Future<?>> workers = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(partitions, r -> {
+            Thread thread = new Thread(r, "batch-partition");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (int i = 0; i < partitions; i++) {
+                BlockingQueue<List<Record>> queue = new ArrayBlockingQueue<>(QUEUE_CHUNKS);
+                List<Result> results = new ArrayList<>();
+                queues.add(queue);
+                resultsByPartition.add(results);
+                workers.add(executor.submit(() -> {
+                    process(queue, results);
+                    return null;
+                }));
+            }
+            List<Result> parseErrors = new ArrayList<>();
+            resultsByPartition.add(parseErrors);
+
+            // Stream the input, handing records to partitions in chunks
+            List<List<Record>> pending = new ArrayList<>();
+            for (int i = 0; i < partitions; i++) {
+                pending.add(new ArrayList<>(CHUNK_SIZE));
+            }
+            long count = 0;
+            Record record;
+            while ((record = reader.next(count + 1)) != null) {
+                count++;
+                if (record.error != null) {
+                    parseErrors.add(rejected(record, record.error));
+                    continue;
+                }
+                int partition = Math.floorMod(record.username.hashCode(), partitions);
+                List<Record> chunk = pending.get(partition);
+                chunk.add(record);
+                if (chunk.size() == CHUNK_SIZE) {
+                    queues.get(partition).put(chunk);
+                    pending.set(partition, new ArrayList<>(CHUNK_SIZE));
+                }
+            }
+            for (int i = 0; i < partitions; i++) {
+                if (!pending.get(i).isEmpty()) {
+                    queues.get(i).put(pending.get(i));
+                }
+                queues.get(i).put(END);
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+            service.getStore().flush();
+
+            long rejected = writeInOrder(resultsByPartition, writer);
+            return new BatchReport(count, count - rejected, rejected, System.nanoTime() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Batch ingestion was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Batch partition failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Applies the records of one partition in the order they arrive.
+     * @modifies the accounts of service, results
+     * @effects applies each record taken from queue until END and adds its result to results
+     */
+    private void process(BlockingQueue<List<Record>> queue, List<Result> results) throws InterruptedException {
+        List<Record> chunk;
+        while ((chunk = queue.take()) != END) {
+            for (Record record : chunk) {
+                try {
+                    Customer customer = service.find(record.username);
+                    service.apply(customer, record.type, record.amount);
+                    results.add(new Result(record.number, record.number + "," + record.username + ","
+                            + record.type + "," + Money.format(record.amount) + ",OK," + Money.format(customer.getBalance()), true));
+                } catch (IllegalArgumentException | ArithmeticException e) {
+                    results.add(rejected(record, e.getMessage()));
+                } catch (IOException e) {
+                    results.add(rejected(record, "I/O error: " + e.getMessage()));
+                } catch (RuntimeException e) {
+                    // Keep the partition alive so the reader never blocks on a dead worker
+                    results.add(rejected(record, "Internal error: " + e));
+                }
+            }
+        }
+    }
+
+    private static Result rejected(Record record, String reason) {
+        return new Result(record.number, record.number + "," + (record.username == null ? "" : record.username) + ","
+                + (record.type == null ? "" : record.type) + ","
+                + (record.type == null ? "" : Money.format(record.amount)) + ",REJECTED,"
+                + String.valueOf(reason).replace(',', ';'), false);
+    }
+
+    /**
+     * Merges the per-partition results, each already in input order, into one ordered file.
+     * @modifies writer
+     * @effects writes every result line ordered by record number and returns the number of rejected records
+     */
+    private static long writeInOrder(List<List<Result>> resultsByPartition, Writer writer) throws IOException {
+        int[] next = new int[resultsByPartition.size()];
+        PriorityQueue<Integer> heads = new PriorityQueue<>((a, b) -> Long.compare(
+                resultsByPartition.get(a).get(next[a]).number, resultsByPartition.get(b).get(next[b]).number));
+        for (int i = 0; i < resultsByPartition.size(); i++) {
+            if (!resultsByPartition.get(i).isEmpty()) {
+                heads.add(i);
+            }
+        }
+        long rejected = 0;
+        while (!heads.isEmpty()) {
+            int partition = heads.poll();
+            Result result = resultsByPartition.get(partition).get(next[partition]++);
+            if (!result.accepted) {
+                rejected++;
+            }
+            writer.write(result.line);
+            writer.write('\n');
+            if (next[partition] < resultsByPartition.get(partition).size()) {
+                heads.add(partition);
+            }
+        }
+        return rejected;
+    }
+
+    private static RecordReader csvReader(File input) throws IOException {
+        BufferedReader in = new BufferedReader(new FileReader(input), 1 << 16);
+        return new RecordReader() {
+            @Override
+            public Record next(long number) throws IOException {
+                String line;
+                do {
+                    line = in.readLine();
+                    if (line == null) {
+                        return null;
+                    }
+                    line = line.trim();
+                } while (line.isEmpty() || line.startsWith("#"));
+                String[] fields = line.split(",");
+                if (fields.length != 3) {
+                    return new Record(number, fields[0].trim(), null, 0, "Expected username,type,amount");
+                }
+                try {
+                    return new Record(number, fields[0].trim(), TransactionType.parse(fields[1]),
+                            Money.parse(fields[2]), null);
+                } catch (IllegalArgumentException e) {
+                    return new Record(number, fields[0].trim(), null, 0, e.getMessage());
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+
+    private static RecordReader binaryReader(File input) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(input), 1 << 16));
+        if (in.readInt() != MAGIC) {
+            in.close();
+            throw new IOException("Not a binary transaction file: " + input);
+        }
+        return new RecordReader() {
+            @Override
+            public Record next(long number) throws IOException {
+                String username;
+                try {
+                    username = in.readUTF();
+                } catch (EOFException e) {
+                    return null;
+                }
+                int code = in.readByte();
+                long amount = in.readLong();
+                try {
+                    return new Record(number, username, TransactionType.fromCode(code), amount, null);
+                } catch (IllegalArgumentException e) {
+                    return new Record(number, username, null, 0, e.getMessage());
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        return service != null && partitions > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchIngestor{" + "service=" + service + ", partitions=" + partitions + '}';
+    }
+
+    /**
+     * Applies a transaction file to the bank configured by the bank.* system properties.
+     * Usage: BatchIngestor input results [partitions]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BatchIngestor <input.csv|input.bin> <results.csv> [partitions]");
+            System.exit(2);
+        }
+        int partitions = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        try (Bank bank = Bank.open()) {
+            BatchReport report = new BatchIngestor(bank.getService(), partitions).ingest(new File(args[0]), new File(args[1]));
+            System.out.println(report);
+        }
+    }
+}
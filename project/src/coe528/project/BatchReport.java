@@ -0,0 +1,64 @@
+package coe528.project;
+
+/**
+ * Overview: A BatchReport summarizes one run of a BatchIngestor: how many records were read,
+ * applied and rejected, and how long the run took.
+ * This class is immutable.
+ *
+ * Abstraction Function: AF(c) = A batch of c.records records of which c.accepted were applied
+ * and c.rejected were rejected, processed in c.elapsedNanos nanoseconds.
+ *
+ * Representation Invariant: c.records >= 0 && c.accepted >= 0 && c.rejected >= 0 &&
+ * c.accepted + c.rejected == c.records && c.elapsedNanos >= 0
+ */
+public final class BatchReport {
+    private final long records;
+    private final long accepted;
+    private final long rejected;
+    private final long elapsedNanos;
+
+    public BatchReport(long records, long accepted, long rejected, long elapsedNanos) {
+        this.records = records;
+        this.accepted = accepted;
+        this.rejected = rejected;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getRecords() {
+        return this.records;
+    }
+
+    public long getAccepted() {
+        return this.accepted;
+    }
+
+    public long getRejected() {
+        return this.rejected;
+    }
+
+    public long getElapsedNanos() {
+        return this.elapsedNanos;
+    }
+
+    /**
+     * Returns the throughput of the run.
+     * @effects returns the number of records processed per second
+     */
+    public double getRecordsPerSecond() {
+        return elapsedNanos == 0 ? 0 : records * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        return records >= 0 && accepted >= 0 && rejected >= 0 && accepted + rejected == records && elapsedNanos >= 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BatchReport{records=%d, accepted=%d, rejected=%d, elapsed=%.3fs, throughput=%.0f records/s}",
+                records, accepted, rejected, elapsedNanos / 1e9, getRecordsPerSecond());
+    }
+}
@@ -0,0 +1,323 @@
+package coe528.project;
+
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Overview: The CachingAccountStore class keeps recently used customers in memory in front
+ * of another AccountStore. Loads of cached customers do not touch the underlying store,
+ * and saves only mark the customer dirty; a background flusher writes dirty customers to
+ * the underlying store periodically, so many updates to the same account between flushes
+ * become a single write. The least recently used customer is evicted once the cache is
+ * full, and a dirty customer is written before it is evicted.
+ * There is never more than one Customer for an account in use: an evicted customer that a
+ * caller still holds (such as a logged-in session) is remembered with a weak reference, and a
+ * later load returns that same customer instead of reading a second copy, so updates made
+ * through either caller cannot overwrite each other. Saving a different copy of an account
+ * (such as one replayed from the journal or received by a ShardServer) copies its balance
+ * into the customer in use.
+ * Creating and deleting accounts is written through to the underlying store immediately.
+ * Each background flush is recorded in the default Metrics as cache.writeBehind.
+ * This class is mutable as customers are cached, updated and evicted.
+ *
+ * Abstraction Function: AF(c) = The accounts of c.delegate, where the account of every
+ * username in c.dirty is replaced by c.cache.get(username); the customer in use for a username
+ * u is c.cache.get(u), or else c.live.get(u).get() if that is not null.
+ *
+ * Representation Invariant: c.delegate != null && c.maxEntries > 0 &&
+ * c.cache.size() <= c.maxEntries && c.cache.keySet() contains every element of c.dirty &&
+ * no username is a key of both c.cache and c.live && c.live.get(u).username equals u
+ */
+public class CachingAccountStore implements AccountStore {
+    private final AccountStore delegate;
+    private final int maxEntries;
+    private final LinkedHashMap<String, Customer> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<String> dirty = new LinkedHashSet<>();
+    private final Map<String, LiveReference> live = new HashMap<>();
+    private final ReferenceQueue<Customer> released = new ReferenceQueue<>();
+    private final ScheduledExecutorService flusher;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong saves = new AtomicLong();
+
+    /**
+     * Overview: A LiveReference refers to an evicted customer until no caller holds it.
+     */
+    private static final class LiveReference extends WeakReference<Customer> {
+        private final String username;
+
+        LiveReference(Customer customer, ReferenceQueue<Customer> queue) {
+            super(customer, queue);
+            this.username = customer.getUsername();
+        }
+    }
+
+    /**
+     * Creates a cache in front of the given store.
+     * @param delegate the store to cache
+     * @param maxEntries the maximum number of customers kept in memory
+     * @param flushIntervalMillis how often dirty customers are written to delegate; if 0 or
+     *        less they are only written on eviction, flush() and close()
+     * @requires delegate != null && maxEntries > 0
+     */
+    public CachingAccountStore(AccountStore delegate, int maxEntries, long flushIntervalMillis) {
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        if (flushIntervalMillis > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "account-cache-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            OperationMetrics flushMetrics = Metrics.getDefault().operation("cache.writeBehind");
+            flusher.scheduleWithFixedDelay(() -> {
+                try {
+                    flushMetrics.time(() -> {
+                        flushDirty();
+                        return null;
+                    });
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * Adds a customer to the cache, evicting the least recently used customers if it is full.
+     * @requires customer.getUsername() is not a key of this.live
+     * @modifies this.cache, this.dirty, this.live, delegate
+     * @effects caches customer, writes any evicted dirty customer to delegate and remembers
+     *          each evicted customer while a caller still holds it; if an evicted customer
+     *          cannot be written it stays cached and dirty, and customer is not cached
+     */
+    private void cache(Customer customer) throws IOException {
+        cache.put(customer.getUsername(), customer);
+        Iterator<Map.Entry<String, Customer>> eldest = cache.entrySet().iterator();
+        while (cache.size() > maxEntries) {
+            Map.Entry<String, Customer> entry = eldest.next();
+            if (dirty.contains(entry.getKey())) {
+                try {
+                    delegate.save(entry.getValue());
+                } catch (IOException | RuntimeException e) {
+                    // Keep the unwritten balance cached and dirty, and make room by not caching customer
+                    cache.remove(customer.getUsername());
+                    live.put(customer.getUsername(), new LiveReference(customer, released));
+                    throw e;
+                }
+                dirty.remove(entry.getKey());
+                writes.incrementAndGet();
+            }
+            eldest.remove();
+            live.put(entry.getKey(), new LiveReference(entry.getValue(), released));
+            evictions.incrementAndGet();
+        }
+        LiveReference reference;
+        while ((reference = (LiveReference) released.poll()) != null) {
+            live.remove(reference.username, reference);
+        }
+    }
+
+    /**
+     * Takes back an evicted customer that is still in use.
+     * @modifies this.live
+     * @effects removes username from this.live and returns its customer, or null if no caller holds one
+     */
+    private Customer revive(String username) {
+        LiveReference reference = live.remove(username);
+        return reference == null ? null : reference.get();
+    }
+
+    private synchronized void flushDirty() throws IOException {
+        Iterator<String> usernames = dirty.iterator();
+        while (usernames.hasNext()) {
+            delegate.save(cache.get(usernames.next()));
+            usernames.remove();
+            writes.incrementAndGet();
+        }
+    }
+
+    @Override
+    public synchronized boolean exists(String username) throws IOException {
+        return cache.containsKey(username) || delegate.exists(username);
+    }
+
+    @Override
+    public synchronized Customer load(String username) throws IOException {
+        Customer customer = cache.get(username);
+        if (customer != null) {
+            hits.incrementAndGet();
+            return customer;
+        }
+        customer = revive(username);
+        if (customer != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            customer = delegate.load(username);
+        }
+        if (customer != null) {
+            cache(customer);
+        }
+        return customer;
+    }
+
+    @Override
+    public synchronized void create(String username, String password, long balance) throws IOException {
+        if (cache.containsKey(username)) {
+            throw new IllegalArgumentException("Customer already exists");
+        }
+        delegate.create(username, password, balance);
+    }
+
+    @Override
+    public synchronized void save(Customer customer) throws IOException {
+        String username = customer.getUsername();
+        Customer cached = cache.get(username);
+        if (cached != customer) {
+            Customer inUse = cached != null ? cached : revive(username);
+            if (inUse == null) {
+                if (!delegate.exists(username)) {
+                    throw new IllegalArgumentException("Customer does not exist");
+                }
+                inUse = customer;
+            } else if (inUse != customer) {
+                inUse.replaceBalance(customer.getBalance());
+            }
+            if (cached == null) {
+                cache(inUse);
+            }
+        }
+        dirty.add(username);
+        saves.incrementAndGet();
+    }
+
+    @Override
+    public synchronized void createAll(List<Customer> customers) throws IOException {
+        for (Customer customer : customers) {
+            if (cache.containsKey(customer.getUsername())) {
+                throw new IllegalArgumentException("Customer already exists: " + customer.getUsername());
+            }
+        }
+        delegate.createAll(customers);
+    }
+
+    @Override
+    public synchronized void saveAll(List<Customer> customers) throws IOException {
+        for (Customer customer : customers) {
+            String username = customer.getUsername();
+            if (cache.get(username) != customer && !cache.containsKey(username) && !delegate.exists(username)) {
+                throw new IllegalArgumentException("Customer does not exist");
+            }
+        }
+        for (Customer customer : customers) {
+            save(customer);
+        }
+    }
+
+    @Override
+    public synchronized void delete(String username) throws IOException {
+        delegate.delete(username);
+        cache.remove(username);
+        live.remove(username);
+        dirty.remove(username);
+    }
+
+    @Override
+    public synchronized List<String> usernames() throws IOException {
+        return new ArrayList<>(delegate.usernames());
+    }
+
+    @Override
+    public synchronized void forEach(AccountSnapshot.Visitor visitor) throws IOException {
+        flushDirty();
+        delegate.forEach(visitor);
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        flushDirty();
+        delegate.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            flushDirty();
+            delegate.close();
+        }
+    }
+
+    // Counters for sizing the cache
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the number of saves that were absorbed by a later save of the same customer.
+     * @effects returns the number of saves minus the number of writes to delegate and the
+     *          number of customers that are still dirty
+     */
+    public synchronized long getCoalescedCount() {
+        return saves.get() - writes.get() - dirty.size();
+    }
+
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public synchronized boolean repOK() {
+        if (delegate == null || maxEntries <= 0 || cache.size() > maxEntries || !cache.keySet().containsAll(dirty)) {
+            return false;
+        }
+        for (Map.Entry<String, LiveReference> entry : live.entrySet()) {
+            if (cache.containsKey(entry.getKey()) || !entry.getKey().equals(entry.getValue().username)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CachingAccountStore{" + "delegate=" + delegate + ", size=" + cache.size() + ", maxEntries=" + maxEntries
+                + ", dirty=" + dirty.size() + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + '}';
+    }
+}
@@ -1,30 +1,111 @@
 package coe528.project;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 /**
  * Overview: The Customer class represents a customer in the bank application. 
  * It is responsible for managing the customer's account balance, level, and performing transactions such as deposits, withdrawals, and online purchases.
+ * All amounts are whole numbers of cents (see Money), so balances and fees never suffer from rounding drift.
  * This class is mutable as the account balance and level can change over time.
+ * It is safe for concurrent use: every transaction updates the balance with a single compare-and-set,
+ * and the level is always derived from the balance it is read with, so concurrent transactions
+ * cannot lose updates or leave the balance and level out of step.
+ * Every change of the balance is reported to a BalanceListener with the balance it replaced,
+ * by default the bank-wide BankStatistics.
+ * A Customer normally holds its own username, password and balance. A subclass can instead
+ * be a view of an account stored elsewhere, such as a row of an AccountTable, by overriding
+ * the getters and the two balance primitives, loadBalance and compareAndSetBalance, which
+ * every transaction goes through.
  */
 public class Customer {
-    private double balance;
-    private String username;
-    private String password;
-    private CustomerLevelState levelState;
+    private static final long MIN_PURCHASE = Money.ofDollars(50);
+    private static final VarHandle BALANCE;
+    
+    static {
+        try {
+            BALANCE = MethodHandles.lookup().findVarHandle(Customer.class, "balance", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    
+    private volatile long balance;
+    private final String username;
+    private final String password;
+    private final TierTable tiers;
+    private final BalanceListener listener;
+    
+    /**
+     * Overview: A BalanceListener is told about every change of a customer's balance, with
+     * the exact balance the change replaced. It is called on the thread making the change.
+     */
+    public interface BalanceListener {
+        void balanceChanged(Customer customer, long oldBalance, long newBalance);
+    }
     
     /**
      * Abstraction Function: AF(c) = A customer with username c.username, password c.password, 
-     * balance c.balance, and level c.level, where level is 1 (silver) if balance < 10000, 
-     * 2 (gold) if 10000 <= balance < 20000, and 3 (platinum) if balance >= 20000.
+     * balance c.balance / 100 dollars, and level c.tiers.tierFor(c.balance)
+     * (by default Silver if balance < $10000, Gold if $10000 <= balance < $20000, and Platinum if balance >= $20000);
+     * for a view, the username, password and balance are those of the account it shows.
      * 
-     * Representation Invariant: c.balance >= 0
+     * Representation Invariant: c.loadBalance() >= 0 && c.tiers != null && c.listener != null
      */
     
-    public Customer(String username, String password, double balance) {
+    public Customer(String username, String password, long balance) {
+        this(username, password, balance, TierTable.getDefault());
+    }
+    
+    public Customer(String username, String password, long balance, TierTable tiers) {
+        this(username, password, balance, tiers, BankStatistics.getDefault());
+    }
+    
+    public Customer(String username, String password, long balance, TierTable tiers, BalanceListener listener) {
         this.username = username;
         this.password = password;
         this.balance = balance;
-        this.levelState = new SilverState(); // Default level
-        updateLevel();
+        this.tiers = tiers;
+        this.listener = listener;
+    }
+    
+    /**
+     * Creates a view of an account stored elsewhere.
+     * @requires the subclass overrides getUsername, getPassword, loadBalance and compareAndSetBalance
+     */
+    protected Customer(TierTable tiers, BalanceListener listener) {
+        this(null, null, 0, tiers, listener);
+    }
+    
+    /**
+     * Reads the balance.
+     * @effects returns the current balance in cents
+     */
+    protected long loadBalance() {
+        return this.balance;
+    }
+    
+    /**
+     * Replaces the balance if it has not changed since it was read.
+     * @modifies this.balance
+     * @effects if the balance is expected, sets it to balance and returns true; otherwise returns false
+     */
+    protected boolean compareAndSetBalance(long expected, long balance) {
+        return BALANCE.compareAndSet(this, expected, balance);
+    }
+    
+    /**
+     * Replaces the balance with that of another copy of the account, such as one read back
+     * from the journal or received from a shard client.
+     * @modifies this.balance
+     * @effects sets the balance to balance
+     */
+    void replaceBalance(long balance) {
+        long current;
+        do {
+            current = loadBalance();
+        } while (!compareAndSetBalance(current, balance));
+        listener.balanceChanged(this, current, balance);
     }
     
     // Getters for username and password
@@ -36,152 +117,119 @@ public class Customer {
         return this.password;
     }
     
+    /**
+     * Checks a password.
+     * @effects returns true if password is the customer's password
+     */
+    public boolean checkPassword(String password) {
+        return getPassword().equals(password);
+    }
+    
     /**
      * Deposits the specified amount into the customer's account.
-     * @param amount the amount to deposit
+     * @param amount the amount to deposit in cents
      * @requires amount > 0
      * @modifies this.balance
      * @effects adds amount to the balance
      */
-    public void deposit(double amount) {
+    public void deposit(long amount) {
         if (amount <= 0) {
             throw new IllegalArgumentException("Amount must be positive.");
         }
-        this.balance += amount;
-        updateLevel();
+        long current;
+        long next;
+        do {
+            current = loadBalance();
+            next = Math.addExact(current, amount);
+        } while (!compareAndSetBalance(current, next));
+        listener.balanceChanged(this, current, next);
     }
     
     /**
      * Withdraws the specified amount from the customer's account.
-     * @param amount the amount to withdraw
+     * @param amount the amount to withdraw in cents
      * @requires amount > 0 && amount <= balance
      * @modifies this.balance
      * @effects subtracts amount from the balance
      */
-    public void withdraw(double amount) {
-        if (amount <= 0 || amount > this.balance) {
-            throw new IllegalArgumentException("Invalid withdrawal amount.");
-        }
-        this.balance -= amount;
-        updateLevel();
+    public void withdraw(long amount) {
+        long current;
+        do {
+            current = loadBalance();
+            if (amount <= 0 || amount > current) {
+                throw new IllegalArgumentException("Invalid withdrawal amount.");
+            }
+        } while (!compareAndSetBalance(current, current - amount));
+        listener.balanceChanged(this, current, current - amount);
     }
     
     /**
      * Performs an online purchase and deducts the purchase amount and any applicable fees from the customer's account.
-     * @param purchaseAmount the amount of the purchase
-     * @requires purchaseAmount >= 50
+     * @param purchaseAmount the amount of the purchase in cents
+     * @requires purchaseAmount >= $50
      * @modifies this.balance
-     * @effects subtracts purchaseAmount and any applicable fees from the balance
+     * @effects subtracts purchaseAmount and any applicable fees from the balance and returns the fee charged
      */
-    public void onlinePurchase(double purchaseAmount) {
-        if (purchaseAmount < 50) {
+    public long onlinePurchase(long purchaseAmount) {
+        if (purchaseAmount < MIN_PURCHASE) {
             throw new IllegalArgumentException("Purchase amount must be at least $50");
         }
-        double fee = 0;
-        if (this.getLevel().equals("Silver")) { // Silver
-            fee = 20;
-        } else if (this.getLevel().equals("Gold")) { // Gold
-            fee = 10;
-        }
-        // No fee for Platinum level
-        if (this.balance < purchaseAmount + fee) {
-            throw new IllegalArgumentException("Insufficient balance for this transaction");
-        }
-        this.balance -= (purchaseAmount + fee);
-        updateLevel();
-    }
-    
-    /**
-     * Returns the balance of the customer's account.
-     * @effects returns the balance
-     */
-    public double getBalance() {
-        return this.balance;
-    }
-    
-    /**
-     * Returns the level of the customer's account.
-     * @effects returns the level
-     */
-    public String getLevel() {
-        return levelState.getClass().getSimpleName().replace("State", "");
-    }
-    
-    /**
-     * Updates the level of the customer based on the current balance.
-     * @modifies this.level
-     * @effects sets the level based on the balance
-     */
-    private void updateLevel() {
-        levelState.updateLevel(this);
+        long current;
+        long total;
+        do {
+            current = loadBalance();
+            // The fee depends on the level at the balance being replaced
+            total = Math.addExact(purchaseAmount, tiers.tierFor(current).getPurchaseFee());
+            if (current < total) {
+                throw new IllegalArgumentException("Insufficient balance for this transaction");
+            }
+        } while (!compareAndSetBalance(current, current - total));
+        listener.balanceChanged(this, current, current - total);
+        return total - purchaseAmount;
     }
     
     /**
-     * Sets the current level state of the customer
-     * @param levelState the new level state
+     * Applies the month-end interest and maintenance fee of the customer's tier.
+     * @modifies this.balance
+     * @effects replaces the balance b with getTierTable().tierFor(b).monthEndBalance(b) and returns b
      */
-    public void setLevelState(CustomerLevelState levelState){
-        this.levelState = levelState;
+    public long applyMonthEnd() {
+        long current;
+        long next;
+        do {
+            current = loadBalance();
+            next = tiers.tierFor(current).monthEndBalance(current);
+        } while (!compareAndSetBalance(current, next));
+        listener.balanceChanged(this, current, next);
+        return current;
     }
     
     /**
-     * Overview: The CustomerLevelState interface represents the state of a customer's account level.
-     * It is responsible for defining the behavior for updating a customer's level.
-     * Implementations of this interface are mutable as they can change the level state of a customer.
+     * Returns the balance of the customer's account.
+     * @effects returns the balance in cents
      */
-    public interface CustomerLevelState{
-        /**
-         * Updates the level of the customer based on the current balance.
-         * @param customer the customer whose level is to be updated
-         * @modifies customer.levelState
-         * @effects sets the level state of the customer based on the balance
-         */
-        void updateLevel(Customer customer);
+    public long getBalance() {
+        return loadBalance();
     }
     
     /**
-     * Overview: The SilverState class represents a customer at the silver level.
-     * It is responsible for updating the customer's level to gold if the balance is high enough.
-     * This class is mutable as it can change the level state of a customer.
+     * Returns the level of the customer's account.
+     * @effects returns the name of the tier
      */
-    public class SilverState implements CustomerLevelState {
-        @Override
-        public void updateLevel(Customer customer) {
-            if (customer.getBalance() >= 10000) {
-                customer.setLevelState(new GoldState());
-            }
-        }
+    public String getLevel() {
+        return getTier().getName();
     }
     
     /**
-     * Overview: The GoldState class represents a customer at the gold level.
-     * It is responsible for updating the customer's level to platinum if the balance is high enough,
-     * or downgrading to silver if the balance falls below the gold level threshold.
-     * This class is mutable as it can change the level state of a customer.
+     * Returns the tier of the customer's account.
+     * @effects returns the tier
      */
-    public class GoldState implements CustomerLevelState {
-        @Override
-        public void updateLevel(Customer customer) {
-            if (customer.getBalance() >= 20000) {
-                customer.setLevelState(new PlatinumState());
-            } else if (customer.getBalance() < 10000) {
-                customer.setLevelState(new SilverState());
-            }
-        }
+    public Tier getTier() {
+        return tiers.tierFor(loadBalance());
     }
     
-    /**
-     * Overview: The PlatinumState class represents a customer at the platinum level.
-     * It is responsible for downgrading the customer's level to gold if the balance falls below the platinum level threshold.
-     * This class is mutable as it can change the level state of a customer.
-     */
-    public class PlatinumState implements CustomerLevelState {
-        @Override
-        public void updateLevel(Customer customer) {
-            if (customer.getBalance() < 20000) {
-                customer.setLevelState(new GoldState());
-            }
-        }
+    public TierTable getTierTable() {
+        return this.tiers;
     }
     
     /**
@@ -189,13 +237,14 @@ public class Customer {
      * @effects returns true if the rep invariant holds, false otherwise
      */
     public boolean repOK() {
-        return (balance >= 0);
+        return loadBalance() >= 0 && tiers != null && listener != null;
     }
     
     @Override
     public String toString() {
-        String levelString = getLevel(); // Convert level to string
-        return "Customer: [username='" + username + "', password='" + password + "', balance=" + balance + ", level='" + levelString + "']";
+        long current = loadBalance(); // Read once so the balance and level agree
+        String levelString = tiers.tierFor(current).getName(); // Convert level to string
+        return "Customer: [username='" + getUsername() + "', password='" + getPassword() + "', balance=" + Money.format(current) + ", level='" + levelString + "']";
     }
 }
 
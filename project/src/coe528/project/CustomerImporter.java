@@ -0,0 +1,229 @@
+package coe528.project;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Overview: The CustomerImporter class provisions customers in bulk, for example when a
+ * partner's portfolio is moved to the bank. Records are streamed from a CSV source and added
+ * in batches: every username of a batch is checked against the customer index (or the
+ * account store when there is no index) and against the rest of the batch, and the batch is
+ * then written with a single TransactionService.addCustomers call, which the stores write as
+ * one sequential append. Each batch is all-or-nothing: if any of its records is invalid, none
+ * of them is added.
+ * <p>
+ * Each CSV line is "username,password" or "username,password,openingBalance" with the
+ * balance in dollars; without one the manager's usual opening balance is used. Blank lines
+ * and lines starting with # are skipped. A result line is written for every record, in input
+ * order: "record,username,OK,balance" or "record,username,REJECTED,reason", where a valid
+ * record of a rejected batch gives the record that caused the rejection as its reason.
+ * This class is immutable.
+ *
+ * Abstraction Function: AF(c) = A bulk importer adding customers through c.service,
+ * c.batchSize at a time.
+ *
+ * Representation Invariant: c.service != null && c.batchSize > 0
+ */
+public class CustomerImporter {
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+
+    private final TransactionService service;
+    private final int batchSize;
+
+    /**
+     * Overview: A Record is one customer read from the input, numbered from 1 in input order.
+     * If the line could not be parsed, error holds the reason and the other fields may be null.
+     * This class is immutable.
+     */
+    private static final class Record {
+        final long number;
+        final String username;
+        final String password;
+        final long balance;
+        final String error;
+
+        Record(long number, String username, String password, long balance, String error) {
+            this.number = number;
+            this.username = username;
+            this.password = password;
+            this.balance = balance;
+            this.error = error;
+        }
+    }
+
+    public CustomerImporter(TransactionService service, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.service = service;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Imports every customer in a file and writes the result of each to another file.
+     * @param input the CSV file of customers
+     * @param results the file to write the result lines to
+     * @modifies the account store and customer index of service, results
+     * @effects adds the customers of every valid batch of input, writes one result line per
+     *          record to results, and returns a report of the run
+     * @throws IOException if input cannot be read, results cannot be written, or the accounts cannot be stored
+     */
+    public BatchReport importCustomers(File input, File results) throws IOException {
+        try (Reader reader = new FileReader(input); Writer writer = new BufferedWriter(new FileWriter(results))) {
+            return importCustomers(reader, writer);
+        }
+    }
+
+    /**
+     * Imports every customer read from a stream and writes the result of each to another stream.
+     * @param input the CSV customers
+     * @param results the stream to write the result lines to
+     * @modifies the account store and customer index of service, results
+     * @effects adds the customers of every valid batch of input, writes one result line per
+     *          record to results, and returns a report of the run
+     * @throws IOException if input cannot be read, results cannot be written, or the accounts cannot be stored
+     */
+    public BatchReport importCustomers(Reader input, Writer results) throws IOException {
+        long start = System.nanoTime();
+        BufferedReader in = new BufferedReader(input, 1 << 16);
+        List<Record> batch = new ArrayList<>(batchSize);
+        long count = 0;
+        long rejected = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            batch.add(parse(++count, line));
+            if (batch.size() == batchSize) {
+                rejected += addBatch(batch, results);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            rejected += addBatch(batch, results);
+        }
+        results.flush();
+        return new BatchReport(count, count - rejected, rejected, System.nanoTime() - start);
+    }
+
+    private static Record parse(long number, String line) {
+        String[] fields = line.split(",", -1);
+        String username = fields[0].trim();
+        if (fields.length != 2 && fields.length != 3) {
+            return new Record(number, username, null, 0, "Expected username,password[,openingBalance]");
+        }
+        String password = fields[1].trim();
+        if (username.isEmpty() || password.isEmpty()) {
+            return new Record(number, username, password, 0, "Username and password cannot be empty.");
+        }
+        long balance = Manager.OPENING_BALANCE;
+        if (fields.length == 3 && !fields[2].isBlank()) {
+            try {
+                balance = Money.parse(fields[2]);
+            } catch (NumberFormatException e) {
+                return new Record(number, username, password, 0, "Invalid opening balance: " + fields[2].trim());
+            }
+            if (balance < 0) {
+                return new Record(number, username, password, 0, "Opening balance cannot be negative");
+            }
+        }
+        return new Record(number, username, password, balance, null);
+    }
+
+    /**
+     * Validates and adds one batch.
+     * @modifies the account store and customer index of service, results
+     * @effects adds every customer of batch if all of its records are valid and none otherwise,
+     *          writes a result line per record and returns the number of records rejected
+     */
+    private long addBatch(List<Record> batch, Writer results) throws IOException {
+        CustomerIndex index = service.getManager().getIndex();
+        AccountStore store = service.getStore();
+        String[] errors = new String[batch.size()];
+        Record cause = null;
+        Set<String> usernames = new HashSet<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Record record = batch.get(i);
+            if (record.error != null) {
+                errors[i] = record.error;
+            } else if (!usernames.add(record.username)) {
+                errors[i] = "Duplicate username in batch";
+            } else if (index != null ? index.contains(record.username) : store.exists(record.username)) {
+                errors[i] = "Customer already exists";
+            }
+            if (errors[i] != null && cause == null) {
+                cause = record;
+            }
+        }
+        String rollback = null;
+        if (cause == null) {
+            List<Customer> customers = new ArrayList<>(batch.size());
+            for (Record record : batch) {
+                customers.add(new Customer(record.username, record.password, record.balance));
+            }
+            try {
+                service.addCustomers(customers);
+            } catch (IllegalArgumentException e) {
+                rollback = "Batch rolled back: " + e.getMessage(); // A customer was added by someone else meanwhile
+            }
+        } else {
+            rollback = "Batch rolled back because of record " + cause.number;
+        }
+        StringBuilder lines = new StringBuilder(batch.size() * 32);
+        for (int i = 0; i < batch.size(); i++) {
+            Record record = batch.get(i);
+            lines.append(record.number).append(',').append(record.username).append(',');
+            if (rollback == null) {
+                lines.append("OK,").append(Money.format(record.balance));
+            } else {
+                String reason = errors[i] != null ? errors[i] : rollback;
+                lines.append("REJECTED,").append(reason.replace(',', ';'));
+            }
+            lines.append('\n');
+        }
+        results.write(lines.toString());
+        return rollback == null ? 0 : batch.size();
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        return service != null && batchSize > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "CustomerImporter{" + "service=" + service + ", batchSize=" + batchSize + '}';
+    }
+
+    /**
+     * Imports a customer file into the bank configured by the bank.* system properties.
+     * Usage: CustomerImporter input results [batchSize]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CustomerImporter <customers.csv> <results.csv> [batchSize]");
+            System.exit(2);
+        }
+        int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_BATCH_SIZE;
+        try (Bank bank = Bank.open()) {
+            BatchReport report = new CustomerImporter(bank.getService(), batchSize)
+                    .importCustomers(new File(args[0]), new File(args[1]));
+            System.out.println(report);
+        }
+    }
+}
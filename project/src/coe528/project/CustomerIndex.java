@@ -0,0 +1,289 @@
+package coe528.project;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Overview: The CustomerIndex class is a persistent, sorted directory of customer usernames
+ * with the time each account was created. It is kept in memory as a skip list, so a lookup
+ * or a page of usernames with a given prefix costs O(log N + page size) instead of a scan of
+ * every account. Changes are appended to an index file as they happen and the file is
+ * rewritten once most of it describes removed customers. Reads never block, while additions
+ * and removals are serialized by the file. The file is not forced to disk: the account store
+ * is the source of truth, and an index that does not match it is rebuilt when it is opened.
+ * This class is mutable as customers are added and removed.
+ *
+ * Abstraction Function: AF(c) = The set of customers c.entries.keySet(), sorted by username,
+ * where customer u was created at c.entries.get(u) milliseconds since the epoch.
+ *
+ * Representation Invariant: c.entries != null && c.out != null && c.records >= c.entries.size()
+ */
+public class CustomerIndex implements Closeable {
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final int MIN_COMPACT_RECORDS = 1024;
+
+    private final File file;
+    private final ConcurrentSkipListMap<String, Long> entries = new ConcurrentSkipListMap<>();
+    private DataOutputStream out;
+    private long records;
+
+    /**
+     * Opens the index of an account store, rebuilding it from the store if the index file is
+     * missing or does not match the store (for example after a crash between the two writes).
+     * @param file the index file
+     * @param store the account store the index describes
+     * @effects opens the index
+     * @throws IOException if the index or the store cannot be read
+     */
+    public CustomerIndex(File file, AccountStore store) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            load();
+        }
+        List<String> usernames = store.usernames();
+        boolean matches = usernames.size() == entries.size();
+        for (int i = 0; matches && i < usernames.size(); i++) {
+            matches = entries.containsKey(usernames.get(i));
+        }
+        if (!matches) {
+            long now = System.currentTimeMillis();
+            Map<String, Long> previous = new ConcurrentSkipListMap<>(entries);
+            entries.clear();
+            for (String username : usernames) {
+                entries.put(username, previous.getOrDefault(username, now));
+            }
+            rewrite();
+        } else {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        }
+    }
+
+    private void load() throws IOException {
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    String username = in.readUTF();
+                    if (op == ADD) {
+                        long created = in.readLong();
+                        entries.put(username, created);
+                        valid += 1 + 2 + utfLength(username) + 8;
+                    } else {
+                        entries.remove(username);
+                        valid += 1 + 2 + utfLength(username);
+                    }
+                    records++;
+                } catch (EOFException e) {
+                    break;
+                }
+            }
+        }
+        if (valid < file.length()) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(valid); // Torn write from a crash
+            }
+        }
+    }
+
+    private static int utfLength(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c > 0x07FF ? 3 : 2;
+        }
+        return length;
+    }
+
+    /**
+     * Replaces the index file with one holding only the current customers.
+     */
+    private void rewrite() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+        File temporary = new File(file.getPath() + ".tmp");
+        try (DataOutputStream rewritten = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                rewritten.writeByte(ADD);
+                rewritten.writeUTF(entry.getKey());
+                rewritten.writeLong(entry.getValue());
+            }
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        records = entries.size();
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    /**
+     * Adds a customer.
+     * @param username the customer's username
+     * @param createdMillis when the account was created, in milliseconds since the epoch
+     * @modifies this
+     * @effects adds username to the index, replacing the creation time if it is already present
+     * @throws IOException if the index file cannot be written
+     */
+    public synchronized void add(String username, long createdMillis) throws IOException {
+        out.writeByte(ADD);
+        out.writeUTF(username);
+        out.writeLong(createdMillis);
+        out.flush();
+        records++;
+        entries.put(username, createdMillis);
+    }
+
+    /**
+     * Adds several customers with one write to the index file.
+     * @param usernames the customers' usernames
+     * @param createdMillis when the accounts were created, in milliseconds since the epoch
+     * @modifies this
+     * @effects adds each of usernames to the index, replacing the creation time of any already present
+     * @throws IOException if the index file cannot be written
+     */
+    public synchronized void addAll(List<String> usernames, long createdMillis) throws IOException {
+        for (String username : usernames) {
+            out.writeByte(ADD);
+            out.writeUTF(username);
+            out.writeLong(createdMillis);
+        }
+        out.flush();
+        records += usernames.size();
+        for (String username : usernames) {
+            entries.put(username, createdMillis);
+        }
+    }
+
+    /**
+     * Removes a customer.
+     * @param username the customer's username
+     * @modifies this
+     * @effects removes username from the index if it is present
+     * @throws IOException if the index file cannot be written
+     */
+    public synchronized void remove(String username) throws IOException {
+        if (!entries.containsKey(username)) {
+            return;
+        }
+        out.writeByte(REMOVE);
+        out.writeUTF(username);
+        out.flush();
+        records++;
+        entries.remove(username);
+        if (records > MIN_COMPACT_RECORDS && records > 2L * entries.size()) {
+            rewrite();
+        }
+    }
+
+    /**
+     * Returns whether a customer is in the index.
+     * @effects returns true if username is indexed
+     */
+    public boolean contains(String username) {
+        return entries.containsKey(username);
+    }
+
+    /**
+     * Returns when a customer's account was created.
+     * @effects returns the creation time of username in milliseconds since the epoch, or -1 if
+     *          username is not indexed
+     */
+    public long createdMillis(String username) {
+        Long created = entries.get(username);
+        return created == null ? -1 : created;
+    }
+
+    /**
+     * Returns one page of the usernames that start with a prefix, in sorted order.
+     * @param prefix the prefix to match; the empty string matches every customer
+     * @param after the last username of the previous page, or null for the first page
+     * @param limit the maximum number of usernames
+     * @effects returns up to limit usernames starting with prefix and greater than after, sorted
+     */
+    public List<String> page(String prefix, String after, int limit) {
+        NavigableMap<String, Long> range = withPrefix(prefix);
+        if (after != null) {
+            range = range.tailMap(after, false);
+        }
+        List<String> page = new ArrayList<>(Math.min(limit, 64));
+        for (String username : range.keySet()) {
+            if (page.size() >= limit) {
+                break;
+            }
+            page.add(username);
+        }
+        return page;
+    }
+
+    /**
+     * Returns the entries whose usernames start with prefix.
+     */
+    private NavigableMap<String, Long> withPrefix(String prefix) {
+        // The smallest string greater than every string starting with prefix
+        int last = prefix.length() - 1;
+        while (last >= 0 && prefix.charAt(last) == Character.MAX_VALUE) {
+            last--;
+        }
+        if (last < 0) {
+            return entries.tailMap(prefix, true);
+        }
+        String end = prefix.substring(0, last) + (char) (prefix.charAt(last) + 1);
+        return entries.subMap(prefix, true, end, false);
+    }
+
+    /**
+     * Returns the number of usernames that start with a prefix.
+     * @param prefix the prefix to match; the empty string matches every customer
+     * @effects returns the number of indexed usernames starting with prefix; this walks the matches
+     */
+    public int count(String prefix) {
+        return prefix.isEmpty() ? entries.size() : withPrefix(prefix).size();
+    }
+
+    /**
+     * Returns the number of customers.
+     * @effects returns the number of indexed customers
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public synchronized boolean repOK() {
+        return entries != null && out != null && records >= entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return "CustomerIndex{" + "file=" + file + ", customers=" + entries.size() + '}';
+    }
+}
@@ -0,0 +1,148 @@
+package coe528.project;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Consumer;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+/**
+ * Overview: A CustomerPager streams the usernames matching a search prefix into an observable
+ * list, one sorted page at a time, for display in a virtualized ListView. Pages are read from
+ * the customer index on the bank's persistence threads and appended on the JavaFX application
+ * thread; the next page is requested only when the view shows a row near the end of what has
+ * been loaded, so memory and work grow with what the manager scrolls through, not with the
+ * number of customers. Starting a new search discards pages still arriving for an older one.
+ * All methods must be called on the JavaFX application thread.
+ * This class is mutable as pages are loaded and searches change.
+ *
+ * Abstraction Function: AF(c) = The first c.items.size() usernames, in sorted order, of the
+ * customers whose usernames start with c.prefix; all of them if c.exhausted.
+ *
+ * Representation Invariant: c.service != null && c.items != null && c.prefix != null &&
+ * c.pageSize > 0 && c.items is sorted
+ */
+public class CustomerPager {
+    public static final int DEFAULT_PAGE_SIZE = 200;
+
+    private final AsyncTransactionService service;
+    private final int pageSize;
+    private final Consumer<Throwable> onError;
+    private final ObservableList<String> items = FXCollections.observableArrayList();
+    private final ReadOnlyBooleanWrapper loading = new ReadOnlyBooleanWrapper();
+    private String prefix = "";
+    private boolean exhausted;
+    private int generation;
+
+    /**
+     * Creates a pager.
+     * @param service the service the pages are read through
+     * @param pageSize the number of usernames read at a time
+     * @param onError called on the JavaFX application thread if a page cannot be read
+     * @requires pageSize > 0
+     */
+    public CustomerPager(AsyncTransactionService service, int pageSize, Consumer<Throwable> onError) {
+        this.service = service;
+        this.pageSize = pageSize;
+        this.onError = onError;
+    }
+
+    public ObservableList<String> getItems() {
+        return this.items;
+    }
+
+    public ReadOnlyBooleanProperty loadingProperty() {
+        return loading.getReadOnlyProperty();
+    }
+
+    public boolean isExhausted() {
+        return this.exhausted;
+    }
+
+    /**
+     * Starts a new search.
+     * @param prefix the username prefix to match; the empty string matches every customer
+     * @modifies this
+     * @effects discards the loaded usernames and starts loading the first page matching prefix
+     */
+    public void search(String prefix) {
+        this.prefix = prefix;
+        generation++;
+        items.clear();
+        exhausted = false;
+        loading.set(false);
+        loadNextPage();
+    }
+
+    /**
+     * Tells the pager which row the view is showing.
+     * @param index the index of a row being displayed
+     * @modifies this
+     * @effects starts loading the next page if index is within a page of the end of the loaded rows
+     */
+    public void showing(int index) {
+        if (index >= items.size() - pageSize / 2) {
+            loadNextPage();
+        }
+    }
+
+    private void loadNextPage() {
+        if (loading.get() || exhausted) {
+            return;
+        }
+        loading.set(true);
+        int requested = generation;
+        String after = items.isEmpty() ? null : items.get(items.size() - 1);
+        service.findCustomers(prefix, after, pageSize).whenComplete((page, error) -> Platform.runLater(() -> {
+            if (requested != generation) {
+                return; // An answer to a search that has since been replaced
+            }
+            loading.set(false);
+            if (error != null) {
+                onError.accept(error);
+                return;
+            }
+            exhausted = page.size() < pageSize;
+            items.addAll(page);
+        }));
+    }
+
+    /**
+     * Removes usernames that have been deleted from the loaded rows.
+     * @param usernames the usernames to remove
+     * @modifies this
+     * @effects removes usernames from the loaded rows
+     */
+    public void removeAll(Collection<String> usernames) {
+        items.removeAll(new HashSet<>(usernames));
+        if (items.isEmpty()) {
+            loadNextPage();
+        }
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        if (service == null || items == null || prefix == null || pageSize <= 0) {
+            return false;
+        }
+        List<String> loaded = items;
+        for (int i = 1; i < loaded.size(); i++) {
+            if (loaded.get(i - 1).compareTo(loaded.get(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "CustomerPager{" + "prefix=" + prefix + ", loaded=" + items.size() + ", exhausted=" + exhausted + '}';
+    }
+}
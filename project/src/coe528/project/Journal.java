@@ -0,0 +1,505 @@
+package coe528.project;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Overview: The Journal class is a write-ahead log of account changes that commits records
+ * in groups. Callers append records and then wait until they are durable; a single committer
+ * thread writes everything appended so far and forces it to disk with one fsync, so many
+ * concurrent transactions share the cost of each fsync. The committer can also wait a
+ * configurable time for more records before committing, trading a little latency for larger
+ * groups. Each record is framed with its length and a CRC so a torn write at the end of the
+ * journal is detected and discarded on replay. The time each group takes to write and fsync
+ * is recorded in the default Metrics as journal.commit.
+ * This class is mutable as records are appended, committed and discarded.
+ *
+ * Abstraction Function: AF(c) = The sequence of the first c.appended records appended since
+ * the last reset, of which the first c.durable have been forced to disk.
+ *
+ * Representation Invariant: c.channel != null && 0 <= c.durable <= c.appended &&
+ * c.groupCommitNanos >= 0
+ */
+public class Journal implements Closeable {
+    private static final byte CREATE = 1;
+    private static final byte BALANCE = 2;
+    private static final byte DELETE = 3;
+    private static final byte BALANCES = 4;
+    private static final byte CREATES = 5;
+    private static final byte TRANSFER = 6;
+    private static final int FRAME_HEADER_BYTES = 8;
+    private static final int MAX_GROUP_BYTES = 1024 * 1024;
+
+    private final File file;
+    private final FileChannel channel;
+    private final long groupCommitNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition work = lock.newCondition();
+    private final Condition committed = lock.newCondition();
+    private final Thread committer;
+    private final OperationMetrics commitMetrics = Metrics.getDefault().operation("journal.commit");
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(64 * 1024);
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(128);
+    private final DataOutputStream record = new DataOutputStream(recordBytes);
+    private long appended;
+    private long durable;
+    private long groups;
+    private long size;
+    private boolean closed;
+    private IOException failure;
+
+    /**
+     * Overview: A Replayer receives the records of a journal in the order they were appended.
+     */
+    public interface Replayer {
+        void create(String username, String password, long balance) throws IOException;
+
+        void balance(String username, long balance) throws IOException;
+
+        void delete(String username) throws IOException;
+
+        void transfer(String from, long fromBalance, int fromEntry, String to, long toBalance, int toEntry,
+                long amount, long timestamp) throws IOException;
+    }
+
+    /**
+     * Opens or creates a journal file.
+     * @param file the journal file
+     * @param groupCommitMicros how long the committer waits for more records before
+     *        committing a group; 0 commits as soon as the previous group is on disk
+     * @requires groupCommitMicros >= 0
+     * @effects opens the journal and starts its committer thread
+     * @throws IOException if the file cannot be opened
+     */
+    public Journal(File file, long groupCommitMicros) throws IOException {
+        this.file = file;
+        this.groupCommitNanos = TimeUnit.MICROSECONDS.toNanos(groupCommitMicros);
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.size = channel.size();
+        this.committer = new Thread(this::commitLoop, "journal-committer");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * Appends a record of a new account.
+     * @modifies this
+     * @effects appends the record and returns its sequence number
+     * @throws IOException if the journal has failed or is closed
+     */
+    public long appendCreate(String username, String password, long balance) throws IOException {
+        lock.lock();
+        try {
+            record.writeByte(CREATE);
+            record.writeUTF(username);
+            record.writeUTF(password);
+            record.writeLong(balance);
+            return appendRecord();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a record of the customer's current balance. The balance is read while the
+     * journal is locked, so records of the same customer are in the order their balances were read.
+     * @modifies this
+     * @effects appends the record and returns its sequence number
+     * @throws IOException if the journal has failed or is closed
+     */
+    public long appendBalance(Customer customer) throws IOException {
+        lock.lock();
+        try {
+            record.writeByte(BALANCE);
+            record.writeUTF(customer.getUsername());
+            record.writeLong(customer.getBalance());
+            return appendRecord();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends one record of several new accounts, so that after a crash either all or none of
+     * them are replayed.
+     * @requires customers is not empty
+     * @modifies this
+     * @effects appends the record and returns its sequence number
+     * @throws IOException if the journal has failed or is closed
+     */
+    public long appendCreates(List<Customer> customers) throws IOException {
+        lock.lock();
+        try {
+            record.writeByte(CREATES);
+            record.writeInt(customers.size());
+            for (Customer customer : customers) {
+                record.writeUTF(customer.getUsername());
+                record.writeUTF(customer.getPassword());
+                record.writeLong(customer.getBalance());
+            }
+            return appendRecord();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends one record of several customers' current balances, so that after a crash either
+     * all or none of the balances are replayed.
+     * @requires customers is not empty
+     * @modifies this
+     * @effects appends the record and returns its sequence number
+     * @throws IOException if the journal has failed or is closed
+     */
+    public long appendBalances(List<Customer> customers) throws IOException {
+        lock.lock();
+        try {
+            record.writeByte(BALANCES);
+            record.writeInt(customers.size());
+            for (Customer customer : customers) {
+                record.writeUTF(customer.getUsername());
+                record.writeLong(customer.getBalance());
+            }
+            return appendRecord();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends one record of a transfer: the new balances of both customers together with the
+     * transfer entries of their histories, so that after a crash either the whole transfer or
+     * none of it is replayed.
+     * @param from the customer who sent the money
+     * @param fromEntry the number of entries in the history of from before the transfer
+     * @param to the customer who received it
+     * @param toEntry the number of entries in the history of to before the transfer
+     * @param amount the amount transferred in cents
+     * @param timestamp the time of the transfer in milliseconds since the epoch
+     * @modifies this
+     * @effects appends the record and returns its sequence number
+     * @throws IOException if the journal has failed or is closed
+     */
+    public long appendTransfer(Customer from, int fromEntry, Customer to, int toEntry, long amount, long timestamp)
+            throws IOException {
+        lock.lock();
+        try {
+            record.writeByte(TRANSFER);
+            record.writeUTF(from.getUsername());
+            record.writeLong(from.getBalance());
+            record.writeInt(fromEntry);
+            record.writeUTF(to.getUsername());
+            record.writeLong(to.getBalance());
+            record.writeInt(toEntry);
+            record.writeLong(amount);
+            record.writeLong(timestamp);
+            return appendRecord();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a record of a deleted account.
+     * @modifies this
+     * @effects appends the record and returns its sequence number
+     * @throws IOException if the journal has failed or is closed
+     */
+    public long appendDelete(String username) throws IOException {
+        lock.lock();
+        try {
+            record.writeByte(DELETE);
+            record.writeUTF(username);
+            return appendRecord();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frames the record written to this.record and adds it to the pending group.
+     * @requires lock is held by the current thread
+     */
+    private long appendRecord() throws IOException {
+        try {
+            checkOpen();
+            byte[] payload = recordBytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            DataOutputStream out = new DataOutputStream(pending);
+            out.writeInt(payload.length);
+            out.writeInt((int) crc.getValue());
+            out.write(payload);
+            appended++;
+            work.signal();
+            return appended;
+        } finally {
+            recordBytes.reset();
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (failure != null) {
+            throw new IOException("Journal failed", failure);
+        }
+        if (closed) {
+            throw new IOException("Journal is closed");
+        }
+    }
+
+    /**
+     * Waits until a record is durable.
+     * @param sequence the sequence number returned when the record was appended
+     * @effects returns once the record and every record before it are on disk
+     * @throws IOException if the journal fails before the record is committed
+     */
+    public void await(long sequence) throws IOException {
+        lock.lock();
+        try {
+            while (durable < sequence) {
+                if (failure != null) {
+                    throw new IOException("Journal failed", failure);
+                }
+                committed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void commitLoop() {
+        while (true) {
+            byte[] group;
+            long sequence;
+            lock.lock();
+            try {
+                while (pending.size() == 0 && !closed) {
+                    work.awaitUninterruptibly();
+                }
+                if (pending.size() == 0) {
+                    return;
+                }
+                long deadline = System.nanoTime() + groupCommitNanos;
+                long remaining = groupCommitNanos;
+                while (remaining > 0 && pending.size() < MAX_GROUP_BYTES && !closed) {
+                    try {
+                        remaining = work.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    remaining = Math.min(remaining, deadline - System.nanoTime());
+                }
+                group = pending.toByteArray();
+                pending.reset();
+                sequence = appended;
+            } finally {
+                lock.unlock();
+            }
+            long start = System.nanoTime();
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(group);
+                long position = size;
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                channel.force(false);
+                commitMetrics.record(OperationMetrics.Outcome.OK, System.nanoTime() - start);
+                Metrics.getDefault().addBytesWritten(group.length);
+                lock.lock();
+                try {
+                    size = position;
+                    durable = sequence;
+                    groups++;
+                    committed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            } catch (IOException e) {
+                commitMetrics.record(OperationMetrics.Outcome.FAILED, System.nanoTime() - start);
+                lock.lock();
+                try {
+                    failure = e;
+                    committed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Replays every complete record of the journal, discarding a torn record at the end.
+     * @param replayer the receiver of the records
+     * @requires no record has been appended since the journal was opened
+     * @modifies the journal file
+     * @effects passes each complete record to replayer in order and truncates anything after them
+     * @throws IOException if an I/O error occurs or replayer fails
+     */
+    public void replay(Replayer replayer) throws IOException {
+        lock.lock();
+        try {
+            long length = channel.size();
+            long position = 0;
+            ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_BYTES);
+            while (position + FRAME_HEADER_BYTES <= length) {
+                header.clear();
+                channel.read(header, position);
+                if (header.hasRemaining()) {
+                    break;
+                }
+                header.flip();
+                int recordLength = header.getInt();
+                int crc = header.getInt();
+                if (recordLength <= 0 || position + FRAME_HEADER_BYTES + recordLength > length) {
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(recordLength);
+                channel.read(payload, position + FRAME_HEADER_BYTES);
+                CRC32 check = new CRC32();
+                check.update(payload.array());
+                if (payload.hasRemaining() || (int) check.getValue() != crc) {
+                    break;
+                }
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload.array()));
+                byte type = in.readByte();
+                if (type == BALANCES || type == CREATES) {
+                    for (int count = in.readInt(); count > 0; count--) {
+                        if (type == CREATES) {
+                            replayer.create(in.readUTF(), in.readUTF(), in.readLong());
+                        } else {
+                            replayer.balance(in.readUTF(), in.readLong());
+                        }
+                    }
+                    position += FRAME_HEADER_BYTES + recordLength;
+                    continue;
+                }
+                String username = in.readUTF();
+                if (type == CREATE) {
+                    replayer.create(username, in.readUTF(), in.readLong());
+                } else if (type == BALANCE) {
+                    replayer.balance(username, in.readLong());
+                } else if (type == DELETE) {
+                    replayer.delete(username);
+                } else if (type == TRANSFER) {
+                    replayer.transfer(username, in.readLong(), in.readInt(), in.readUTF(), in.readLong(), in.readInt(),
+                            in.readLong(), in.readLong());
+                }
+                position += FRAME_HEADER_BYTES + recordLength;
+            }
+            if (position < length) {
+                channel.truncate(position); // Torn write from a crash
+            }
+            size = position;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discards every record once the changes they describe are stored elsewhere.
+     * @requires every appended record has been committed
+     * @modifies this, the journal file
+     * @effects empties the journal
+     * @throws IOException if an I/O error occurs
+     */
+    public void reset() throws IOException {
+        lock.lock();
+        try {
+            if (durable != appended) {
+                throw new IllegalStateException("Journal has uncommitted records");
+            }
+            channel.truncate(0);
+            channel.force(true);
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the size of the journal.
+     * @effects returns the number of committed bytes in the journal file
+     */
+    public long size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Counters showing how well commits are being grouped
+    public long getRecordCount() {
+        lock.lock();
+        try {
+            return durable;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getGroupCount() {
+        lock.lock();
+        try {
+            return groups;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            work.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        lock.lock();
+        try {
+            return channel != null && durable >= 0 && durable <= appended && groupCommitNanos >= 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "Journal{" + "file=" + file + ", size=" + size + ", records=" + durable + ", groups=" + groups + '}';
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package coe528.project;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Overview: The JournaledAccountStore class makes every change to another AccountStore
+ * durable before it is acknowledged. Each account creation, balance change and deletion is
+ * first committed to a write-ahead Journal, which groups concurrent commits into a single
+ * fsync, and is then handed to the underlying store, which may buffer it (for example in a
+ * write-behind cache). When the store is opened the journal is replayed into the underlying
+ * store, so the changes of a crashed run are recovered. Once the journal grows past a size
+ * limit the underlying store is flushed and the journal is emptied (a checkpoint).
+ * When the store is given the bank's TransactionLedger, a transfer is committed as one journal
+ * record holding both new balances and both transfer entries; replay restores whichever
+ * entries had not reached the ledger, and each checkpoint forces the ledger before the journal
+ * records are discarded.
+ * This class is mutable as accounts can be created, updated and deleted.
+ *
+ * Abstraction Function: AF(c) = The accounts of c.delegate with the changes recorded in
+ * c.journal applied in order.
+ *
+ * Representation Invariant: c.delegate != null && c.journal != null && c.checkpointBytes > 0
+ */
+public class JournaledAccountStore implements AccountStore {
+    private final AccountStore delegate;
+    private final Journal journal;
+    private final TransactionLedger ledger;
+    private final long checkpointBytes;
+    // Changes hold the read lock from journal commit until the delegate has them; checkpoints hold the write lock
+    private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    private final AtomicBoolean checkpointing = new AtomicBoolean();
+
+    /**
+     * Opens a journaled store, recovering any changes recorded in the journal.
+     * @param delegate the store that holds the accounts
+     * @param journal the write-ahead journal of delegate
+     * @param checkpointBytes the journal size after which a checkpoint is taken
+     * @requires journal has not been appended to since it was opened && checkpointBytes > 0
+     * @modifies delegate, journal
+     * @effects applies the journal to delegate, flushes delegate and empties the journal
+     * @throws IOException if the journal cannot be replayed
+     */
+    public JournaledAccountStore(AccountStore delegate, Journal journal, long checkpointBytes) throws IOException {
+        this(delegate, journal, null, checkpointBytes);
+    }
+
+    /**
+     * Opens a journaled store that also commits the transfer entries of ledger, recovering any
+     * changes and transfer entries recorded in the journal.
+     * @param delegate the store that holds the accounts
+     * @param journal the write-ahead journal of delegate
+     * @param ledger the transaction history of the accounts, or null to journal balances only
+     * @param checkpointBytes the journal size after which a checkpoint is taken
+     * @requires journal has not been appended to since it was opened && checkpointBytes > 0
+     * @modifies delegate, journal, ledger
+     * @effects applies the journal to delegate and ledger, flushes both and empties the journal
+     * @throws IOException if the journal cannot be replayed
+     */
+    public JournaledAccountStore(AccountStore delegate, Journal journal, TransactionLedger ledger, long checkpointBytes)
+            throws IOException {
+        this.delegate = delegate;
+        this.journal = journal;
+        this.ledger = ledger;
+        this.checkpointBytes = checkpointBytes;
+        journal.replay(new Journal.Replayer() {
+            @Override
+            public void create(String username, String password, long balance) throws IOException {
+                if (!delegate.exists(username)) {
+                    delegate.create(username, password, balance);
+                }
+            }
+
+            @Override
+            public void balance(String username, long balance) throws IOException {
+                Customer customer = delegate.load(username);
+                if (customer != null) {
+                    delegate.save(new Customer(username, customer.getPassword(), balance));
+                }
+            }
+
+            @Override
+            public void delete(String username) throws IOException {
+                if (delegate.exists(username)) {
+                    delegate.delete(username);
+                }
+            }
+
+            @Override
+            public void transfer(String from, long fromBalance, int fromEntry, String to, long toBalance, int toEntry,
+                    long amount, long timestamp) throws IOException {
+                balance(from, fromBalance);
+                balance(to, toBalance);
+                if (ledger != null) {
+                    ledger.restoreTransfer(from, fromEntry, to, toEntry, amount, fromBalance, toBalance, timestamp);
+                }
+            }
+        });
+        checkpoint();
+    }
+
+    public Journal getJournal() {
+        return this.journal;
+    }
+
+    public TransactionLedger getLedger() {
+        return this.ledger;
+    }
+
+    @Override
+    public boolean exists(String username) throws IOException {
+        return delegate.exists(username);
+    }
+
+    @Override
+    public Customer load(String username) throws IOException {
+        return delegate.load(username);
+    }
+
+    @Override
+    public void create(String username, String password, long balance) throws IOException {
+        checkpointLock.readLock().lock();
+        try {
+            if (delegate.exists(username)) {
+                throw new IllegalArgumentException("Customer already exists");
+            }
+            journal.await(journal.appendCreate(username, password, balance));
+            delegate.create(username, password, balance);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        checkpointIfNeeded();
+    }
+
+    @Override
+    public void save(Customer customer) throws IOException {
+        checkpointLock.readLock().lock();
+        try {
+            if (!delegate.exists(customer.getUsername())) {
+                throw new IllegalArgumentException("Customer does not exist");
+            }
+            journal.await(journal.appendBalance(customer));
+            delegate.save(customer);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        checkpointIfNeeded();
+    }
+
+    /**
+     * Creates several accounts with a single journal record, so that either all or none of
+     * them are recovered after a crash.
+     */
+    @Override
+    public void createAll(List<Customer> customers) throws IOException {
+        if (customers.isEmpty()) {
+            return;
+        }
+        checkpointLock.readLock().lock();
+        try {
+            Set<String> usernames = new HashSet<>();
+            for (Customer customer : customers) {
+                if (!usernames.add(customer.getUsername()) || delegate.exists(customer.getUsername())) {
+                    throw new IllegalArgumentException("Customer already exists: " + customer.getUsername());
+                }
+            }
+            journal.await(journal.appendCreates(customers));
+            delegate.createAll(customers);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        checkpointIfNeeded();
+    }
+
+    /**
+     * Stores several customers with a single journal record, so the new balances become
+     * durable together and either all or none of them are recovered after a crash.
+     */
+    @Override
+    public void saveAll(List<Customer> customers) throws IOException {
+        if (customers.isEmpty()) {
+            return;
+        }
+        checkpointLock.readLock().lock();
+        try {
+            for (Customer customer : customers) {
+                if (!delegate.exists(customer.getUsername())) {
+                    throw new IllegalArgumentException("Customer does not exist");
+                }
+            }
+            journal.await(journal.appendBalances(customers));
+            delegate.saveAll(customers);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        checkpointIfNeeded();
+    }
+
+    /**
+     * Stores the balances of a transfer and records it in the ledger with a single journal
+     * record, so the balances and both transfer entries become durable together.
+     * @param from the customer who sent the money, holding their new balance
+     * @param to the customer who received it, holding their new balance
+     * @param amount the amount transferred in cents
+     * @requires this.ledger != null && amount >= 0 && the caller holds the AccountLocks of both
+     *           customers, so no other entry is added to either history until this returns
+     * @modifies this, this.ledger
+     * @effects commits and stores both balances, appends a TRANSFER_OUT entry to the history of
+     *          from and a TRANSFER_IN entry to the history of to, and returns the TRANSFER_OUT entry
+     * @throws IllegalArgumentException if either customer does not exist
+     * @throws IllegalStateException if this store keeps no ledger
+     * @throws IOException if an I/O error occurs
+     */
+    public LedgerEntry saveTransfer(Customer from, Customer to, long amount) throws IOException {
+        if (ledger == null) {
+            throw new IllegalStateException("No ledger");
+        }
+        LedgerEntry entry;
+        checkpointLock.readLock().lock();
+        try {
+            if (!delegate.exists(from.getUsername()) || !delegate.exists(to.getUsername())) {
+                throw new IllegalArgumentException("Customer does not exist");
+            }
+            long timestamp = System.currentTimeMillis();
+            journal.await(journal.appendTransfer(from, ledger.count(from.getUsername()), to,
+                    ledger.count(to.getUsername()), amount, timestamp));
+            delegate.saveAll(List.of(from, to));
+            entry = ledger.appendTransfer(from.getUsername(), to.getUsername(), amount, from.getBalance(),
+                    to.getBalance(), timestamp);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        checkpointIfNeeded();
+        return entry;
+    }
+
+    @Override
+    public void delete(String username) throws IOException {
+        checkpointLock.readLock().lock();
+        try {
+            if (!delegate.exists(username)) {
+                throw new IllegalArgumentException("Customer does not exist");
+            }
+            journal.await(journal.appendDelete(username));
+            delegate.delete(username);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        checkpointIfNeeded();
+    }
+
+    @Override
+    public List<String> usernames() throws IOException {
+        return delegate.usernames();
+    }
+
+    @Override
+    public void forEach(AccountSnapshot.Visitor visitor) throws IOException {
+        checkpointLock.readLock().lock();
+        try {
+            delegate.forEach(visitor);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+    }
+
+    private void checkpointIfNeeded() throws IOException {
+        if (journal.size() > checkpointBytes && checkpointing.compareAndSet(false, true)) {
+            try {
+                checkpoint();
+            } finally {
+                checkpointing.set(false);
+            }
+        }
+    }
+
+    /**
+     * Makes the underlying store and the ledger durable and empties the journal.
+     * @modifies delegate, ledger, journal
+     * @effects flushes delegate and ledger and discards every journal record
+     * @throws IOException if an I/O error occurs
+     */
+    public void checkpoint() throws IOException {
+        checkpointLock.writeLock().lock();
+        try {
+            delegate.flush();
+            if (ledger != null) {
+                ledger.flush(); // The journal holds the only durable copy of recent transfer entries
+            }
+            journal.reset();
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        checkpoint();
+    }
+
+    /**
+     * Takes a final checkpoint and closes the journal and the underlying store. The journal and
+     * the store are closed even if the checkpoint fails (for example after the journal's
+     * committer has failed), so the store still writes what it buffers and releases its files;
+     * any later failures are attached to the first one as suppressed exceptions.
+     */
+    @Override
+    public void close() throws IOException {
+        // Closed in reverse order: the journal, then the store
+        try (delegate; journal) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        return delegate != null && journal != null && checkpointBytes > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "JournaledAccountStore{" + "delegate=" + delegate + ", journal=" + journal + ", ledger=" + ledger + '}';
+    }
+}
@@ -0,0 +1,171 @@
+package coe528.project;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Overview: A LatencyHistogram records durations in nanoseconds with low overhead so it can
+ * sit on every transaction's hot path. Durations fall into log-linear buckets: each power of
+ * two is split into 8 equal sub-buckets, so any percentile is reported to within 12.5% of
+ * the true value while the histogram stays a fixed array of counters. Each bucket is a
+ * LongAdder, so concurrent recordings do not contend on a single counter.
+ * This class is mutable as durations are recorded.
+ *
+ * Abstraction Function: AF(c) = The multiset of recorded durations, where c.buckets[i] holds
+ * how many fell into the range [lowerBound(i), upperBound(i)], c.sum their total and c.max the largest.
+ *
+ * Representation Invariant: c.buckets != null && c.buckets.length == BUCKETS &&
+ * every element of c.buckets is not null
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    private static int bucketFor(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * Records a duration.
+     * @param nanos the duration in nanoseconds; negative durations are recorded as 0
+     * @modifies this
+     * @effects adds nanos to the recorded durations
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets[bucketFor(value)].increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Returns a consistent-enough copy of the histogram for reporting.
+     * @effects returns the counts recorded so far; recordings made while the copy is taken
+     *          may or may not be included
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            count += counts[i];
+        }
+        return new Snapshot(counts, count, sum.sum(), max.get());
+    }
+
+    /**
+     * Discards every recorded duration.
+     * @modifies this
+     * @effects empties the histogram; recordings made concurrently may be lost
+     */
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        sum.reset();
+        max.reset();
+    }
+
+    /**
+     * Overview: A Snapshot is an immutable copy of a LatencyHistogram's counts.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public long getMaxNanos() {
+            return this.max;
+        }
+
+        /**
+         * Returns the mean duration.
+         * @effects returns the mean recorded duration in nanoseconds, or 0 if nothing was recorded
+         */
+        public double getMeanNanos() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * Returns a percentile of the recorded durations.
+         * @param percentile the percentile, e.g. 99.9
+         * @requires 0 <= percentile <= 100
+         * @effects returns the upper bound of the bucket holding the percentile, at most the
+         *          largest recorded duration, or 0 if nothing was recorded
+         */
+        public long getPercentileNanos(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max);
+                }
+            }
+            return max;
+        }
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        if (buckets.length != BUCKETS) {
+            return false;
+        }
+        for (LongAdder bucket : buckets) {
+            if (bucket == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        Snapshot snapshot = snapshot();
+        return "LatencyHistogram{" + "count=" + snapshot.getCount() + ", p50=" + snapshot.getPercentileNanos(50)
+                + "ns, p99=" + snapshot.getPercentileNanos(99) + "ns, max=" + snapshot.getMaxNanos() + "ns}";
+    }
+}
@@ -0,0 +1,90 @@
+package coe528.project;
+
+import java.time.Instant;
+
+/**
+ * Overview: A LedgerEntry is one transaction recorded in a customer's transaction history:
+ * when it happened, what kind of transaction it was, its amount, the fee charged and the
+ * balance after it.
+ * This class is immutable.
+ *
+ * Abstraction Function: AF(c) = A transaction of type c.type for c.amount cents with a fee
+ * of c.fee cents at c.timestamp milliseconds since the epoch, leaving a balance of
+ * c.balanceAfter cents.
+ *
+ * Representation Invariant: c.type != null && c.amount >= 0 && c.fee >= 0
+ */
+public final class LedgerEntry {
+    private final long timestamp;
+    private final TransactionType type;
+    private final long amount;
+    private final long fee;
+    private final long balanceAfter;
+
+    public LedgerEntry(long timestamp, TransactionType type, long amount, long fee, long balanceAfter) {
+        this.timestamp = timestamp;
+        this.type = type;
+        this.amount = amount;
+        this.fee = fee;
+        this.balanceAfter = balanceAfter;
+    }
+
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    public TransactionType getType() {
+        return this.type;
+    }
+
+    public long getAmount() {
+        return this.amount;
+    }
+
+    public long getFee() {
+        return this.fee;
+    }
+
+    public long getBalanceAfter() {
+        return this.balanceAfter;
+    }
+
+    /**
+     * Describes the transaction the way the customer screen shows it.
+     * @effects returns a short description such as "Deposited $20.00"
+     */
+    public String describe() {
+        switch (type) {
+            case DEPOSIT:
+                return "Deposited $" + Money.format(amount);
+            case WITHDRAWAL:
+                return "Withdrew $" + Money.format(amount);
+            case PURCHASE:
+                return "Purchased item for $" + Money.format(amount)
+                        + (fee > 0 ? " (fee $" + Money.format(fee) + ")" : "");
+            case MONTH_END:
+                return "Month-end interest $" + Money.format(amount)
+                        + (fee > 0 ? " (fee $" + Money.format(fee) + ")" : "");
+            case TRANSFER_OUT:
+                return "Transferred $" + Money.format(amount);
+            case TRANSFER_IN:
+                return "Received transfer of $" + Money.format(amount);
+            default:
+                return type + " $" + Money.format(amount);
+        }
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        return type != null && amount >= 0 && fee >= 0;
+    }
+
+    @Override
+    public String toString() {
+        return "LedgerEntry{" + "time=" + Instant.ofEpochMilli(timestamp) + ", type=" + type + ", amount="
+                + Money.format(amount) + ", fee=" + Money.format(fee) + ", balanceAfter=" + Money.format(balanceAfter) + '}';
+    }
+}
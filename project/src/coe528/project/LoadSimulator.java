@@ -0,0 +1,528 @@
+package coe528.project;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Overview: The LoadSimulator class reproduces production load against a bank's
+ * TransactionService, and through it the customer rules and the account store, to measure
+ * how much load the bank can take. It first creates a population of customers (load-0,
+ * load-1, ...) whose opening balances lie between $5,000 and $25,000, around the $10,000 and
+ * $20,000 tier thresholds, so deposits, withdrawals and purchases regularly move customers
+ * between tiers. It then drives a mix of logins, deposits, withdrawals and purchases from a
+ * number of threads, each picking its customer from a Zipf distribution so that a few hot
+ * accounts get most of the traffic, as they do in practice. A ramp repeats this with more and
+ * more threads until throughput stops improving, which is the saturation point, and the
+ * report gives throughput, latency percentiles, rejections, failures and tier changes at each
+ * level.
+ * This class is immutable, but running it changes the bank.
+ *
+ * Abstraction Function: AF(c) = A simulation of c.customers customers of c.service, customer
+ * load-k being chosen with probability c.cdf[k] - c.cdf[k - 1] (c.cdf[-1] = 0), proportional
+ * to 1 / (k + 1)^c.skew, with opening balances drawn from c.seed.
+ *
+ * Representation Invariant: c.service != null && c.customers > 0 && c.skew >= 0 &&
+ * c.cdf != null && c.cdf.length == c.customers && c.cdf is non-decreasing && c.cdf[c.customers - 1] == 1
+ */
+public class LoadSimulator {
+    public static final String USERNAME_PREFIX = "load-";
+    public static final String PASSWORD = "load";
+    public static final double DEFAULT_SKEW = 1.0;
+
+    private static final int POPULATE_BATCH = 10000;
+    private static final long MIN_OPENING_BALANCE = Money.ofDollars(5000);
+    private static final long MAX_OPENING_BALANCE = Money.ofDollars(25000);
+    private static final long MIN_PURCHASE = Money.ofDollars(50);
+    private static final long MAX_AMOUNT = Money.ofDollars(2500);
+    // Deposits are larger so that, with the mix below, hot accounts take in about what they spend
+    private static final long MAX_DEPOSIT = Money.ofDollars(4300);
+    private static final double IMPROVEMENT = 1.05;
+    private static final int STALLED_STEPS = 2;
+
+    /**
+     * Overview: An Operation is one kind of request in the simulated mix, with its share of
+     * the requests in percent.
+     */
+    public enum Operation {
+        LOGIN(20), DEPOSIT(30), WITHDRAW(20), PURCHASE(30);
+
+        private final int percent;
+
+        Operation(int percent) {
+            this.percent = percent;
+        }
+
+        public int getPercent() {
+            return this.percent;
+        }
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final TransactionService service;
+    private final int customers;
+    private final double skew;
+    private final long seed;
+    private final double[] cdf;
+
+    /**
+     * Creates a simulator.
+     * @param service the service of the bank to load
+     * @param customers the number of customers to simulate
+     * @param skew the Zipf exponent of account access: 0 spreads requests evenly over the
+     *        customers, and the larger it is the more requests go to the first few customers
+     * @param seed the seed of the opening balances
+     * @throws IllegalArgumentException if customers is not positive or skew is negative
+     */
+    public LoadSimulator(TransactionService service, int customers, double skew, long seed) {
+        if (customers <= 0) {
+            throw new IllegalArgumentException("Number of customers must be positive");
+        }
+        if (!(skew >= 0)) {
+            throw new IllegalArgumentException("Skew must not be negative");
+        }
+        this.service = service;
+        this.customers = customers;
+        this.skew = skew;
+        this.seed = seed;
+        this.cdf = new double[customers];
+        double total = 0;
+        for (int k = 0; k < customers; k++) {
+            total += Math.pow(k + 1, -skew);
+            cdf[k] = total;
+        }
+        for (int k = 0; k < customers; k++) {
+            cdf[k] /= total;
+        }
+        cdf[customers - 1] = 1;
+    }
+
+    /**
+     * Returns the username of a simulated customer.
+     * @requires index >= 0
+     * @effects returns the username of the customer with the given popularity rank, 0 being the hottest
+     */
+    public static String username(int index) {
+        return USERNAME_PREFIX + index;
+    }
+
+    /**
+     * Creates the simulated customers that do not exist yet, in batches.
+     * @modifies the bank
+     * @effects every customer load-0 to load-(customers - 1) exists; those created get an
+     *          opening balance from $5,000 to $25,000 drawn from the seed; returns how many were created
+     * @throws IOException if the customers cannot be stored
+     */
+    public int populate() throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        AccountStore store = service.getStore();
+        List<Customer> batch = new ArrayList<>(Math.min(customers, POPULATE_BATCH));
+        int created = 0;
+        for (int i = 0; i < customers; i++) {
+            long balance = random.nextLong(MIN_OPENING_BALANCE, MAX_OPENING_BALANCE + 1);
+            if (!store.exists(username(i))) {
+                batch.add(new Customer(username(i), PASSWORD, balance));
+            }
+            if (batch.size() == POPULATE_BATCH || (i == customers - 1 && !batch.isEmpty())) {
+                service.addCustomers(batch);
+                created += batch.size();
+                batch.clear();
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Picks the customer of the next request.
+     * @effects returns the index of a customer, drawn from the Zipf distribution of the simulator
+     */
+    private int nextCustomer(ThreadLocalRandom random) {
+        int index = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min(index >= 0 ? index : -index - 1, customers - 1);
+    }
+
+    private static Operation nextOperation(ThreadLocalRandom random) {
+        int roll = random.nextInt(100);
+        for (Operation operation : OPERATIONS) {
+            roll -= operation.percent;
+            if (roll < 0) {
+                return operation;
+            }
+        }
+        return OPERATIONS[OPERATIONS.length - 1];
+    }
+
+    /**
+     * Drives the mix for a while.
+     * @param threads the number of threads sending requests, each as fast as it can
+     * @param millis how long to send requests
+     * @requires the customers have been created with populate
+     * @modifies the bank
+     * @effects performs requests from threads threads for millis milliseconds and returns what
+     *          they measured
+     * @throws IllegalArgumentException if threads or millis is not positive
+     */
+    public Step run(int threads, long millis) {
+        if (threads <= 0 || millis <= 0) {
+            throw new IllegalArgumentException("Threads and duration must be positive");
+        }
+        Recorder recorder = new Recorder();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "load-simulator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
+        long deadline = start + millis * 1_000_000;
+        try {
+            List<Future<?>> workers = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                workers.add(pool.submit(() -> drive(recorder, deadline)));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Load simulator thread failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return recorder.toStep(threads, System.nanoTime() - start);
+    }
+
+    private void drive(Recorder recorder, long deadline) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+            Operation operation = nextOperation(random);
+            String username = username(nextCustomer(random));
+            Outcome outcome;
+            int tierBefore = -1;
+            Customer customer = null;
+            long start = System.nanoTime();
+            try {
+                if (operation == Operation.LOGIN) {
+                    customer = service.login(username, PASSWORD);
+                } else {
+                    // Finding the customer stands for the session a client already has, so it is not timed
+                    customer = service.find(username);
+                    tierBefore = customer.getTier().getRank();
+                    start = System.nanoTime();
+                    switch (operation) {
+                        case DEPOSIT -> service.deposit(customer, random.nextLong(1, MAX_DEPOSIT + 1));
+                        case WITHDRAW -> service.withdraw(customer, random.nextLong(1, MAX_AMOUNT + 1));
+                        default -> service.purchase(customer, random.nextLong(MIN_PURCHASE, MAX_AMOUNT + 1));
+                    }
+                }
+                outcome = Outcome.OK;
+            } catch (IllegalArgumentException e) {
+                outcome = Outcome.REJECTED;
+            } catch (IOException | RuntimeException e) {
+                outcome = Outcome.FAILED;
+            }
+            recorder.record(operation, outcome, System.nanoTime() - start);
+            if (outcome == Outcome.OK && tierBefore >= 0 && customer.getTier().getRank() != tierBefore) {
+                recorder.tierChanges.increment();
+            }
+        }
+    }
+
+    /**
+     * Raises the load step by step until the bank saturates.
+     * @param maxThreads the largest number of threads to try
+     * @param stepMillis how long each load level runs
+     * @param progress called with the measurements of each level as soon as it finishes
+     * @requires the customers have been created with populate
+     * @modifies the bank
+     * @effects runs with 1, 2, 4, ... threads, up to maxThreads, stopping early once
+     *          STALLED_STEPS levels in a row fail to beat the best throughput so far by 5%;
+     *          returns the measurements of every level in order
+     * @throws IllegalArgumentException if maxThreads or stepMillis is not positive
+     */
+    public List<Step> ramp(int maxThreads, long stepMillis, Consumer<Step> progress) {
+        if (maxThreads <= 0) {
+            throw new IllegalArgumentException("Threads must be positive");
+        }
+        List<Step> steps = new ArrayList<>();
+        double best = 0;
+        int stalled = 0;
+        for (int threads = 1; stalled < STALLED_STEPS; threads *= 2) {
+            Step step = run(Math.min(threads, maxThreads), stepMillis);
+            steps.add(step);
+            progress.accept(step);
+            stalled = step.getThroughput() > best * IMPROVEMENT ? 0 : stalled + 1;
+            best = Math.max(best, step.getThroughput());
+            if (threads >= maxThreads) {
+                break;
+            }
+        }
+        return steps;
+    }
+
+    /**
+     * Returns the saturation point of a ramp.
+     * @requires steps is not empty
+     * @effects returns the step with the highest throughput
+     */
+    public static Step saturation(List<Step> steps) {
+        Step best = steps.get(0);
+        for (Step step : steps) {
+            best = step.getThroughput() > best.getThroughput() ? step : best;
+        }
+        return best;
+    }
+
+    /**
+     * Writes a report of a ramp.
+     * @requires steps is not empty
+     * @modifies out
+     * @effects writes a table of throughput, outcome rates, tier changes and latency
+     *          percentiles for every step and every operation, and the saturation point
+     */
+    public void writeReport(List<Step> steps, Writer out) {
+        PrintWriter writer = new PrintWriter(out);
+        writer.printf(Locale.ROOT, "Load simulation: %d customers, Zipf skew %.2f, mix", customers, skew);
+        for (Operation operation : OPERATIONS) {
+            writer.printf(Locale.ROOT, " %s %d%%", operation.name().toLowerCase(Locale.ROOT), operation.percent);
+        }
+        writer.println();
+        writer.println();
+        writer.printf(Locale.ROOT, "%-8s %-9s %10s %10s %9s %8s %8s %9s %9s %9s %9s %9s%n", "threads", "operation",
+                "requests", "req/s", "rejected", "failed", "tiers", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us");
+        for (Step step : steps) {
+            writeRow(writer, step, "all", step.getRequests(), step.getRejected(), step.getFailed(), step.getLatency());
+            for (Operation operation : OPERATIONS) {
+                writeRow(writer, step, operation.name().toLowerCase(Locale.ROOT), step.getRequests(operation),
+                        step.getRejected(operation), step.getFailed(operation), step.getLatency(operation));
+            }
+        }
+        Step best = saturation(steps);
+        writer.println();
+        writer.printf(Locale.ROOT, "Saturation: %.0f requests/s with %d threads (p99 %.1f us)%n", best.getThroughput(),
+                best.getThreads(), best.getLatency().getPercentileNanos(99) / 1000.0);
+        writer.flush();
+    }
+
+    private static void writeRow(PrintWriter writer, Step step, String operation, long requests, long rejected, long failed,
+            LatencyHistogram.Snapshot latency) {
+        double seconds = step.getElapsedNanos() / 1e9;
+        writer.printf(Locale.ROOT, "%-8d %-9s %10d %10.0f %8.2f%% %7.3f%% %8s %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+                step.getThreads(), operation, requests, requests / seconds, percent(rejected, requests),
+                percent(failed, requests), operation.equals("all") ? String.valueOf(step.getTierChanges()) : "",
+                latency.getPercentileNanos(50) / 1000.0, latency.getPercentileNanos(90) / 1000.0,
+                latency.getPercentileNanos(99) / 1000.0, latency.getPercentileNanos(99.9) / 1000.0,
+                latency.getMaxNanos() / 1000.0);
+    }
+
+    private static double percent(long part, long whole) {
+        return whole == 0 ? 0 : 100.0 * part / whole;
+    }
+
+    private enum Outcome {
+        OK, REJECTED, FAILED
+    }
+
+    /**
+     * Overview: A Recorder collects the measurements of one load level from every thread.
+     */
+    private static final class Recorder {
+        private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+        private final LatencyHistogram all = new LatencyHistogram();
+        private final LongAdder[][] outcomes = new LongAdder[OPERATIONS.length][Outcome.values().length];
+        private final LongAdder tierChanges = new LongAdder();
+
+        Recorder() {
+            for (int i = 0; i < OPERATIONS.length; i++) {
+                latencies[i] = new LatencyHistogram();
+                for (int j = 0; j < outcomes[i].length; j++) {
+                    outcomes[i][j] = new LongAdder();
+                }
+            }
+        }
+
+        void record(Operation operation, Outcome outcome, long nanos) {
+            latencies[operation.ordinal()].record(nanos);
+            all.record(nanos);
+            outcomes[operation.ordinal()][outcome.ordinal()].increment();
+        }
+
+        Step toStep(int threads, long elapsedNanos) {
+            LatencyHistogram.Snapshot[] snapshots = new LatencyHistogram.Snapshot[OPERATIONS.length];
+            long[][] counts = new long[OPERATIONS.length][Outcome.values().length];
+            for (int i = 0; i < OPERATIONS.length; i++) {
+                snapshots[i] = latencies[i].snapshot();
+                for (int j = 0; j < counts[i].length; j++) {
+                    counts[i][j] = outcomes[i][j].sum();
+                }
+            }
+            return new Step(threads, elapsedNanos, snapshots, all.snapshot(), counts,
+                    tierChanges.sum());
+        }
+    }
+
+    /**
+     * Overview: A Step holds what one load level measured: how many requests of each operation
+     * were made, how many were rejected by the bank's rules (such as a withdrawal larger than
+     * the balance) or failed with an error, their latencies and how many customers changed tier.
+     * This class is immutable.
+     *
+     * Abstraction Function: AF(c) = c.threads threads running for c.elapsedNanos nanoseconds,
+     * whose requests of operation o had the latencies c.latencies[o.ordinal()] and ended
+     * c.counts[o.ordinal()][outcome] times with each outcome (OK, REJECTED, FAILED), and moved
+     * c.tierChanges customers to another tier; c.all holds the latencies of every operation.
+     *
+     * Representation Invariant: c.threads > 0 && c.elapsedNanos >= 0 && c.latencies != null &&
+     * c.all != null && c.counts != null && c.tierChanges >= 0
+     */
+    public static final class Step {
+        private final int threads;
+        private final long elapsedNanos;
+        private final LatencyHistogram.Snapshot[] latencies;
+        private final LatencyHistogram.Snapshot all;
+        private final long[][] counts;
+        private final long tierChanges;
+
+        private Step(int threads, long elapsedNanos, LatencyHistogram.Snapshot[] latencies, LatencyHistogram.Snapshot all,
+                long[][] counts, long tierChanges) {
+            this.threads = threads;
+            this.elapsedNanos = elapsedNanos;
+            this.latencies = latencies;
+            this.all = all;
+            this.counts = counts;
+            this.tierChanges = tierChanges;
+        }
+
+        public int getThreads() {
+            return this.threads;
+        }
+
+        public long getElapsedNanos() {
+            return this.elapsedNanos;
+        }
+
+        public long getRequests(Operation operation) {
+            long[] outcomes = counts[operation.ordinal()];
+            return outcomes[Outcome.OK.ordinal()] + outcomes[Outcome.REJECTED.ordinal()] + outcomes[Outcome.FAILED.ordinal()];
+        }
+
+        public long getRejected(Operation operation) {
+            return counts[operation.ordinal()][Outcome.REJECTED.ordinal()];
+        }
+
+        public long getFailed(Operation operation) {
+            return counts[operation.ordinal()][Outcome.FAILED.ordinal()];
+        }
+
+        public long getRequests() {
+            return all.getCount();
+        }
+
+        public long getRejected() {
+            long rejected = 0;
+            for (Operation operation : OPERATIONS) {
+                rejected += getRejected(operation);
+            }
+            return rejected;
+        }
+
+        public long getFailed() {
+            long failed = 0;
+            for (Operation operation : OPERATIONS) {
+                failed += getFailed(operation);
+            }
+            return failed;
+        }
+
+        public LatencyHistogram.Snapshot getLatency(Operation operation) {
+            return latencies[operation.ordinal()];
+        }
+
+        public LatencyHistogram.Snapshot getLatency() {
+            return this.all;
+        }
+
+        public long getTierChanges() {
+            return this.tierChanges;
+        }
+
+        /**
+         * Returns the throughput of the step.
+         * @effects returns the number of requests completed per second
+         */
+        public double getThroughput() {
+            return elapsedNanos == 0 ? 0 : all.getCount() * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "Step{threads=%d, throughput=%.0f/s, rejected=%d, failed=%d, tierChanges=%d, p99=%dns}",
+                    threads, getThroughput(), getRejected(), getFailed(), tierChanges, all.getPercentileNanos(99));
+        }
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        if (service == null || customers <= 0 || !(skew >= 0) || cdf == null || cdf.length != customers
+                || cdf[customers - 1] != 1) {
+            return false;
+        }
+        for (int k = 1; k < customers; k++) {
+            if (cdf[k] < cdf[k - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadSimulator{" + "service=" + service + ", customers=" + customers + ", skew=" + skew + ", seed=" + seed + '}';
+    }
+
+    /**
+     * Simulates load on the bank configured by the bank.* system properties and writes the
+     * report. It adds customers load-0, load-1, ... and changes their balances, so point
+     * bank.data.dir at a copy of the data rather than at live data.
+     * Usage: LoadSimulator report [customers] [maxThreads] [stepSeconds], with the skew in
+     * bank.load.skew.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: LoadSimulator <report.txt> [customers] [maxThreads] [stepSeconds]");
+            System.exit(2);
+        }
+        int customers = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        long stepMillis = (args.length > 3 ? Long.parseLong(args[3]) : 10) * 1000;
+        double skew = Double.parseDouble(System.getProperty("bank.load.skew", String.valueOf(DEFAULT_SKEW)));
+        try (Bank bank = Bank.open()) {
+            LoadSimulator simulator = new LoadSimulator(bank.getService(), customers, skew, 528);
+            System.out.println("Created " + simulator.populate() + " customers");
+            List<Step> steps = simulator.ramp(maxThreads, stepMillis, System.out::println);
+            try (Writer out = Files.newBufferedWriter(new File(args[0]).toPath(), StandardCharsets.UTF_8)) {
+                simulator.writeReport(steps, out);
+            }
+            System.out.println("Saturation: " + saturation(steps));
+        }
+    }
+}
@@ -0,0 +1,920 @@
+package coe528.project;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Overview: The LogAccountStore class stores all customer accounts in a small number of
+ * append-only segment files inside one directory. Every change to an account is appended
+ * to the active segment as a frame of one or more operations protected by a CRC, so a
+ * balance update is a single sequential write instead of rewriting a whole file.
+ * An in-memory index maps each username to the position of its latest record.
+ * Balances are stored as 8-byte counts of cents.
+ * Segments are rolled once they reach a size limit. A segment is forced to disk before the next
+ * one is started, and the directory after a segment or snapshot file is created, so flush only
+ * needs to force the active segment for every change to survive a power failure. Compaction writes every account to a
+ * memory-mapped AccountSnapshot and deletes the segments it covers, so the segments only
+ * hold the changes made since the last snapshot. Opening the store maps the snapshot and
+ * replays just those segments; accounts that have not changed since are read from the
+ * snapshot on demand, so startup time depends on the changes since the last snapshot rather
+ * than on the number of customers. A snapshot is taken whenever the segments grow past a
+ * size limit or are mostly overwritten records. It is taken by a background thread: the
+ * active segment is sealed and a new one started, and the snapshot is written from the sealed
+ * segments and the previous snapshot, which no longer change, while changes keep being
+ * appended to the new segment. Sealing hands the index over to the snapshot being written and
+ * starts an empty one, and installing the finished snapshot only swaps it in, so the store's
+ * lock is held for neither long nor while the snapshot is written.
+ * This class is mutable as accounts can be created, updated and deleted.
+ *
+ * Abstraction Function: AF(c) = The set of customer accounts {(u, p, b) | c.index maps u
+ * to the location of a PUT record holding password p and balance b, or u is not in c.index
+ * or c.removed and the base holds an account named u with password p and balance b}, where
+ * the base is c.compaction while a snapshot is being taken and c.snapshot otherwise.
+ *
+ * Representation Invariant: c.directory != null && c.segments contains c.activeId &&
+ * every location in c.index refers to a segment in c.segments && c.liveBytes >= 0 &&
+ * c.deadBytes >= 0 && c.removed is empty if the base is null && c.removed and
+ * c.index.keySet() are disjoint && every username in c.removed is in the base &&
+ * (c.snapshot == null || every key of c.segments >= c.snapshot.getCoveredSegment())
+ */
+public class LogAccountStore implements AccountStore {
+    public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final byte PUT_DOUBLE = 1; // Balance in dollars, written before balances were kept in cents
+    private static final byte DELETE = 2;
+    private static final byte PUT = 3;
+    private static final int FRAME_HEADER_BYTES = 8;
+    private static final int MAX_FRAME_BYTES = 1024 * 1024;
+    private static final long MIN_COMPACTION_BYTES = 4L * 1024 * 1024;
+
+    private final File directory;
+    private final long maxSegmentBytes;
+    private final TreeMap<Long, FileChannel> segments = new TreeMap<>();
+    private final long maxTailBytes;
+    private Map<String, Location> index = new HashMap<>();
+    private Set<String> removed = new HashSet<>();
+    private final ExecutorService compactor;
+    private AccountSnapshot snapshot;
+    private long activeId;
+    private long activeSize;
+    private long liveBytes;
+    private long deadBytes;
+    private Compaction compaction;
+    private boolean compactionScheduled;
+    // After a failed compaction, the size of the changes at which the next one is tried
+    private long retryBytes;
+
+    /**
+     * Overview: A Location is the position of one encoded operation inside a segment.
+     * This class is immutable.
+     */
+    private static final class Location {
+        final long segment;
+        final long offset;
+        final int length;
+
+        Location(long segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Overview: A Compaction is the state of the store captured when a snapshot is started:
+     * the previous snapshot, the locations of the changed accounts in the sealed segments and
+     * the accounts deleted since the previous snapshot. Nothing it refers to changes until the
+     * new snapshot is installed, so the snapshot is written from it without the store's lock,
+     * and until then the store reads the accounts unchanged since it was sealed from it.
+     * This class is immutable.
+     */
+    private static final class Compaction {
+        final long covered;
+        final long sealedBytes;
+        final AccountSnapshot snapshot;
+        final Map<String, Location> index;
+        final Set<String> removed;
+        final Map<Long, FileChannel> segments;
+
+        Compaction(long covered, long sealedBytes, AccountSnapshot snapshot, Map<String, Location> index,
+                Set<String> removed, Map<Long, FileChannel> segments) {
+            this.covered = covered;
+            this.sealedBytes = sealedBytes;
+            this.snapshot = snapshot;
+            this.index = index;
+            this.removed = removed;
+            this.segments = segments;
+        }
+
+        /**
+         * Returns whether an account exists as of the sealed segments.
+         */
+        boolean contains(String username) {
+            return index.containsKey(username)
+                    || (snapshot != null && !removed.contains(username) && snapshot.contains(username));
+        }
+
+        /**
+         * Reads an account as of the sealed segments, or returns null if it does not exist.
+         */
+        Customer load(String username) throws IOException {
+            Location location = index.get(username);
+            if (location != null) {
+                return decodePut(read(segments.get(location.segment), location));
+            }
+            return snapshot == null || removed.contains(username) ? null : snapshot.load(username);
+        }
+
+        /**
+         * Returns the number of accounts as of the sealed segments.
+         */
+        long count() {
+            if (snapshot == null) {
+                return index.size();
+            }
+            long count = snapshot.getCount() - removed.size() + index.size();
+            for (String username : index.keySet()) {
+                if (snapshot.contains(username)) {
+                    count--;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Passes every account as of the sealed segments to a visitor, those unchanged since
+         * the previous snapshot first.
+         */
+        void forEach(AccountSnapshot.Visitor visitor) throws IOException {
+            if (snapshot != null) {
+                snapshot.forEach((username, password, balance, tierRank) -> {
+                    if (!index.containsKey(username) && !removed.contains(username)) {
+                        visitor.visit(username, password, balance, tierRank);
+                    }
+                });
+            }
+            for (Location location : index.values()) {
+                Customer customer = decodePut(read(segments.get(location.segment), location));
+                visitor.visit(customer.getUsername(), customer.getPassword(), customer.getBalance(), -1);
+            }
+        }
+    }
+
+    public LogAccountStore(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public LogAccountStore(File directory, long maxSegmentBytes) throws IOException {
+        this(directory, maxSegmentBytes, DEFAULT_SEGMENT_BYTES);
+    }
+
+    /**
+     * Opens the store in the given directory, mapping the latest snapshot and replaying the
+     * segments written after it to rebuild the index of changed accounts.
+     * A frame that was only partly written to the end of the last segment is discarded.
+     * @param directory the directory holding the snapshot and segment files
+     * @param maxSegmentBytes the size at which the active segment is rolled
+     * @param maxTailBytes the size of the changes since the last snapshot at which a new one is taken
+     * @requires maxSegmentBytes > 0 && maxTailBytes > 0
+     * @effects opens or creates the store in directory
+     * @throws IOException if the directory cannot be used or the snapshot or a segment is corrupt
+     */
+    public LogAccountStore(File directory, long maxSegmentBytes, long maxTailBytes) throws IOException {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxTailBytes = maxTailBytes;
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "account-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Files.createDirectories(directory.toPath());
+        Files.deleteIfExists(new File(directory, SNAPSHOT_PREFIX + "tmp").toPath());
+        long[] snapshotIds = fileIds(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        long firstSegment = 1;
+        if (snapshotIds.length > 0) {
+            long latest = snapshotIds[snapshotIds.length - 1];
+            snapshot = AccountSnapshot.open(snapshotFile(latest));
+            firstSegment = snapshot.getCoveredSegment();
+            for (int i = 0; i < snapshotIds.length - 1; i++) {
+                deleteCovered(snapshotFile(snapshotIds[i]));
+            }
+        }
+        List<Long> ids = new ArrayList<>();
+        for (long id : segmentIds()) {
+            if (id < firstSegment) {
+                deleteCovered(segmentFile(id)); // Left behind by a crash after the snapshot was taken
+            } else {
+                ids.add(id);
+            }
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            FileChannel channel = openSegment(ids.get(i));
+            segments.put(ids.get(i), channel);
+            long end = replay(ids.get(i), channel);
+            if (end < channel.size()) {
+                if (i != ids.size() - 1) {
+                    throw new IOException("Corrupt account segment " + segmentFile(ids.get(i)));
+                }
+                channel.truncate(end); // Torn write from a crash
+            }
+        }
+        if (ids.isEmpty()) {
+            startSegment(firstSegment);
+        } else {
+            activeId = ids.get(ids.size() - 1);
+            activeSize = segments.get(activeId).size();
+        }
+    }
+
+    private long[] segmentIds() {
+        return fileIds(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+    }
+
+    private long[] fileIds(String prefix, String suffix) {
+        String[] names = directory.list((dir, name) -> name.startsWith(prefix) && name.endsWith(suffix));
+        long[] ids = new long[names == null ? 0 : names.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = Long.parseLong(names[i].substring(prefix.length(), names[i].length() - suffix.length()));
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private File segmentFile(long id) {
+        return new File(directory, String.format("%s%010d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    private File snapshotFile(long coveredSegment) {
+        return new File(directory, String.format("%s%010d%s", SNAPSHOT_PREFIX, coveredSegment, SNAPSHOT_SUFFIX));
+    }
+
+    /**
+     * Deletes a file whose contents a newer snapshot holds. Some platforms refuse to delete a
+     * file that is still mapped; it is then deleted the next time the store is opened.
+     */
+    private static void deleteCovered(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            System.err.println("Could not delete " + file + ": " + e.getMessage());
+        }
+    }
+
+    private FileChannel openSegment(long id) throws IOException {
+        return FileChannel.open(segmentFile(id).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private void startSegment(long id) throws IOException {
+        FileChannel previous = segments.get(activeId);
+        if (previous != null) {
+            previous.force(false);
+        }
+        segments.put(id, openSegment(id));
+        syncDirectory();
+        activeId = id;
+        activeSize = 0;
+    }
+
+    /**
+     * Forces the directory's entries to disk, so a file just created or renamed in it survives a
+     * power failure. Some platforms (Windows) cannot open a directory; there this does nothing.
+     */
+    private void syncDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // The file system orders directory updates itself
+        }
+    }
+
+    /**
+     * Replays the frames of one segment into the index.
+     * @effects applies every complete, valid frame of the segment to the index and
+     *          returns the offset just past the last such frame
+     */
+    private long replay(long id, FileChannel channel) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_BYTES);
+        while (position + FRAME_HEADER_BYTES <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            header.flip();
+            int length = header.getInt();
+            int crc = header.getInt();
+            if (length <= 0 || length > MAX_FRAME_BYTES || position + FRAME_HEADER_BYTES + length > size) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            readFully(channel, ByteBuffer.wrap(payload), position + FRAME_HEADER_BYTES);
+            if (crc(payload) != crc) {
+                break;
+            }
+            applyFrame(id, position + FRAME_HEADER_BYTES, payload);
+            position += FRAME_HEADER_BYTES + length;
+        }
+        return position;
+    }
+
+    private void applyFrame(long segment, long payloadOffset, byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        while (in.available() > 0) {
+            int start = payload.length - in.available();
+            byte type = in.readByte();
+            String username = in.readUTF();
+            if (type == PUT || type == PUT_DOUBLE) {
+                in.readUTF();
+                in.readLong();
+            }
+            int length = payload.length - in.available() - start;
+            if (type == PUT || type == PUT_DOUBLE) {
+                putLocation(username, new Location(segment, payloadOffset + start, length));
+            } else {
+                removeLocation(username);
+                deadBytes += length;
+            }
+        }
+    }
+
+    private void putLocation(String username, Location location) {
+        removed.remove(username);
+        Location previous = index.put(username, location);
+        liveBytes += location.length;
+        if (previous != null) {
+            liveBytes -= previous.length;
+            deadBytes += previous.length;
+        }
+    }
+
+    private void removeLocation(String username) {
+        Location previous = index.remove(username);
+        if (previous != null) {
+            liveBytes -= previous.length;
+            deadBytes += previous.length;
+        }
+        if (inBase(username)) {
+            removed.add(username);
+        }
+    }
+
+    /**
+     * Returns whether an account exists in the accounts the index records changes to: those
+     * of the snapshot being taken, if any, otherwise those of the snapshot.
+     */
+    private boolean inBase(String username) {
+        return compaction != null ? compaction.contains(username) : snapshot != null && snapshot.contains(username);
+    }
+
+    /**
+     * Returns whether an account exists.
+     * @effects returns true if username is in the index or, unchanged since, in the snapshot
+     */
+    private boolean contains(String username) {
+        return index.containsKey(username) || (!removed.contains(username) && inBase(username));
+    }
+
+    private static int crc(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of account segment");
+            }
+            position += read;
+        }
+        Metrics.getDefault().addBytesRead(length);
+    }
+
+    private static byte[] encodePut(String username, String password, long balance) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + username.length() + password.length());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(PUT);
+        out.writeUTF(username);
+        out.writeUTF(password);
+        out.writeLong(balance);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeDelete(String username) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 + username.length());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(DELETE);
+        out.writeUTF(username);
+        return bytes.toByteArray();
+    }
+
+    private static Customer decodePut(byte[] op) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(op));
+        byte type = in.readByte();
+        String username = in.readUTF();
+        String password = in.readUTF();
+        long balance = type == PUT_DOUBLE ? Math.round(in.readDouble() * Money.CENTS_PER_DOLLAR) : in.readLong();
+        return new Customer(username, password, balance);
+    }
+
+    private byte[] read(Location location) throws IOException {
+        return read(segments.get(location.segment), location);
+    }
+
+    private static byte[] read(FileChannel segment, Location location) throws IOException {
+        byte[] op = new byte[location.length];
+        readFully(segment, ByteBuffer.wrap(op), location.offset);
+        return op;
+    }
+
+    /**
+     * Appends the given operations to the active segment as a single frame.
+     * @requires ops is not empty and their total length is at most MAX_FRAME_BYTES
+     * @modifies the active segment
+     * @effects writes one frame holding ops, rolling to a new segment first if the
+     *          active one is full, and returns the location of each operation
+     */
+    private Location[] append(List<byte[]> ops) throws IOException {
+        int length = 0;
+        for (byte[] op : ops) {
+            length += op.length;
+        }
+        if (activeSize > 0 && activeSize + FRAME_HEADER_BYTES + length > maxSegmentBytes) {
+            startSegment(activeId + 1);
+        }
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_BYTES + length);
+        frame.putInt(length);
+        frame.putInt(0);
+        for (byte[] op : ops) {
+            frame.put(op);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(frame.array(), FRAME_HEADER_BYTES, length);
+        frame.putInt(4, (int) crc.getValue());
+        frame.flip();
+
+        Location[] locations = new Location[ops.size()];
+        long offset = activeSize + FRAME_HEADER_BYTES;
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = new Location(activeId, offset, ops.get(i).length);
+            offset += ops.get(i).length;
+        }
+        FileChannel channel = segments.get(activeId);
+        long position = activeSize;
+        while (frame.hasRemaining()) {
+            position += channel.write(frame, position);
+        }
+        Metrics.getDefault().addBytesWritten(position - activeSize);
+        activeSize = position;
+        return locations;
+    }
+
+    private void appendPut(String username, String password, long balance) throws IOException {
+        Location[] locations = append(List.of(encodePut(username, password, balance)));
+        putLocation(username, locations[0]);
+        compactIfNeeded();
+    }
+
+    @Override
+    public synchronized boolean exists(String username) {
+        return contains(username);
+    }
+
+    @Override
+    public synchronized Customer load(String username) throws IOException {
+        Location location = index.get(username);
+        if (location != null) {
+            return decodePut(read(location));
+        }
+        if (removed.contains(username)) {
+            return null;
+        }
+        if (compaction != null) {
+            return compaction.load(username);
+        }
+        return snapshot == null ? null : snapshot.load(username);
+    }
+
+    @Override
+    public synchronized void create(String username, String password, long balance) throws IOException {
+        if (contains(username)) {
+            throw new IllegalArgumentException("Customer already exists");
+        }
+        appendPut(username, password, balance);
+    }
+
+    @Override
+    public synchronized void save(Customer customer) throws IOException {
+        if (!contains(customer.getUsername())) {
+            throw new IllegalArgumentException("Customer does not exist");
+        }
+        appendPut(customer.getUsername(), customer.getPassword(), customer.getBalance());
+    }
+
+    /**
+     * Creates several accounts, in a single frame when their records fit in one, so that
+     * either all or none of them survive a crash.
+     */
+    @Override
+    public synchronized void createAll(List<Customer> customers) throws IOException {
+        Set<String> usernames = new HashSet<>();
+        for (Customer customer : customers) {
+            if (!usernames.add(customer.getUsername()) || contains(customer.getUsername())) {
+                throw new IllegalArgumentException("Customer already exists: " + customer.getUsername());
+            }
+        }
+        saveAllUnchecked(customers);
+    }
+
+    /**
+     * Stores several customers, in a single frame when their records fit in one, so that
+     * either all or none of them survive a crash.
+     */
+    @Override
+    public synchronized void saveAll(List<Customer> customers) throws IOException {
+        for (Customer customer : customers) {
+            if (!contains(customer.getUsername())) {
+                throw new IllegalArgumentException("Customer does not exist");
+            }
+        }
+        saveAllUnchecked(customers);
+    }
+
+    private void saveAllUnchecked(List<Customer> customers) throws IOException {
+        List<byte[]> batch = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        int batchBytes = 0;
+        for (Customer customer : customers) {
+            byte[] op = encodePut(customer.getUsername(), customer.getPassword(), customer.getBalance());
+            if (batchBytes + op.length > MAX_FRAME_BYTES) {
+                appendBatch(names, batch);
+                batchBytes = 0;
+            }
+            batch.add(op);
+            names.add(customer.getUsername());
+            batchBytes += op.length;
+        }
+        if (!batch.isEmpty()) {
+            appendBatch(names, batch);
+        }
+        compactIfNeeded();
+    }
+
+    @Override
+    public synchronized void delete(String username) throws IOException {
+        if (!contains(username)) {
+            throw new IllegalArgumentException("Customer does not exist");
+        }
+        Location[] locations = append(List.of(encodeDelete(username)));
+        removeLocation(username);
+        deadBytes += locations[0].length;
+        compactIfNeeded();
+    }
+
+    @Override
+    public synchronized List<String> usernames() throws IOException {
+        List<String> usernames = new ArrayList<>();
+        forEachAccount((username, password, balance, tierRank) -> usernames.add(username), false);
+        return usernames;
+    }
+
+    /**
+     * Passes every account to a visitor, those unchanged since the snapshot first.
+     * @param decode false to pass only the usernames of changed accounts, with a null password
+     *        and a zero balance, instead of reading their records
+     */
+    private void forEachAccount(AccountSnapshot.Visitor visitor, boolean decode) throws IOException {
+        AccountSnapshot.Visitor unchanged = (username, password, balance, tierRank) -> {
+            if (!index.containsKey(username) && !removed.contains(username)) {
+                visitor.visit(username, password, balance, tierRank);
+            }
+        };
+        if (compaction != null) {
+            compaction.forEach(unchanged);
+        } else if (snapshot != null) {
+            snapshot.forEach(unchanged);
+        }
+        for (Map.Entry<String, Location> entry : index.entrySet()) {
+            if (decode) {
+                Customer customer = decodePut(read(entry.getValue()));
+                visitor.visit(customer.getUsername(), customer.getPassword(), customer.getBalance(), -1);
+            } else {
+                visitor.visit(entry.getKey(), null, 0, -1);
+            }
+        }
+    }
+
+    /**
+     * Reads every account, for example to compute totals over all of them. Accounts unchanged
+     * since the snapshot are read from it sequentially.
+     * @param visitor the receiver of the accounts; the tier rank it is given is -1 for accounts
+     *        changed since the snapshot
+     * @effects passes every account to visitor
+     * @throws IOException if an account cannot be read or visitor fails
+     */
+    @Override
+    public synchronized void forEach(AccountSnapshot.Visitor visitor) throws IOException {
+        forEachAccount(visitor, true);
+    }
+
+    /**
+     * Returns the number of accounts.
+     * @effects returns the number of accounts in the store
+     */
+    public synchronized long size() {
+        long unchanged = compaction != null ? compaction.count() : snapshot != null ? snapshot.getCount() : 0;
+        unchanged -= removed.size();
+        for (String username : index.keySet()) {
+            if (inBase(username)) {
+                unchanged--;
+            }
+        }
+        return unchanged + index.size();
+    }
+
+    /**
+     * Copies every account of another store that does not exist in this store yet.
+     * This is the migration path from the one-file-per-customer layout.
+     * @param source the store to import from
+     * @modifies this
+     * @effects adds each account of source whose username is not in this store and
+     *          returns the number of accounts added
+     * @throws IOException if an I/O error occurs in either store
+     */
+    public synchronized int importFrom(AccountStore source) throws IOException {
+        List<byte[]> batch = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        int batchBytes = 0;
+        int imported = 0;
+        for (String username : source.usernames()) {
+            if (contains(username)) {
+                continue;
+            }
+            Customer customer = source.load(username);
+            if (customer == null) {
+                continue;
+            }
+            byte[] op = encodePut(username, customer.getPassword(), customer.getBalance());
+            if (batchBytes + op.length > MAX_FRAME_BYTES) {
+                appendBatch(names, batch);
+                batchBytes = 0;
+            }
+            batch.add(op);
+            names.add(username);
+            batchBytes += op.length;
+            imported++;
+        }
+        if (!batch.isEmpty()) {
+            appendBatch(names, batch);
+        }
+        flush();
+        return imported;
+    }
+
+    private void appendBatch(List<String> names, List<byte[]> batch) throws IOException {
+        Location[] locations = append(batch);
+        for (int i = 0; i < locations.length; i++) {
+            putLocation(names.get(i), locations[i]);
+        }
+        names.clear();
+        batch.clear();
+    }
+
+    /**
+     * Starts a compaction in the background once the changes since the last snapshot are large
+     * enough, unless one is already under way.
+     * @requires the current thread holds this store's lock
+     */
+    private void compactIfNeeded() {
+        long tail = liveBytes + deadBytes;
+        if (!compactionScheduled && compaction == null && tail >= retryBytes
+                && (tail > maxTailBytes || (deadBytes > MIN_COMPACTION_BYTES && deadBytes > liveBytes))) {
+            compactionScheduled = true;
+            compactor.execute(() -> {
+                try {
+                    runCompaction();
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Account snapshot of " + directory + " failed: " + e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes every account to a new snapshot and deletes the segments and snapshot it replaces,
+     * waiting until it is done. Changes made meanwhile are kept in the segments after it.
+     * @modifies this, the snapshot and segment files
+     * @effects the store holds the same accounts in a new snapshot and the segments started
+     *          since the snapshot began
+     * @throws IOException if an I/O error occurs
+     */
+    public void compact() throws IOException {
+        Future<?> done = compactor.submit(() -> {
+            runCompaction();
+            return null;
+        });
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compacting " + directory, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Compaction of " + directory + " failed", e.getCause());
+        }
+    }
+
+    /**
+     * Takes a snapshot on the compactor thread. The snapshot only becomes visible, under its
+     * final name, once it is complete and on disk, so a crash part way through leaves the
+     * previous snapshot and segments in place.
+     */
+    private void runCompaction() throws IOException {
+        Compaction sealed;
+        synchronized (this) {
+            compactionScheduled = false;
+            if (segments.isEmpty()) {
+                return; // Closed
+            }
+            long covered = activeId + 1;
+            startSegment(covered);
+            // The index is handed over rather than copied; later changes go to a new one
+            sealed = new Compaction(covered, liveBytes + deadBytes, snapshot, index, removed,
+                    new HashMap<>(segments.headMap(covered)));
+            compaction = sealed;
+            index = new HashMap<>();
+            removed = new HashSet<>();
+            liveBytes = 0;
+            deadBytes = 0;
+        }
+        File temporary = new File(directory, SNAPSHOT_PREFIX + "tmp");
+        File file = snapshotFile(sealed.covered);
+        AccountSnapshot next;
+        try {
+            AccountSnapshot.write(temporary, sealed.covered, sealed.count(), sealed::forEach, TierTable.getDefault());
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory(); // The covered segments are deleted below
+            next = AccountSnapshot.open(file);
+        } catch (IOException | RuntimeException e) {
+            abandon(sealed);
+            Files.deleteIfExists(temporary.toPath());
+            throw e;
+        }
+        // The replaced files are no longer referenced, so they are released without the lock
+        AccountSnapshot previous = install(sealed, next);
+        if (previous != null) {
+            previous.close();
+            deleteCovered(previous.getFile());
+        }
+        for (Map.Entry<Long, FileChannel> segment : sealed.segments.entrySet()) {
+            try {
+                segment.getValue().close();
+            } catch (IOException e) {
+                System.err.println("Could not close " + segmentFile(segment.getKey()) + ": " + e.getMessage());
+            }
+            deleteCovered(segmentFile(segment.getKey()));
+        }
+    }
+
+    /**
+     * Replaces the previous snapshot and the sealed segments with a new snapshot. The index
+     * already records only the changes made since sealed, which is what next holds.
+     * @requires next holds every account as of the segments sealed by sealed
+     * @modifies this
+     * @effects the store reads accounts unchanged since sealed from next and no longer refers to
+     *          the sealed segments; returns the previous snapshot, or null if there was none
+     */
+    private synchronized AccountSnapshot install(Compaction sealed, AccountSnapshot next) {
+        compaction = null;
+        retryBytes = 0;
+        AccountSnapshot previous = snapshot;
+        snapshot = next;
+        segments.headMap(sealed.covered).clear();
+        return previous;
+    }
+
+    /**
+     * Gives up a snapshot that could not be written, merging the index handed over to it back
+     * into the current one. The next snapshot is tried once the segments have grown further.
+     * @modifies this
+     * @effects the store reads accounts unchanged since the previous snapshot from it again
+     */
+    private synchronized void abandon(Compaction sealed) {
+        long tail = sealed.sealedBytes + liveBytes + deadBytes;
+        Set<String> stillRemoved = new HashSet<>();
+        for (String username : sealed.removed) {
+            if (!index.containsKey(username)) {
+                stillRemoved.add(username);
+            }
+        }
+        for (String username : removed) {
+            if (snapshot != null && snapshot.contains(username)) {
+                stillRemoved.add(username);
+            }
+        }
+        for (Map.Entry<String, Location> entry : sealed.index.entrySet()) {
+            if (!removed.contains(entry.getKey())) {
+                index.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+        removed = stillRemoved;
+        liveBytes = 0;
+        for (Location location : index.values()) {
+            liveBytes += location.length;
+        }
+        deadBytes = tail - liveBytes;
+        compaction = null;
+        retryBytes = tail + MIN_COMPACTION_BYTES;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        segments.get(activeId).force(false);
+    }
+
+    /**
+     * Closes the store once any snapshot being taken is finished.
+     */
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            flush();
+            for (FileChannel channel : segments.values()) {
+                channel.close();
+            }
+            segments.clear();
+            if (snapshot != null) {
+                snapshot.close();
+            }
+        }
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public synchronized boolean repOK() {
+        if (directory == null || !segments.containsKey(activeId) || liveBytes < 0 || deadBytes < 0) {
+            return false;
+        }
+        if (snapshot != null && segments.firstKey() < snapshot.getCoveredSegment()) {
+            return false;
+        }
+        for (String username : removed) {
+            if (index.containsKey(username) || !inBase(username)) {
+                return false;
+            }
+        }
+        for (Location location : index.values()) {
+            if (!segments.containsKey(location.segment)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LogAccountStore{" + "directory=" + directory + ", accounts=" + size()
+                + ", snapshot=" + snapshot + ", segments=" + segments.size() + ", liveBytes=" + liveBytes + ", deadBytes=" + deadBytes + '}';
+    }
+}
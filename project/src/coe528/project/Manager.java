@@ -1,26 +1,45 @@
 package coe528.project;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Overview: The Manager class represents the bank manager in the application.
- * It is responsible for managing customers by adding and deleting customer files.
- * This class is mutable as the customer files can be created and deleted.
+ * It is responsible for managing customers by adding and deleting customer accounts in an account store,
+ * keeping the customer index, if there is one, and the bank-wide BankStatistics up to date as it does.
+ * This class is mutable as the customer accounts can be created and deleted.
  */
 public class Manager {
+    public static final long OPENING_BALANCE = Money.ofDollars(100);
+    
     private String username;
     private String password;
+    private AccountStore store;
+    private CustomerIndex index;
     
     /**
-     * Abstraction Function: AF(c) = A manager with username c.username and password c.password.
+     * Abstraction Function: AF(c) = A manager with username c.username and password c.password
+     * who manages the customer accounts held in c.store and listed in c.index (if not null).
      * 
-     * Representation Invariant: username != null && !username.isEmpty() && password != null && !password.isEmpty()
+     * Representation Invariant: username != null && !username.isEmpty() && password != null && !password.isEmpty() && store != null
      */
     public Manager(String username, String password) {
+        this(username, password, new TextFileAccountStore(new File(".")));
+    }
+    
+    public Manager(String username, String password, AccountStore store) {
+        this(username, password, store, null);
+    }
+    
+    public Manager(String username, String password, AccountStore store, CustomerIndex index) {
         this.username = username;
         this.password = password;
+        this.store = store;
+        this.index = index;
     }
     
     public String getUsername() {
@@ -31,38 +50,81 @@ public class Manager {
         return this.password;
     }
     
+    public AccountStore getStore() {
+        return this.store;
+    }
+    
+    public CustomerIndex getIndex() {
+        return this.index;
+    }
+    
     /**
-     * Adds a new customer with the specified username and password by creating a new file.
+     * Adds a new customer with the specified username and password to the account store.
      * @param username the username of the new customer
      * @param password the password of the new customer
      * @requires username is not already used by an existing customer
-     * @modifies the file system by creating a new file for the customer
-     * @effects creates a new file with the customer's username, password, and initial balance
+     * @modifies the account store by creating a new account for the customer, and the customer index
+     * @effects creates a new account with the customer's username, password, and initial balance
      * @throws IOException if an I/O error occurs
      */
     public void addCustomer(String username, String password) throws IOException {
-        File customerFile = new File(username + ".txt");
-        if (customerFile.exists()) {
-            throw new IllegalArgumentException("Customer already exists");
+        store.create(username, password, OPENING_BALANCE);
+        BankStatistics.getDefault().accountOpened(OPENING_BALANCE);
+        if (index != null) {
+            index.add(username, System.currentTimeMillis());
         }
-        try (FileWriter writer = new FileWriter(customerFile)) {
-            writer.write(username + "\n" + password + "\n" + "100.0\n" + "customer");
+    }
+    
+    /**
+     * Adds several new customers, each with its own opening balance, all at once: either every
+     * customer is added or, if any of them cannot be, none is. Usernames are checked against the
+     * customer index when there is one, so the store is only written once they are known to be new.
+     * @param customers the new customers, each with its username, password and opening balance
+     * @requires no two customers have the same username and none is used by an existing customer
+     * @modifies the account store by creating an account for each customer, and the customer index
+     * @effects creates an account for each customer
+     * @throws IllegalArgumentException if two customers have the same username or one of them
+     *         already exists, in which case no customer is added
+     * @throws IOException if an I/O error occurs
+     */
+    public void addCustomers(List<Customer> customers) throws IOException {
+        List<String> usernames = new ArrayList<>(customers.size());
+        Set<String> seen = new HashSet<>();
+        for (Customer customer : customers) {
+            String username = customer.getUsername();
+            if (!seen.add(username) || (index != null && index.contains(username))) {
+                throw new IllegalArgumentException("Customer already exists: " + username);
+            }
+            usernames.add(username);
+        }
+        store.createAll(customers);
+        for (Customer customer : customers) {
+            BankStatistics.getDefault().accountOpened(customer.getBalance());
+        }
+        if (index != null) {
+            index.addAll(usernames, System.currentTimeMillis());
         }
     }
     
     /**
-     * Deletes the customer with the specified username by removing their file.
+     * Deletes the customer with the specified username from the account store.
      * @param username the username of the customer to delete
-     * @requires a customer with the specified username exists
-     * @modifies the file system by deleting the customer's file
-     * @effects removes the file associated with the specified username
+     * @requires a customer with the specified username exists and no other thread can change
+     *           its balance, such as by holding its AccountLocks stripe as TransactionService does
+     * @modifies the account store by deleting the customer's account, and the customer index
+     * @effects removes the account associated with the specified username
+     * @throws IOException if an I/O error occurs
      */
-    public void deleteCustomer(String username) {
-        File customerFile = new File(username + ".txt");
-        if (!customerFile.exists()) {
-            throw new IllegalArgumentException("Customer does not exist");
+    public void deleteCustomer(String username) throws IOException {
+        Customer customer = store.load(username);
+        store.delete(username);
+        if (customer != null) {
+            // The balance the statistics last counted for the account is the one being removed
+            BankStatistics.getDefault().accountClosed(customer.getBalance());
+        }
+        if (index != null) {
+            index.remove(username);
         }
-        customerFile.delete();
     }
     
     /**
@@ -70,11 +132,11 @@ public class Manager {
      * @effects returns true if the rep invariant holds, false otherwise
      */
     public boolean repOK() {
-        return username != null && !username.isEmpty() && password != null && !password.isEmpty();
+        return username != null && !username.isEmpty() && password != null && !password.isEmpty() && store != null;
     }
     
     @Override
     public String toString() {
-        return "Manager{" + "username='" + username + '\'' + ", password='" + password + '\'' + '}';
+        return "Manager{" + "username='" + username + '\'' + ", password='" + password + '\'' + ", store=" + store + '}';
     }
 }
@@ -0,0 +1,222 @@
+package coe528.project;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Overview: The Metrics class is the registry of the bank's built-in instrumentation: an
+ * OperationMetrics for each named operation (latency histogram and counts by outcome) and
+ * the number of bytes read from and written to disk by the persistence layer.
+ * The metrics can be read over JMX (as coe528.project:type=Metrics) and dumped periodically
+ * to a text or JSON file. Recording is lock-free, so instrumentation can stay enabled in production.
+ * This class is mutable as operations and bytes are recorded.
+ *
+ * Abstraction Function: AF(c) = The operations c.operations.values() together with
+ * c.bytesRead bytes read and c.bytesWritten bytes written.
+ *
+ * Representation Invariant: c.operations != null && c.bytesRead != null && c.bytesWritten != null &&
+ * every key of c.operations equals the name of its value
+ */
+public class Metrics implements MetricsMXBean {
+    public static final String OBJECT_NAME = "coe528.project:type=Metrics";
+
+    private static final Metrics DEFAULT = new Metrics();
+
+    private final ConcurrentMap<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+
+    /**
+     * Returns the metrics shared by the whole application.
+     * @effects returns the default metrics registry
+     */
+    public static Metrics getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the metrics of an operation, creating them the first time the operation is used.
+     * @param name the operation name, e.g. "deposit"
+     * @effects returns the OperationMetrics named name
+     */
+    public OperationMetrics operation(String name) {
+        OperationMetrics metrics = operations.get(name);
+        return metrics != null ? metrics : operations.computeIfAbsent(name, OperationMetrics::new);
+    }
+
+    public void addBytesRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    public void addBytesWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public List<OperationStats> getOperations() {
+        List<OperationStats> stats = new ArrayList<>();
+        for (OperationMetrics metrics : operations.values()) {
+            stats.add(OperationStats.of(metrics));
+        }
+        stats.sort((a, b) -> a.getName().compareTo(b.getName()));
+        return stats;
+    }
+
+    /**
+     * Formats the metrics for people.
+     * @effects returns one line per operation followed by the I/O byte counts
+     */
+    @Override
+    public String getText() {
+        StringBuilder text = new StringBuilder();
+        text.append("metrics at ").append(Instant.now()).append('\n');
+        for (OperationStats stats : getOperations()) {
+            text.append(stats).append('\n');
+        }
+        text.append("io bytesRead=").append(getBytesRead()).append(" bytesWritten=").append(getBytesWritten()).append('\n');
+        return text.toString();
+    }
+
+    /**
+     * Formats the metrics for tools.
+     * @effects returns the metrics as a JSON object
+     */
+    @Override
+    public String getJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"time\":\"").append(Instant.now()).append("\",\"operations\":{");
+        boolean first = true;
+        for (OperationStats stats : getOperations()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append('"').append(stats.getName()).append("\":{")
+                    .append("\"ok\":").append(stats.getOkCount())
+                    .append(",\"rejected\":").append(stats.getRejectedCount())
+                    .append(",\"failed\":").append(stats.getFailedCount())
+                    .append(String.format(Locale.ROOT, ",\"meanMicros\":%.1f,\"p50Micros\":%.1f,\"p90Micros\":%.1f,"
+                            + "\"p99Micros\":%.1f,\"p999Micros\":%.1f,\"maxMicros\":%.1f}",
+                            stats.getMeanMicros(), stats.getP50Micros(), stats.getP90Micros(), stats.getP99Micros(),
+                            stats.getP999Micros(), stats.getMaxMicros()));
+        }
+        json.append("},\"io\":{\"bytesRead\":").append(getBytesRead())
+                .append(",\"bytesWritten\":").append(getBytesWritten()).append("}}");
+        return json.toString();
+    }
+
+    /**
+     * Discards everything recorded so far.
+     * @modifies this
+     * @effects resets every operation and the I/O byte counts
+     */
+    @Override
+    public void reset() {
+        for (OperationMetrics metrics : operations.values()) {
+            metrics.reset();
+        }
+        bytesRead.reset();
+        bytesWritten.reset();
+    }
+
+    /**
+     * Publishes the metrics over JMX.
+     * @effects registers this as OBJECT_NAME with the platform MBean server, replacing any
+     *          metrics registered before
+     * @throws JMException if the MBean cannot be registered
+     */
+    public void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(this, name);
+    }
+
+    /**
+     * Starts writing the metrics to a file at a fixed interval. Each dump replaces the
+     * previous one atomically, so readers never see a partly written file.
+     * @param file the file to write
+     * @param periodMillis the time between dumps
+     * @param json true to write JSON, false to write text
+     * @requires periodMillis > 0
+     * @effects starts a daemon thread dumping the metrics and returns a handle that stops it
+     *          after writing a final dump
+     */
+    public Closeable startDump(File file, long periodMillis, boolean json) {
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Runnable dump = () -> {
+            try {
+                writeDump(file, json);
+            } catch (IOException e) {
+                System.err.println("Failed to write metrics to " + file + ": " + e.getMessage());
+            }
+        };
+        dumper.scheduleAtFixedRate(dump, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        return () -> {
+            dumper.shutdownNow();
+            writeDump(file, json);
+        };
+    }
+
+    private void writeDump(File file, boolean json) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        Files.write(temporary.toPath(), (json ? getJson() + "\n" : getText()).getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        if (operations == null || bytesRead == null || bytesWritten == null) {
+            return false;
+        }
+        for (ConcurrentMap.Entry<String, OperationMetrics> entry : operations.entrySet()) {
+            if (!entry.getKey().equals(entry.getValue().getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "Metrics{" + "operations=" + operations.keySet() + ", bytesRead=" + getBytesRead()
+                + ", bytesWritten=" + getBytesWritten() + '}';
+    }
+}
@@ -0,0 +1,21 @@
+package coe528.project;
+
+import java.util.List;
+
+/**
+ * Overview: The JMX management interface of the bank's Metrics, registered as
+ * coe528.project:type=Metrics.
+ */
+public interface MetricsMXBean {
+    List<OperationStats> getOperations();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    String getText();
+
+    String getJson();
+
+    void reset();
+}
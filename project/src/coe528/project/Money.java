@@ -0,0 +1,132 @@
+package coe528.project;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Overview: The Money class converts between text and the fixed-point representation of
+ * money used throughout the bank application: a long number of cents. Keeping amounts in
+ * whole cents means balances and fees are computed with exact integer arithmetic and are
+ * stored as 8 bytes instead of a decimal string.
+ * This class is immutable and cannot be instantiated.
+ */
+public final class Money {
+    public static final long CENTS_PER_DOLLAR = 100;
+
+    private Money() {
+    }
+
+    /**
+     * Returns the number of cents in a whole number of dollars.
+     * @param dollars the number of dollars
+     * @effects returns dollars * 100
+     * @throws ArithmeticException if the result does not fit in a long
+     */
+    public static long ofDollars(long dollars) {
+        return Math.multiplyExact(dollars, CENTS_PER_DOLLAR);
+    }
+
+    /**
+     * Parses an amount written in dollars with at most two decimal places, such as "12", "12.5" or "-12.50".
+     * @param text the amount to parse
+     * @effects returns the amount in cents
+     * @throws NumberFormatException if text is not such an amount or does not fit in a long
+     */
+    public static long parse(String text) {
+        int start = 0;
+        int end = text.length();
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        boolean negative = false;
+        int i = start;
+        if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+        try {
+            long dollars = 0;
+            int digits = 0;
+            while (i < end && isDigit(text.charAt(i))) {
+                dollars = Math.addExact(Math.multiplyExact(dollars, 10), text.charAt(i) - '0');
+                digits++;
+                i++;
+            }
+            long cents = 0;
+            if (i < end && text.charAt(i) == '.') {
+                i++;
+                int places = 0;
+                while (i < end && isDigit(text.charAt(i))) {
+                    int digit = text.charAt(i) - '0';
+                    if (places < 2) {
+                        cents = cents * 10 + digit;
+                    } else if (digit != 0) {
+                        throw new NumberFormatException("Amounts cannot have more than two decimal places: " + text);
+                    }
+                    places++;
+                    digits++;
+                    i++;
+                }
+                if (places == 1) {
+                    cents *= 10;
+                }
+            }
+            if (i != end || digits == 0) {
+                throw new NumberFormatException("Invalid amount: " + text);
+            }
+            long amount = Math.addExact(ofDollars(dollars), cents);
+            return negative ? -amount : amount;
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Amount is too large: " + text);
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Parses an amount written by older versions of the application with Double.toString,
+     * which may use more than two decimal places or scientific notation.
+     * @param text the amount to parse
+     * @effects returns the amount rounded half up to the nearest cent
+     * @throws NumberFormatException if text is not a decimal number
+     */
+    public static long parseLegacy(String text) {
+        return new BigDecimal(text.trim()).movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+
+    /**
+     * Formats an amount of cents in dollars with exactly two decimal places, such as "1234.50".
+     * @param cents the amount to format
+     * @effects returns the formatted amount
+     */
+    public static String format(long cents) {
+        StringBuilder text = new StringBuilder(24);
+        appendTo(text, cents);
+        return text.toString();
+    }
+
+    /**
+     * Appends an amount of cents in dollars with exactly two decimal places.
+     * @param text the builder to append to
+     * @param cents the amount to append
+     * @modifies text
+     * @effects appends the formatted amount to text
+     */
+    public static void appendTo(StringBuilder text, long cents) {
+        long dollars = cents / CENTS_PER_DOLLAR;
+        int remainder = (int) Math.abs(cents % CENTS_PER_DOLLAR);
+        if (cents < 0 && dollars == 0) {
+            text.append('-');
+        }
+        text.append(dollars).append('.');
+        if (remainder < 10) {
+            text.append('0');
+        }
+        text.append(remainder);
+    }
+}
@@ -0,0 +1,600 @@
+package coe528.project;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Overview: The MonthEndJob class closes a month for every account of the bank: it pays the
+ * interest and charges the maintenance fee of each customer's tier (see Tier.monthEndBalance),
+ * which may move the customer to another tier, stores the new balances and records a
+ * MONTH_END transaction in each customer's history.
+ * <p>
+ * The accounts on the books when the run starts are split into fixed-size chunks that are
+ * processed in parallel by a fork-join pool. A chunk holds the locks of its accounts while it
+ * is checkpointed and stored, so chunks are kept to at most stripes / parallelism accounts:
+ * the chunks running at once then leave most stripes free for each other and for the
+ * transactions of other customers. Each chunk is stored with a single
+ * AccountStore.saveAll. Progress is kept in a checkpoint file in the job's directory: before any
+ * balance of a chunk changes, the old and new balance of each of its accounts is forced to the
+ * checkpoint, and once the chunk is stored it is marked done. The service's AccountLocks of
+ * every account of a chunk are held from reading the balances until the chunk is stored and
+ * recorded, so no transaction can change an account between its recorded and stored balances. A run that is interrupted is resumed by
+ * running the same period again; completed chunks are skipped, and for a chunk that was being
+ * stored the recorded balances tell whether each account was already updated. An account whose
+ * balance matches neither because it changed after the interruption is skipped and reported.
+ * A finished period is recorded in the directory and cannot be run again, and the latest
+ * finished period is kept so that the schedule can close every month that ended while the
+ * bank was not running.
+ * This class is immutable.
+ *
+ * Abstraction Function: AF(c) = The month-end process for the accounts of c.store, recording
+ * transactions in c.ledger and progress in c.directory, using c.parallelism threads and
+ * chunks of c.chunkSize accounts.
+ *
+ * Representation Invariant: c.store != null && c.locks != null && c.directory != null &&
+ * c.parallelism > 0 && c.chunkSize > 0
+ */
+public class MonthEndJob {
+    public static final int DEFAULT_CHUNK_SIZE = 256;
+
+    private static final byte INTENT = 1;
+    private static final byte DONE = 2;
+    private static final long SETTLED = -1;
+
+    private final AccountStore store;
+    private final AccountLocks locks;
+    private final TransactionLedger ledger;
+    private final File directory;
+    private final int parallelism;
+    private final int chunkSize;
+
+    /**
+     * Overview: The totals of one run, updated concurrently by the chunk tasks.
+     */
+    private static final class Totals {
+        final LongAdder applied = new LongAdder();
+        final LongAdder skipped = new LongAdder();
+        final LongAdder interest = new LongAdder();
+        final LongAdder fees = new LongAdder();
+        final LongAdder tierChanges = new LongAdder();
+        final LongAdder resumedChunks = new LongAdder();
+        final AtomicLongArray customersPerTier;
+
+        Totals(int tiers) {
+            customersPerTier = new AtomicLongArray(tiers);
+        }
+    }
+
+    /**
+     * Overview: A Checkpoint is the append-only progress file of one period: INTENT records
+     * holding the old and new balance of each account of a chunk, and DONE records of the
+     * chunks that have been stored. A record torn by a crash is discarded when it is opened.
+     */
+    private static final class Checkpoint implements Closeable {
+        private final FileChannel channel;
+        private final BitSet done = new BitSet();
+        private final Map<Integer, long[]> intents = new HashMap<>();
+        private long size;
+
+        Checkpoint(File file) throws IOException {
+            long valid = 0;
+            if (file.exists()) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                    while (true) {
+                        try {
+                            byte type = in.readByte();
+                            int chunk = in.readInt();
+                            if (type == INTENT) {
+                                long[] balances = new long[in.readInt() * 2];
+                                for (int i = 0; i < balances.length; i++) {
+                                    balances[i] = in.readLong();
+                                }
+                                intents.put(chunk, balances);
+                                valid += 1 + 4 + 4 + 8L * balances.length;
+                            } else {
+                                done.set(chunk);
+                                intents.remove(chunk);
+                                valid += 1 + 4;
+                            }
+                        } catch (EOFException e) {
+                            break;
+                        }
+                    }
+                }
+            }
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            channel.truncate(valid); // Torn write from a crash
+            size = valid;
+        }
+
+        synchronized boolean isDone(int chunk) {
+            return done.get(chunk);
+        }
+
+        synchronized long[] intent(int chunk) {
+            return intents.get(chunk);
+        }
+
+        /**
+         * Records the balances a chunk is about to be stored with and forces them to disk.
+         */
+        void intend(int chunk, long[] balances) throws IOException {
+            ByteBuffer record = ByteBuffer.allocate(1 + 4 + 4 + 8 * balances.length);
+            record.put(INTENT).putInt(chunk).putInt(balances.length / 2);
+            for (long balance : balances) {
+                record.putLong(balance);
+            }
+            write(record.flip());
+            channel.force(false);
+        }
+
+        void markDone(int chunk) throws IOException {
+            write(ByteBuffer.allocate(1 + 4).put(DONE).putInt(chunk).flip());
+        }
+
+        private synchronized void write(ByteBuffer record) throws IOException {
+            int length = record.remaining();
+            while (record.hasRemaining()) {
+                size += channel.write(record, size);
+            }
+            Metrics.getDefault().addBytesWritten(length);
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            channel.force(false);
+            channel.close();
+        }
+    }
+
+    /**
+     * Creates a job.
+     * @param service the service whose account store and ledger the job updates
+     * @param directory the directory holding the job's checkpoints
+     * @param parallelism the number of threads processing chunks
+     * @param chunkSize the number of accounts stored together and checkpointed as one chunk,
+     *        lowered to the number of the service's lock stripes divided by parallelism
+     * @throws IllegalArgumentException if parallelism or chunkSize is not positive
+     */
+    public MonthEndJob(TransactionService service, File directory, int parallelism, int chunkSize) {
+        if (parallelism <= 0 || chunkSize <= 0) {
+            throw new IllegalArgumentException("Parallelism and chunk size must be positive");
+        }
+        this.store = service.getStore();
+        this.locks = service.getLocks();
+        this.ledger = service.getLedger();
+        this.directory = directory;
+        this.parallelism = parallelism;
+        this.chunkSize = Math.min(chunkSize, Math.max(1, locks.getStripes() / parallelism));
+    }
+
+    private File file(YearMonth period, String suffix) {
+        return new File(directory, "monthend-" + period + suffix);
+    }
+
+    private File lastCompletedFile() {
+        return new File(directory, "monthend.last");
+    }
+
+    /**
+     * Returns the latest period whose month end has finished.
+     * @effects returns the latest completed period, or null if none has been recorded
+     * @throws IOException if the record cannot be read
+     */
+    public YearMonth lastCompleted() throws IOException {
+        File file = lastCompletedFile();
+        if (!file.exists()) {
+            return null;
+        }
+        return YearMonth.parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim());
+    }
+
+    /**
+     * Records a period as completed if it is later than the latest completed period.
+     * @modifies the record of the latest completed period
+     */
+    private synchronized void completed(YearMonth period) throws IOException {
+        YearMonth last = lastCompleted();
+        if (last != null && !period.isAfter(last)) {
+            return;
+        }
+        Files.createDirectories(directory.toPath());
+        File file = lastCompletedFile();
+        File temporary = new File(file.getPath() + ".tmp");
+        Files.write(temporary.toPath(), (period + "\n").getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns whether the month end of a period has finished.
+     * @effects returns true if a run for period has completed
+     */
+    public boolean isComplete(YearMonth period) {
+        return file(period, ".done").exists();
+    }
+
+    /**
+     * Runs, or resumes, the month end of a period.
+     * @param period the month being closed
+     * @requires no other run for period is in progress
+     * @modifies the account store, the ledger, the checkpoint files
+     * @effects applies the month end to every account that existed when the run for period
+     *          first started and returns a report of this run
+     * @throws IllegalStateException if the month end of period has already been completed
+     * @throws IOException if an account or checkpoint cannot be read or written
+     */
+    public MonthEndReport run(YearMonth period) throws IOException {
+        if (isComplete(period)) {
+            throw new IllegalStateException("Month end for " + period + " has already been run");
+        }
+        long start = System.nanoTime();
+        Files.createDirectories(directory.toPath());
+        List<String> accounts = accounts(period);
+        int chunks = (int) ((accounts.size() + (long) chunkSize - 1) / chunkSize);
+        TierTable tiers = TierTable.getDefault();
+        Totals totals = new Totals(tiers.size());
+        ForkJoinPool pool = new ForkJoinPool(parallelism, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("month-end-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+        try (Checkpoint checkpoint = new Checkpoint(file(period, ".ckpt"))) {
+            pool.invoke(new ChunkTask(accounts, checkpoint, totals, 0, chunks));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+        store.flush();
+        if (ledger != null) {
+            ledger.flush();
+        }
+        long[] perTier = new long[tiers.size()];
+        for (int i = 0; i < perTier.length; i++) {
+            perTier[i] = totals.customersPerTier.get(i);
+        }
+        MonthEndReport report = new MonthEndReport(period.toString(), accounts.size(), totals.applied.sum(),
+                totals.skipped.sum(), totals.interest.sum(), totals.fees.sum(), totals.tierChanges.sum(), perTier,
+                totals.resumedChunks.sum(), System.nanoTime() - start);
+        File done = file(period, ".done");
+        File temporary = new File(done.getPath() + ".tmp");
+        Files.write(temporary.toPath(), (report + "\n").getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary.toPath(), done.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(file(period, ".ckpt").toPath());
+        Files.deleteIfExists(file(period, ".accounts").toPath());
+        completed(period);
+        return report;
+    }
+
+    /**
+     * Returns the accounts of a run, writing them down the first time so that a resumed run
+     * splits the same accounts into the same chunks.
+     */
+    private List<String> accounts(YearMonth period) throws IOException {
+        File file = file(period, ".accounts");
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                int count = in.readInt();
+                List<String> accounts = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    accounts.add(in.readUTF());
+                }
+                return accounts;
+            }
+        }
+        List<String> accounts = store.usernames();
+        Collections.sort(accounts);
+        File temporary = new File(file.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temporary);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(accounts.size());
+            for (String username : accounts) {
+                out.writeUTF(username);
+            }
+            out.flush();
+            stream.getFD().sync();
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return accounts;
+    }
+
+    /**
+     * Overview: A ChunkTask processes the chunks in [from, to), splitting the range in half
+     * until a single chunk is left.
+     */
+    private final class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<String> accounts;
+        private final transient Checkpoint checkpoint;
+        private final transient Totals totals;
+        private final int from;
+        private final int to;
+
+        ChunkTask(List<String> accounts, Checkpoint checkpoint, Totals totals, int from, int to) {
+            this.accounts = accounts;
+            this.checkpoint = checkpoint;
+            this.totals = totals;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChunkTask(accounts, checkpoint, totals, from, middle),
+                        new ChunkTask(accounts, checkpoint, totals, middle, to));
+                return;
+            }
+            if (to == from) {
+                return;
+            }
+            try {
+                Metrics.getDefault().operation("monthEnd.chunk").time(() -> {
+                    processChunk(accounts, checkpoint, totals, from);
+                    return null;
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void processChunk(List<String> accounts, Checkpoint checkpoint, Totals totals, int chunk)
+            throws IOException {
+        if (checkpoint.isDone(chunk)) {
+            totals.resumedChunks.increment();
+            return;
+        }
+        int first = chunk * chunkSize;
+        int count = Math.min(chunkSize, accounts.size() - first);
+        BitSet held = locks.lockAll(accounts.subList(first, first + count));
+        try {
+            long[] previous = checkpoint.intent(chunk);
+            long[] balances = new long[count * 2];
+            Customer[] customers = new Customer[count];
+            boolean[] stored = new boolean[count];
+            List<Customer> changed = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                balances[2 * i] = SETTLED;
+                balances[2 * i + 1] = SETTLED;
+                Customer customer = store.load(accounts.get(first + i));
+                customers[i] = customer;
+                if (customer == null) {
+                    totals.skipped.increment(); // Deleted since the run started
+                    continue;
+                }
+                long current = customer.getBalance();
+                if (previous != null) {
+                    long before = previous[2 * i];
+                    long after = previous[2 * i + 1];
+                    if (before == SETTLED) {
+                        continue; // Settled by the interrupted attempt
+                    }
+                    if (current == after) {
+                        // Stored by the interrupted attempt, which may not have recorded the transaction
+                        stored[i] = true;
+                        balances[2 * i] = before;
+                        balances[2 * i + 1] = after;
+                        continue;
+                    }
+                    if (current != before) {
+                        totals.skipped.increment(); // Changed since the interruption, so it cannot be told apart
+                        System.err.println("Month end skipped " + customer.getUsername()
+                                + ": balance changed after an interrupted run");
+                        continue;
+                    }
+                }
+                balances[2 * i] = current;
+                balances[2 * i + 1] = customer.getTierTable().tierFor(current).monthEndBalance(current);
+                changed.add(customer);
+            }
+            // The new balances must be on disk before any of them is applied, so a resumed run knows them
+            checkpoint.intend(chunk, balances);
+            for (Customer customer : changed) {
+                customer.applyMonthEnd();
+            }
+            try {
+                store.saveAll(changed);
+            } catch (IOException | RuntimeException e) {
+                for (int i = 0; i < count; i++) {
+                    if (balances[2 * i] != SETTLED && !stored[i]) {
+                        customers[i].replaceBalance(balances[2 * i]); // Not stored, so undo the change
+                    }
+                }
+                throw e;
+            }
+            for (int i = 0; i < count; i++) {
+                if (balances[2 * i] != SETTLED) {
+                    record(customers[i], balances[2 * i], balances[2 * i + 1], stored[i], totals);
+                }
+            }
+        } finally {
+            locks.unlockAll(held);
+        }
+        checkpoint.markDone(chunk);
+    }
+
+    /**
+     * Records the month end of one account in its history and in the totals.
+     * @param onlyIfMissing true if the transaction may already have been recorded by an interrupted run
+     */
+    private void record(Customer customer, long before, long after, boolean onlyIfMissing, Totals totals)
+            throws IOException {
+        String username = customer.getUsername();
+        TierTable tiers = customer.getTierTable();
+        Tier tier = tiers.tierFor(before);
+        long interest = tier.monthlyInterest(before);
+        long fee = before + interest - after;
+        if (ledger != null) {
+            List<LedgerEntry> last = onlyIfMissing ? ledger.last(username, 1) : List.of();
+            boolean recorded = !last.isEmpty() && last.get(0).getType() == TransactionType.MONTH_END
+                    && last.get(0).getBalanceAfter() == after;
+            if (!recorded) {
+                ledger.append(username, TransactionType.MONTH_END, interest, fee, after);
+            }
+        }
+        Tier now = tiers.tierFor(after);
+        totals.applied.increment();
+        totals.interest.add(interest);
+        totals.fees.add(fee);
+        totals.customersPerTier.incrementAndGet(now.getRank());
+        if (now.getRank() != tier.getRank()) {
+            totals.tierChanges.increment();
+        }
+    }
+
+    /**
+     * Runs the month end automatically: unfinished runs are resumed straight away, every month
+     * that has ended since the latest completed period is closed, oldest first, and from then
+     * on each month is closed shortly after it ends, in the system time zone. The first time
+     * the job is scheduled with no period completed, the months before it are not closed.
+     * @effects starts a daemon thread running the job and returns a handle that stops it
+     */
+    public Closeable schedule() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "month-end-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.execute(() -> {
+            String[] unfinished = directory.list((dir, name) -> name.startsWith("monthend-") && name.endsWith(".accounts"));
+            for (String name : unfinished == null ? new String[0] : unfinished) {
+                runScheduled(YearMonth.parse(name.substring("monthend-".length(), name.length() - ".accounts".length())));
+            }
+            catchUp();
+            scheduleNext(scheduler);
+        });
+        return scheduler::shutdownNow;
+    }
+
+    /**
+     * Closes, oldest first, every month that has ended since the latest completed period,
+     * stopping at the first that fails so that months are never closed out of order.
+     */
+    private void catchUp() {
+        YearMonth previous = YearMonth.now(ZoneId.systemDefault()).minusMonths(1);
+        YearMonth last;
+        try {
+            last = lastCompleted();
+            if (last == null) {
+                last = latestDone();
+                if (last == null) {
+                    last = previous; // Never run before, so start with the month that ends next
+                }
+                completed(last);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Month end schedule cannot read the latest completed period: " + e);
+            return;
+        }
+        for (YearMonth period = last.plusMonths(1); !period.isAfter(previous); period = period.plusMonths(1)) {
+            if (!runScheduled(period)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the latest period with a finished run in the directory, for directories written
+     * before the latest completed period was recorded.
+     */
+    private YearMonth latestDone() {
+        String[] done = directory.list((dir, name) -> name.startsWith("monthend-") && name.endsWith(".done"));
+        YearMonth latest = null;
+        for (String name : done == null ? new String[0] : done) {
+            YearMonth period = YearMonth.parse(name.substring("monthend-".length(), name.length() - ".done".length()));
+            if (latest == null || period.isAfter(latest)) {
+                latest = period;
+            }
+        }
+        return latest;
+    }
+
+    private void scheduleNext(ScheduledExecutorService scheduler) {
+        ZonedDateTime now = ZonedDateTime.now(ZoneId.systemDefault());
+        ZonedDateTime next = YearMonth.from(now).plusMonths(1).atDay(1).atStartOfDay(now.getZone());
+        long delay = Duration.between(now, next).toMillis();
+        scheduler.schedule(() -> {
+            catchUp();
+            scheduleNext(scheduler);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs or resumes the month end of a period unless it has already finished.
+     * @effects returns true if the month end of period has finished, false if the run failed
+     */
+    private boolean runScheduled(YearMonth period) {
+        try {
+            if (isComplete(period)) {
+                completed(period);
+                return true;
+            }
+            System.err.println("Month end finished: " + run(period));
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Month end for " + period + " failed and will be retried on restart or when the next month ends: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Runs the month end of the bank configured by the system properties, as a scheduled task
+     * would: java coe528.project.MonthEndJob [yyyy-MM], defaulting to the previous month.
+     */
+    public static void main(String[] args) throws IOException {
+        YearMonth period = args.length > 0 ? YearMonth.parse(args[0]) : YearMonth.now().minusMonths(1);
+        try (Bank bank = Bank.open()) {
+            System.out.println(bank.getMonthEndJob().run(period));
+        }
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        return store != null && directory != null && parallelism > 0 && chunkSize > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "MonthEndJob{" + "store=" + store + ", directory=" + directory + ", parallelism=" + parallelism
+                + ", chunkSize=" + chunkSize + '}';
+    }
+}
@@ -0,0 +1,117 @@
+package coe528.project;
+
+import java.util.Arrays;
+
+/**
+ * Overview: A MonthEndReport summarizes one run of a MonthEndJob: how many accounts were
+ * updated, how much interest was paid and how many fees were charged, how many customers
+ * moved to another tier and how many customers each tier holds afterwards.
+ * This class is immutable.
+ *
+ * Abstraction Function: AF(c) = The month end of c.period, which updated c.applied of
+ * c.accounts accounts, skipped c.skipped that were deleted or changed while the run was
+ * interrupted, paid c.interest cents of interest, charged c.fees cents of fees, moved
+ * c.tierChanges customers to another tier, left c.customersPerTier[r] customers in the tier
+ * of rank r, resumed c.resumedChunks chunks completed by an interrupted run and took
+ * c.elapsedNanos nanoseconds.
+ *
+ * Representation Invariant: c.period != null && c.customersPerTier != null && c.accounts >= 0 &&
+ * c.applied >= 0 && c.skipped >= 0 && c.applied + c.skipped <= c.accounts && c.interest >= 0 &&
+ * c.fees >= 0 && c.tierChanges >= 0 && c.resumedChunks >= 0 && c.elapsedNanos >= 0
+ */
+public final class MonthEndReport {
+    private final String period;
+    private final long accounts;
+    private final long applied;
+    private final long skipped;
+    private final long interest;
+    private final long fees;
+    private final long tierChanges;
+    private final long[] customersPerTier;
+    private final long resumedChunks;
+    private final long elapsedNanos;
+
+    public MonthEndReport(String period, long accounts, long applied, long skipped, long interest, long fees,
+            long tierChanges, long[] customersPerTier, long resumedChunks, long elapsedNanos) {
+        this.period = period;
+        this.accounts = accounts;
+        this.applied = applied;
+        this.skipped = skipped;
+        this.interest = interest;
+        this.fees = fees;
+        this.tierChanges = tierChanges;
+        this.customersPerTier = customersPerTier.clone();
+        this.resumedChunks = resumedChunks;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public String getPeriod() {
+        return this.period;
+    }
+
+    public long getAccounts() {
+        return this.accounts;
+    }
+
+    public long getApplied() {
+        return this.applied;
+    }
+
+    public long getSkipped() {
+        return this.skipped;
+    }
+
+    public long getInterest() {
+        return this.interest;
+    }
+
+    public long getFees() {
+        return this.fees;
+    }
+
+    public long getTierChanges() {
+        return this.tierChanges;
+    }
+
+    /**
+     * Returns the number of customers in each tier after the run.
+     * @effects returns a new array whose element r is the number of updated customers in the tier of rank r
+     */
+    public long[] getCustomersPerTier() {
+        return this.customersPerTier.clone();
+    }
+
+    public long getResumedChunks() {
+        return this.resumedChunks;
+    }
+
+    public long getElapsedNanos() {
+        return this.elapsedNanos;
+    }
+
+    /**
+     * Returns the throughput of the run.
+     * @effects returns the number of accounts processed per second
+     */
+    public double getAccountsPerSecond() {
+        return elapsedNanos == 0 ? 0 : accounts * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        return period != null && customersPerTier != null && accounts >= 0 && applied >= 0 && skipped >= 0
+                && applied + skipped <= accounts && interest >= 0 && fees >= 0 && tierChanges >= 0
+                && resumedChunks >= 0 && elapsedNanos >= 0;
+    }
+
+    @Override
+    public String toString() {
+        return "MonthEndReport{" + "period=" + period + ", accounts=" + accounts + ", applied=" + applied
+                + ", skipped=" + skipped + ", interest=" + Money.format(interest) + ", fees=" + Money.format(fees)
+                + ", tierChanges=" + tierChanges + ", customersPerTier=" + Arrays.toString(customersPerTier)
+                + ", resumedChunks=" + resumedChunks + ", accountsPerSecond=" + Math.round(getAccountsPerSecond()) + '}';
+    }
+}
@@ -0,0 +1,132 @@
+package coe528.project;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Overview: An OperationMetrics holds the measurements of one kind of operation, such as
+ * customer login or deposit: a latency histogram and how many calls succeeded, were rejected
+ * by a business rule (an IllegalArgumentException) or failed (an I/O or other error).
+ * This class is mutable as calls are recorded.
+ *
+ * Abstraction Function: AF(c) = The calls of the operation named c.name, of which c.ok
+ * succeeded, c.rejected were rejected and c.failed failed, taking the durations in c.latency.
+ *
+ * Representation Invariant: c.name != null && c.latency != null && c.ok != null &&
+ * c.rejected != null && c.failed != null
+ */
+public class OperationMetrics {
+    /**
+     * Overview: The ways an operation can end.
+     */
+    public enum Outcome {
+        OK, REJECTED, FAILED
+    }
+
+    /**
+     * Overview: A Call is one measured invocation of an operation.
+     */
+    public interface Call<T> {
+        T call() throws IOException;
+    }
+
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder ok = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public LatencyHistogram getLatency() {
+        return this.latency;
+    }
+
+    /**
+     * Records one call of the operation.
+     * @param outcome how the call ended
+     * @param nanos how long the call took in nanoseconds
+     * @modifies this
+     * @effects counts the call under outcome and records its duration
+     */
+    public void record(Outcome outcome, long nanos) {
+        latency.record(nanos);
+        switch (outcome) {
+            case OK:
+                ok.increment();
+                break;
+            case REJECTED:
+                rejected.increment();
+                break;
+            default:
+                failed.increment();
+                break;
+        }
+    }
+
+    /**
+     * Runs a call and records it.
+     * @param call the call to run
+     * @effects runs call, records its duration and outcome, and returns its result or
+     *          rethrows its exception
+     * @throws IOException if call throws IOException
+     */
+    public <T> T time(Call<T> call) throws IOException {
+        long start = System.nanoTime();
+        Outcome outcome = Outcome.FAILED;
+        try {
+            T result = call.call();
+            outcome = Outcome.OK;
+            return result;
+        } catch (IllegalArgumentException e) {
+            outcome = Outcome.REJECTED;
+            throw e;
+        } finally {
+            record(outcome, System.nanoTime() - start);
+        }
+    }
+
+    public long getOkCount() {
+        return ok.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    /**
+     * Discards every recorded call.
+     * @modifies this
+     * @effects resets the counters and the latency histogram
+     */
+    public void reset() {
+        latency.reset();
+        ok.reset();
+        rejected.reset();
+        failed.reset();
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        return name != null && latency != null && ok != null && rejected != null && failed != null;
+    }
+
+    @Override
+    public String toString() {
+        return "OperationMetrics{" + "name=" + name + ", ok=" + getOkCount() + ", rejected=" + getRejectedCount()
+                + ", failed=" + getFailedCount() + ", latency=" + latency + '}';
+    }
+}
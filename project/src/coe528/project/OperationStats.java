@@ -0,0 +1,108 @@
+package coe528.project;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Overview: An OperationStats is a summary of one operation's metrics at a point in time,
+ * in the form published over JMX: call counts by outcome and latency percentiles in microseconds.
+ * This class is immutable.
+ *
+ * Abstraction Function: AF(c) = The operation c.name, called c.okCount + c.rejectedCount +
+ * c.failedCount times, with the given latency mean, percentiles and maximum in microseconds.
+ *
+ * Representation Invariant: c.name != null && every count >= 0
+ */
+public final class OperationStats {
+    private final String name;
+    private final long okCount;
+    private final long rejectedCount;
+    private final long failedCount;
+    private final double meanMicros;
+    private final double p50Micros;
+    private final double p90Micros;
+    private final double p99Micros;
+    private final double p999Micros;
+    private final double maxMicros;
+
+    @ConstructorProperties({"name", "okCount", "rejectedCount", "failedCount", "meanMicros", "p50Micros",
+        "p90Micros", "p99Micros", "p999Micros", "maxMicros"})
+    public OperationStats(String name, long okCount, long rejectedCount, long failedCount, double meanMicros,
+            double p50Micros, double p90Micros, double p99Micros, double p999Micros, double maxMicros) {
+        this.name = name;
+        this.okCount = okCount;
+        this.rejectedCount = rejectedCount;
+        this.failedCount = failedCount;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p90Micros = p90Micros;
+        this.p99Micros = p99Micros;
+        this.p999Micros = p999Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    /**
+     * Summarizes an operation's metrics.
+     * @effects returns the current counts and latency percentiles of metrics
+     */
+    public static OperationStats of(OperationMetrics metrics) {
+        LatencyHistogram.Snapshot latency = metrics.getLatency().snapshot();
+        return new OperationStats(metrics.getName(), metrics.getOkCount(), metrics.getRejectedCount(),
+                metrics.getFailedCount(), latency.getMeanNanos() / 1000, latency.getPercentileNanos(50) / 1000.0,
+                latency.getPercentileNanos(90) / 1000.0, latency.getPercentileNanos(99) / 1000.0,
+                latency.getPercentileNanos(99.9) / 1000.0, latency.getMaxNanos() / 1000.0);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public long getOkCount() {
+        return this.okCount;
+    }
+
+    public long getRejectedCount() {
+        return this.rejectedCount;
+    }
+
+    public long getFailedCount() {
+        return this.failedCount;
+    }
+
+    public double getMeanMicros() {
+        return this.meanMicros;
+    }
+
+    public double getP50Micros() {
+        return this.p50Micros;
+    }
+
+    public double getP90Micros() {
+        return this.p90Micros;
+    }
+
+    public double getP99Micros() {
+        return this.p99Micros;
+    }
+
+    public double getP999Micros() {
+        return this.p999Micros;
+    }
+
+    public double getMaxMicros() {
+        return this.maxMicros;
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        return name != null && okCount >= 0 && rejectedCount >= 0 && failedCount >= 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-20s ok=%d rejected=%d failed=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                name, okCount, rejectedCount, failedCount, meanMicros, p50Micros, p90Micros, p99Micros, p999Micros, maxMicros);
+    }
+}
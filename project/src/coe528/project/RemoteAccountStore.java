@@ -0,0 +1,329 @@
+package coe528.project;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Overview: The RemoteAccountStore class is an AccountStore whose accounts are held by a
+ * ShardServer in another process. Every operation is sent to the server and waits for its
+ * response, so an operation that returns normally has been applied (and made durable) by the
+ * shard. Connections are kept open between operations; each operation borrows an idle one or
+ * opens a new one, so concurrent callers are served concurrently by the server. A connection
+ * is dropped rather than reused when an operation on it fails part way.
+ * This class is mutable as accounts can be created, updated and deleted.
+ *
+ * Abstraction Function: AF(c) = The accounts held by the shard server listening on c.address.
+ *
+ * Representation Invariant: c.address != null && c.idle != null
+ */
+public class RemoteAccountStore implements AccountStore {
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+    private final InetSocketAddress address;
+    private final ConcurrentLinkedDeque<Connection> idle = new ConcurrentLinkedDeque<>();
+    private volatile boolean closed;
+
+    /**
+     * Overview: A Connection is one TCP connection to the shard server, with buffered streams
+     * for its requests and responses. It carries one operation at a time.
+     */
+    private static final class Connection {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing more to release
+            }
+        }
+    }
+
+    /**
+     * Overview: An Exchange sends one request on a connection and reads its response.
+     */
+    private interface Exchange<T> {
+        T run(Connection connection) throws IOException;
+    }
+
+    /**
+     * Creates a store served by a shard server. No connection is opened until the first operation.
+     * @param host the host the server runs on
+     * @param port the port the server listens on
+     */
+    public RemoteAccountStore(String host, int port) {
+        this.address = new InetSocketAddress(host, port);
+    }
+
+    /**
+     * Creates a store served by the shard server at an address.
+     * @param address the address of the server, as host:port
+     * @effects returns a store served by the server at address
+     * @throws IllegalArgumentException if address is not of the form host:port
+     */
+    public static RemoteAccountStore parse(String address) {
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Expected host:port but got " + address);
+        }
+        try {
+            return new RemoteAccountStore(address.substring(0, colon).trim(), Integer.parseInt(address.substring(colon + 1).trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid port in " + address);
+        }
+    }
+
+    public InetSocketAddress getAddress() {
+        return this.address;
+    }
+
+    /**
+     * Runs an exchange on an idle connection, or on a new one if none is idle.
+     * @modifies this.idle
+     * @effects returns the result of exchange, keeping its connection for later operations
+     *          unless the exchange failed part way
+     * @throws IllegalArgumentException if the server rejected the operation
+     * @throws IOException if the server could not be reached or failed to perform the operation
+     */
+    private <T> T exchange(Exchange<T> exchange) throws IOException {
+        if (closed) {
+            throw new IOException("Store is closed");
+        }
+        Connection connection = idle.pollFirst();
+        if (connection == null) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                connection = new Connection(socket);
+            } catch (IOException e) {
+                socket.close();
+                throw new IOException("Cannot reach shard " + address + ": " + e.getMessage(), e);
+            }
+        }
+        boolean complete = false;
+        try {
+            T result = exchange.run(connection);
+            complete = true;
+            return result;
+        } catch (IllegalArgumentException e) {
+            complete = true; // A rejection is a whole response
+            throw e;
+        } finally {
+            if (complete && !closed) {
+                idle.offerFirst(connection);
+            } else {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Reads the status of a response.
+     * @effects returns normally if the status is OK
+     * @throws IllegalArgumentException if the server rejected the operation
+     * @throws IOException if the server failed to perform the operation
+     */
+    private void status(Connection connection) throws IOException {
+        byte status = connection.in.readByte();
+        if (status == ShardServer.REJECTED) {
+            throw new IllegalArgumentException(connection.in.readUTF());
+        } else if (status != ShardServer.OK) {
+            throw new IOException("Shard " + address + " failed: " + connection.in.readUTF());
+        }
+    }
+
+    private static void writeCustomers(DataOutputStream out, List<Customer> customers) throws IOException {
+        out.writeInt(customers.size());
+        for (Customer customer : customers) {
+            out.writeUTF(customer.getUsername());
+            out.writeUTF(customer.getPassword());
+            out.writeLong(customer.getBalance());
+        }
+    }
+
+    @Override
+    public boolean exists(String username) throws IOException {
+        return exchange(connection -> {
+            connection.out.writeByte(ShardServer.EXISTS);
+            connection.out.writeUTF(username);
+            connection.out.flush();
+            status(connection);
+            return connection.in.readBoolean();
+        });
+    }
+
+    @Override
+    public Customer load(String username) throws IOException {
+        return exchange(connection -> {
+            connection.out.writeByte(ShardServer.LOAD);
+            connection.out.writeUTF(username);
+            connection.out.flush();
+            status(connection);
+            if (!connection.in.readBoolean()) {
+                return null;
+            }
+            return new Customer(username, connection.in.readUTF(), connection.in.readLong());
+        });
+    }
+
+    @Override
+    public void create(String username, String password, long balance) throws IOException {
+        exchange(connection -> {
+            connection.out.writeByte(ShardServer.CREATE);
+            connection.out.writeUTF(username);
+            connection.out.writeUTF(password);
+            connection.out.writeLong(balance);
+            connection.out.flush();
+            status(connection);
+            return null;
+        });
+    }
+
+    @Override
+    public void createAll(List<Customer> customers) throws IOException {
+        exchange(connection -> {
+            connection.out.writeByte(ShardServer.CREATE_ALL);
+            writeCustomers(connection.out, customers);
+            connection.out.flush();
+            status(connection);
+            return null;
+        });
+    }
+
+    @Override
+    public void save(Customer customer) throws IOException {
+        exchange(connection -> {
+            connection.out.writeByte(ShardServer.SAVE);
+            connection.out.writeUTF(customer.getUsername());
+            connection.out.writeUTF(customer.getPassword());
+            connection.out.writeLong(customer.getBalance());
+            connection.out.flush();
+            status(connection);
+            return null;
+        });
+    }
+
+    @Override
+    public void saveAll(List<Customer> customers) throws IOException {
+        exchange(connection -> {
+            connection.out.writeByte(ShardServer.SAVE_ALL);
+            writeCustomers(connection.out, customers);
+            connection.out.flush();
+            status(connection);
+            return null;
+        });
+    }
+
+    @Override
+    public void delete(String username) throws IOException {
+        exchange(connection -> {
+            connection.out.writeByte(ShardServer.DELETE);
+            connection.out.writeUTF(username);
+            connection.out.flush();
+            status(connection);
+            return null;
+        });
+    }
+
+    @Override
+    public List<String> usernames() throws IOException {
+        return exchange(connection -> {
+            connection.out.writeByte(ShardServer.USERNAMES);
+            connection.out.flush();
+            status(connection);
+            int count = connection.in.readInt();
+            List<String> usernames = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                usernames.add(connection.in.readUTF());
+            }
+            return usernames;
+        });
+    }
+
+    /**
+     * Reads every account of the shard, streamed by the server in one response.
+     * @param visitor the receiver of the accounts; the tier rank it is given is -1
+     * @effects passes every account of the shard to visitor
+     * @throws IOException if the server cannot be reached or fails, or visitor fails
+     */
+    @Override
+    public void forEach(AccountSnapshot.Visitor visitor) throws IOException {
+        exchange(connection -> {
+            connection.out.writeByte(ShardServer.FOR_EACH);
+            connection.out.flush();
+            while (connection.in.readByte() == ShardServer.MORE) {
+                visitor.visit(connection.in.readUTF(), connection.in.readUTF(), connection.in.readLong(), -1);
+            }
+            status(connection);
+            return null;
+        });
+    }
+
+    @Override
+    public void flush() throws IOException {
+        exchange(connection -> {
+            connection.out.writeByte(ShardServer.FLUSH);
+            connection.out.flush();
+            status(connection);
+            return null;
+        });
+    }
+
+    /**
+     * Closes the connections to the server. The server and its accounts are not affected.
+     * @modifies this
+     * @effects closes every idle connection, and every busy one once its operation completes
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Connection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        return address != null && idle != null;
+    }
+
+    /**
+     * Compares two stores by the server they are served by.
+     * @effects returns true if o is a RemoteAccountStore served by the server at the same address
+     */
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof RemoteAccountStore && address.equals(((RemoteAccountStore) o).address);
+    }
+
+    @Override
+    public int hashCode() {
+        return address.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "RemoteAccountStore{" + "address=" + address + ", idle=" + idle.size() + '}';
+    }
+}
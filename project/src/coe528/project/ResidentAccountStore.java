@@ -0,0 +1,199 @@
+package coe528.project;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overview: The ResidentAccountStore class keeps every account of another AccountStore in
+ * memory, in an off-heap AccountTable, for banks with more customers than a
+ * CachingAccountStore could hold as Customer objects. All accounts are read into the table
+ * when the store opens, so loads never touch the underlying store, and a load returns a
+ * lightweight view of the account's row instead of building a Customer from a copy of it.
+ * Saves only mark the row dirty; a background flusher writes the dirty accounts to the
+ * underlying store in batches, so many updates to the same account between flushes become a
+ * single write. Creating and deleting accounts is written through to the underlying store
+ * immediately. Each background flush is recorded in the default Metrics as table.writeBehind.
+ * This class is mutable as accounts are created, updated and deleted.
+ *
+ * Abstraction Function: AF(c) = The accounts of c.table, which are those of c.delegate with
+ * the balances of the rows marked dirty in c.table replaced by the balances in c.table.
+ *
+ * Representation Invariant: c.delegate != null && c.table != null && c.batchSize > 0 &&
+ * c.table holds exactly the accounts of c.delegate
+ */
+public class ResidentAccountStore implements AccountStore {
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+
+    private final AccountStore delegate;
+    private final AccountTable table;
+    private final int batchSize;
+    private final ScheduledExecutorService flusher;
+
+    public ResidentAccountStore(AccountStore delegate, long flushIntervalMillis) throws IOException {
+        this(delegate, new AccountTable(), flushIntervalMillis, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Opens the store, reading every account of delegate into table.
+     * @param delegate the store to keep in memory
+     * @param table an empty table to hold the accounts
+     * @param flushIntervalMillis how often dirty accounts are written to delegate; if 0 or
+     *        less they are only written on flush() and close()
+     * @param batchSize the largest number of accounts written to delegate with one saveAll
+     * @requires delegate != null && table is empty && batchSize > 0
+     * @throws IOException if the accounts of delegate cannot be read
+     */
+    public ResidentAccountStore(AccountStore delegate, AccountTable table, long flushIntervalMillis, int batchSize)
+            throws IOException {
+        this.delegate = delegate;
+        this.table = table;
+        this.batchSize = batchSize;
+        delegate.forEach((username, password, balance, tierRank) -> table.insert(username, password, balance));
+        if (flushIntervalMillis > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "account-table-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            OperationMetrics flushMetrics = Metrics.getDefault().operation("table.writeBehind");
+            flusher.scheduleWithFixedDelay(() -> {
+                try {
+                    flushMetrics.time(() -> {
+                        flushDirty();
+                        return null;
+                    });
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * Writes the dirty accounts to delegate. Accounts whose batch fails are marked dirty
+     * again, so a later flush writes them.
+     * @modifies this.table, delegate
+     * @effects writes every account that was dirty when the flush started to delegate
+     */
+    private synchronized void flushDirty() throws IOException {
+        List<Customer> batch;
+        while (!(batch = table.takeDirty(batchSize)).isEmpty()) {
+            try {
+                delegate.saveAll(batch);
+            } catch (IOException | RuntimeException e) {
+                for (Customer customer : batch) {
+                    table.markDirty(customer.getUsername());
+                }
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public boolean exists(String username) {
+        return table.contains(username);
+    }
+
+    @Override
+    public Customer load(String username) {
+        return table.get(username);
+    }
+
+    @Override
+    public synchronized void create(String username, String password, long balance) throws IOException {
+        if (table.contains(username)) {
+            throw new IllegalArgumentException("Customer already exists");
+        }
+        delegate.create(username, password, balance);
+        table.insert(username, password, balance);
+    }
+
+    @Override
+    public synchronized void createAll(List<Customer> customers) throws IOException {
+        for (Customer customer : customers) {
+            if (table.contains(customer.getUsername())) {
+                throw new IllegalArgumentException("Customer already exists: " + customer.getUsername());
+            }
+        }
+        delegate.createAll(customers);
+        for (Customer customer : customers) {
+            table.insert(customer.getUsername(), customer.getPassword(), customer.getBalance());
+        }
+    }
+
+    @Override
+    public void save(Customer customer) {
+        table.update(customer);
+    }
+
+    @Override
+    public void saveAll(List<Customer> customers) {
+        for (Customer customer : customers) {
+            if (!table.contains(customer.getUsername())) {
+                throw new IllegalArgumentException("Customer does not exist");
+            }
+        }
+        for (Customer customer : customers) {
+            table.update(customer);
+        }
+    }
+
+    @Override
+    public synchronized void delete(String username) throws IOException {
+        delegate.delete(username);
+        table.remove(username);
+    }
+
+    @Override
+    public List<String> usernames() {
+        return table.usernames();
+    }
+
+    @Override
+    public void forEach(AccountSnapshot.Visitor visitor) throws IOException {
+        table.forEach(visitor);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushDirty();
+        delegate.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushDirty();
+        delegate.close();
+    }
+
+    public AccountTable getTable() {
+        return this.table;
+    }
+
+    /**
+     * Checks if the representation invariant holds, apart from comparing the accounts with
+     * those of delegate, which would need every account to be read.
+     * @effects returns true if the checked part of the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        return delegate != null && table != null && batchSize > 0 && table.repOK();
+    }
+
+    @Override
+    public String toString() {
+        return "ResidentAccountStore{" + "delegate=" + delegate + ", table=" + table + ", batchSize=" + batchSize + '}';
+    }
+}
@@ -0,0 +1,164 @@
+package coe528.project;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Overview: The ShardRebalancer class moves accounts to the shards they belong to after the
+ * number of shards has changed. Every node that may hold accounts (the shards of the new
+ * layout and any being retired, told apart with equals) is read in turn; each account found
+ * on a node other than its shard in the new layout is copied to that shard in batches and
+ * then deleted from the node.
+ * An account is only deleted once its copy is durable, so a run that is interrupted loses
+ * nothing and can simply be run again: an account left on both nodes is overwritten on its
+ * new shard, whose copy is identical as long as the bank was stopped, and then deleted.
+ * The bank should be stopped while the rebalancer runs, since accounts are briefly on two
+ * nodes and customers would otherwise be looked up on the wrong one.
+ * This class is immutable.
+ *
+ * Abstraction Function: AF(c) = A move of the accounts of every node of c.nodes to its shard
+ * in c.target, c.batchSize accounts at a time.
+ *
+ * Representation Invariant: c.target != null && c.nodes != null && c.nodes contains every
+ * shard of c.target && c.batchSize > 0
+ */
+public class ShardRebalancer {
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+
+    private final ShardedAccountStore target;
+    private final List<AccountStore> nodes;
+    private final int batchSize;
+
+    /**
+     * Creates a rebalancer for a new layout.
+     * @param target the store of the new layout
+     * @param retired nodes that hold accounts but are not shards of target, which are emptied
+     * @param batchSize the number of accounts copied to a shard at once
+     * @throws IllegalArgumentException if batchSize is not positive
+     */
+    public ShardRebalancer(ShardedAccountStore target, List<? extends AccountStore> retired, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        Set<AccountStore> nodes = new LinkedHashSet<>(target.getShards());
+        nodes.addAll(retired);
+        this.target = target;
+        this.nodes = new ArrayList<>(nodes);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Moves every misplaced account to its shard.
+     * @modifies the shards of target and the retired nodes
+     * @effects moves each account held by a node other than its shard in target to that shard
+     *          and returns the number of accounts moved
+     * @throws IOException if a node cannot be read or written; accounts not yet deleted from
+     *         their old node are still there
+     */
+    public long rebalance() throws IOException {
+        long moved = 0;
+        for (AccountStore node : nodes) {
+            // Read the misplaced accounts first, so the node is not written while it is streamed
+            List<Customer> misplaced = new ArrayList<>();
+            node.forEach((username, password, balance, tierRank) -> {
+                if (!target.shardFor(username).equals(node)) {
+                    misplaced.add(new Customer(username, password, balance));
+                }
+            });
+            for (int first = 0; first < misplaced.size(); first += batchSize) {
+                moved += move(node, misplaced.subList(first, Math.min(first + batchSize, misplaced.size())));
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Moves a batch of accounts off one node.
+     * @modifies the shards of target, node
+     * @effects copies each customer of batch to its shard in target, deletes it from node and
+     *          returns the number of customers moved
+     */
+    private long move(AccountStore node, List<Customer> batch) throws IOException {
+        List<List<Customer>> parts = new ArrayList<>();
+        for (int i = 0; i < target.getShards().size(); i++) {
+            parts.add(new ArrayList<>());
+        }
+        for (Customer customer : batch) {
+            parts.get(ShardedAccountStore.shardOf(customer.getUsername(), parts.size())).add(customer);
+        }
+        for (int i = 0; i < parts.size(); i++) {
+            if (!parts.get(i).isEmpty()) {
+                copy(target.getShards().get(i), parts.get(i));
+            }
+        }
+        for (Customer customer : batch) {
+            node.delete(customer.getUsername());
+        }
+        return batch.size();
+    }
+
+    /**
+     * Copies accounts to a shard, overwriting any copy left there by an interrupted run.
+     * @modifies shard
+     * @effects stores an account of shard for each customer with its password and balance
+     */
+    private static void copy(AccountStore shard, List<Customer> customers) throws IOException {
+        try {
+            shard.createAll(customers);
+        } catch (IllegalArgumentException e) {
+            // Some were copied before; create the rest and overwrite those, making the copies durable together
+            List<Customer> missing = new ArrayList<>();
+            List<Customer> present = new ArrayList<>();
+            for (Customer customer : customers) {
+                (shard.exists(customer.getUsername()) ? present : missing).add(customer);
+            }
+            shard.createAll(missing);
+            shard.saveAll(present);
+        }
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        return target != null && nodes != null && nodes.containsAll(target.getShards()) && batchSize > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ShardRebalancer{" + "target=" + target + ", nodes=" + nodes.size() + ", batchSize=" + batchSize + '}';
+    }
+
+    /**
+     * Moves the accounts of running shard servers to a new layout.
+     * Usage: ShardRebalancer newShards [retiredShards]
+     * where each argument is a comma separated list of host:port addresses.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: ShardRebalancer <host:port,...> [<retired host:port,...>]");
+            System.exit(2);
+        }
+        List<RemoteAccountStore> retired = new ArrayList<>();
+        if (args.length > 1) {
+            for (String address : args[1].split(",")) {
+                if (!address.isBlank()) {
+                    retired.add(RemoteAccountStore.parse(address));
+                }
+            }
+        }
+        try (ShardedAccountStore target = ShardedAccountStore.connect(args[0])) {
+            long start = System.nanoTime();
+            long moved = new ShardRebalancer(target, retired, DEFAULT_BATCH_SIZE).rebalance();
+            System.out.println("Moved " + moved + " accounts in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } finally {
+            for (RemoteAccountStore store : retired) {
+                store.close();
+            }
+        }
+    }
+}
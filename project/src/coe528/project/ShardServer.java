@@ -0,0 +1,348 @@
+package coe528.project;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overview: The ShardServer class serves one shard of the bank's accounts to other processes.
+ * It runs in its own process with its own data directory, holding its accounts in the same
+ * journaled, cached log store a single bank uses, and answers AccountStore operations sent
+ * over TCP by RemoteAccountStore clients. Each connection is served by its own thread and
+ * carries one request at a time, so a client that wants concurrency opens several.
+ * <p>
+ * A request is an operation byte followed by its arguments, with strings written as modified
+ * UTF-8 and balances as longs in cents. A response starts with OK, REJECTED (the store threw
+ * an IllegalArgumentException) or FAILED (the store threw an IOException), the last two
+ * followed by the message; an OK response is followed by the result of the operation, if any.
+ * FOR_EACH streams a MORE byte before each account and an END byte after the last, and then
+ * its status.
+ * This class is mutable as it can be closed.
+ *
+ * Abstraction Function: AF(c) = The shard of accounts c.store, served on c.server to the
+ * clients connected on c.connections.
+ *
+ * Representation Invariant: c.store != null && c.server != null && c.connections != null &&
+ * c.workers != null
+ */
+public class ShardServer implements Closeable {
+    static final byte EXISTS = 1;
+    static final byte LOAD = 2;
+    static final byte CREATE = 3;
+    static final byte CREATE_ALL = 4;
+    static final byte SAVE = 5;
+    static final byte SAVE_ALL = 6;
+    static final byte DELETE = 7;
+    static final byte USERNAMES = 8;
+    static final byte FOR_EACH = 9;
+    static final byte FLUSH = 10;
+
+    static final byte OK = 0;
+    static final byte REJECTED = 1;
+    static final byte FAILED = 2;
+    static final byte END = 0;
+    static final byte MORE = 1;
+
+    private final AccountStore store;
+    private final ServerSocket server;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final ExecutorService workers;
+    private volatile boolean closed;
+
+    /**
+     * Starts serving a store.
+     * @param store the accounts of the shard
+     * @param port the TCP port to listen on, or 0 for any free port
+     * @effects listens on port and serves store to every client that connects
+     * @throws IOException if the port cannot be bound
+     */
+    public ShardServer(AccountStore store, int port) throws IOException {
+        this.store = store;
+        this.server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(port));
+        this.workers = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "shard-connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // The acceptor keeps the process alive until the server is closed
+        new Thread(this::accept, "shard-acceptor-" + server.getLocalPort()).start();
+    }
+
+    public AccountStore getStore() {
+        return this.store;
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                connections.add(socket);
+                workers.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!closed) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Answers the requests of one client until it disconnects.
+     * @modifies store, socket
+     * @effects performs each request read from socket and writes its response, then closes socket
+     */
+    private void serve(Socket socket) {
+        try (Socket connection = socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream(), 1 << 16));
+            int op;
+            while ((op = in.read()) >= 0) {
+                handle((byte) op, in, out);
+                out.flush();
+            }
+        } catch (EOFException | SocketException e) {
+            // The client went away or the server is closing
+        } catch (IOException e) {
+            if (!closed) {
+                e.printStackTrace();
+            }
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    /**
+     * Overview: An Operation is a request whose arguments have been read, ready to be performed
+     * on the store. It returns the result to write after the OK status, or null if there is none.
+     */
+    private interface Operation {
+        Result perform() throws IOException;
+    }
+
+    /**
+     * Overview: A Result writes the result of a performed operation to the client.
+     */
+    private interface Result {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Performs one request. Its arguments are read in full before the store is called, so a
+     * failure of the store leaves the connection ready for the next request.
+     * @modifies store, out
+     * @effects performs the request op whose arguments are read from in and writes the response to out
+     * @throws IOException if the connection fails or op is unknown
+     */
+    private void handle(byte op, DataInputStream in, DataOutputStream out) throws IOException {
+        if (op == FOR_EACH) {
+            forEach(out);
+            return;
+        }
+        Operation operation = read(op, in);
+        Result result;
+        try {
+            result = operation.perform();
+        } catch (IllegalArgumentException | IOException e) {
+            fail(out, e);
+            return;
+        }
+        out.writeByte(OK);
+        if (result != null) {
+            result.write(out);
+        }
+    }
+
+    private Operation read(byte op, DataInputStream in) throws IOException {
+        switch (op) {
+            case EXISTS: {
+                String username = in.readUTF();
+                return () -> {
+                    boolean exists = store.exists(username);
+                    return out -> out.writeBoolean(exists);
+                };
+            }
+            case LOAD: {
+                String username = in.readUTF();
+                return () -> {
+                    Customer customer = store.load(username);
+                    return out -> {
+                        out.writeBoolean(customer != null);
+                        if (customer != null) {
+                            out.writeUTF(customer.getPassword());
+                            out.writeLong(customer.getBalance());
+                        }
+                    };
+                };
+            }
+            case CREATE: {
+                String username = in.readUTF();
+                String password = in.readUTF();
+                long balance = in.readLong();
+                return () -> {
+                    store.create(username, password, balance);
+                    return null;
+                };
+            }
+            case CREATE_ALL: {
+                List<Customer> customers = readCustomers(in);
+                return () -> {
+                    store.createAll(customers);
+                    return null;
+                };
+            }
+            case SAVE: {
+                Customer customer = new Customer(in.readUTF(), in.readUTF(), in.readLong());
+                return () -> {
+                    store.save(customer);
+                    return null;
+                };
+            }
+            case SAVE_ALL: {
+                List<Customer> customers = readCustomers(in);
+                return () -> {
+                    store.saveAll(customers);
+                    return null;
+                };
+            }
+            case DELETE: {
+                String username = in.readUTF();
+                return () -> {
+                    store.delete(username);
+                    return null;
+                };
+            }
+            case USERNAMES:
+                return () -> {
+                    List<String> usernames = store.usernames();
+                    return out -> {
+                        out.writeInt(usernames.size());
+                        for (String username : usernames) {
+                            out.writeUTF(username);
+                        }
+                    };
+                };
+            case FLUSH:
+                return () -> {
+                    store.flush();
+                    return null;
+                };
+            default:
+                throw new IOException("Unknown shard operation " + op);
+        }
+    }
+
+    /**
+     * Streams every account of the store.
+     * @modifies out
+     * @effects writes MORE and the username, password and balance of each account, then END and the status
+     */
+    private void forEach(DataOutputStream out) throws IOException {
+        try {
+            store.forEach((username, password, balance, tierRank) -> {
+                out.writeByte(MORE);
+                out.writeUTF(username);
+                out.writeUTF(password);
+                out.writeLong(balance);
+            });
+        } catch (IllegalArgumentException | IOException e) {
+            out.writeByte(END);
+            fail(out, e);
+            return;
+        }
+        out.writeByte(END);
+        out.writeByte(OK);
+    }
+
+    private static List<Customer> readCustomers(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<Customer> customers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            customers.add(new Customer(in.readUTF(), in.readUTF(), in.readLong()));
+        }
+        return customers;
+    }
+
+    private static void fail(DataOutputStream out, Exception error) throws IOException {
+        out.writeByte(error instanceof IllegalArgumentException ? REJECTED : FAILED);
+        out.writeUTF(String.valueOf(error.getMessage()));
+    }
+
+    /**
+     * Stops serving and closes the store.
+     * @modifies this, store
+     * @effects stops accepting clients, disconnects every client and closes store
+     * @throws IOException if the store cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        for (Socket socket : connections) {
+            socket.close();
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        store.close();
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        return store != null && server != null && connections != null && workers != null;
+    }
+
+    @Override
+    public String toString() {
+        return "ShardServer{" + "port=" + server.getLocalPort() + ", connections=" + connections.size()
+                + ", store=" + store + '}';
+    }
+
+    /**
+     * Runs a shard server until the process is stopped.
+     * Usage: ShardServer port dataDir
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: ShardServer <port> <dataDir>");
+            System.exit(2);
+        }
+        ShardServer shard = new ShardServer(Bank.openLocalStore(new File(args[1])), Integer.parseInt(args[0]));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "shard-shutdown"));
+        System.out.println("Serving " + args[1] + " on port " + shard.getPort());
+    }
+}
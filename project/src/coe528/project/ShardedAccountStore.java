@@ -0,0 +1,232 @@
+package coe528.project;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Overview: The ShardedAccountStore class spreads the accounts of the bank over several
+ * AccountStores (shards), usually RemoteAccountStores served by ShardServer processes with
+ * their own disks. Each account lives on the shard chosen by a hash of its username, so
+ * operations on different customers go to different shards and proceed in parallel, and
+ * adding shards adds throughput. Operations on one account go to its shard only; bulk
+ * operations are split by shard and each part is written with a single call to its shard.
+ * createAll stays all-or-nothing across shards: if a shard rejects its part, the accounts
+ * already created on the other shards are deleted again. saveAll checks that every account
+ * exists before writing any shard. Neither is atomic if a shard fails or the process dies
+ * part way.
+ * When the number of shards changes, most accounts hash to a new shard, and ShardRebalancer
+ * moves them there.
+ * This class is mutable as accounts can be created, updated and deleted.
+ *
+ * Abstraction Function: AF(c) = The union of the accounts of every shard of c.shards, where
+ * the account of a username is the one on c.shards.get(shardOf(username, c.shards.size())).
+ *
+ * Representation Invariant: c.shards != null && !c.shards.isEmpty() && no element of c.shards
+ * is null && every account of c.shards.get(i) has shardOf(username, c.shards.size()) == i
+ */
+public class ShardedAccountStore implements AccountStore {
+    private final List<AccountStore> shards;
+
+    /**
+     * Creates a store over some shards.
+     * @param shards the shards, in the order that fixes which accounts each holds
+     * @throws IllegalArgumentException if shards is empty
+     */
+    public ShardedAccountStore(List<? extends AccountStore> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is needed");
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+    }
+
+    /**
+     * Creates a store over shard servers.
+     * @param addresses the addresses of the servers as host:port, separated by commas
+     * @effects returns a store whose shards are the servers of addresses, in order
+     * @throws IllegalArgumentException if an address is not of the form host:port or there is none
+     */
+    public static ShardedAccountStore connect(String addresses) {
+        List<AccountStore> shards = new ArrayList<>();
+        for (String address : addresses.split(",")) {
+            if (!address.isBlank()) {
+                shards.add(RemoteAccountStore.parse(address));
+            }
+        }
+        return new ShardedAccountStore(shards);
+    }
+
+    /**
+     * Returns the shard of an account. String.hashCode is fixed by the language, so every
+     * process places an account on the same shard; its bits are mixed first so usernames
+     * that differ only in their last characters still spread over the shards.
+     * @param username the username of the account
+     * @param shardCount the number of shards
+     * @requires shardCount > 0
+     * @effects returns the index, from 0 to shardCount - 1, of the shard holding username
+     */
+    public static int shardOf(String username, int shardCount) {
+        int hash = username.hashCode() * 0x9E3779B9;
+        return Math.floorMod(hash ^ (hash >>> 16), shardCount);
+    }
+
+    /**
+     * Returns the shards.
+     * @effects returns an unmodifiable list of the shards, in order
+     */
+    public List<AccountStore> getShards() {
+        return this.shards;
+    }
+
+    /**
+     * Returns the shard holding an account.
+     * @param username the username of the account
+     * @effects returns the shard that holds, or would hold, the account of username
+     */
+    public AccountStore shardFor(String username) {
+        return shards.get(shardOf(username, shards.size()));
+    }
+
+    /**
+     * Splits customers by shard, keeping their order within each shard.
+     * @effects returns a list whose element i holds the customers of shards.get(i)
+     */
+    private List<List<Customer>> split(List<Customer> customers) {
+        List<List<Customer>> parts = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            parts.add(new ArrayList<>());
+        }
+        for (Customer customer : customers) {
+            parts.get(shardOf(customer.getUsername(), shards.size())).add(customer);
+        }
+        return parts;
+    }
+
+    @Override
+    public boolean exists(String username) throws IOException {
+        return shardFor(username).exists(username);
+    }
+
+    @Override
+    public Customer load(String username) throws IOException {
+        return shardFor(username).load(username);
+    }
+
+    @Override
+    public void create(String username, String password, long balance) throws IOException {
+        shardFor(username).create(username, password, balance);
+    }
+
+    @Override
+    public void createAll(List<Customer> customers) throws IOException {
+        Set<String> usernames = new HashSet<>();
+        for (Customer customer : customers) {
+            if (!usernames.add(customer.getUsername())) {
+                throw new IllegalArgumentException("Customer already exists: " + customer.getUsername());
+            }
+        }
+        List<List<Customer>> parts = split(customers);
+        for (int i = 0; i < parts.size(); i++) {
+            if (parts.get(i).isEmpty()) {
+                continue;
+            }
+            try {
+                shards.get(i).createAll(parts.get(i));
+            } catch (IllegalArgumentException e) {
+                for (int created = 0; created < i; created++) {
+                    for (Customer customer : parts.get(created)) {
+                        shards.get(created).delete(customer.getUsername());
+                    }
+                }
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void save(Customer customer) throws IOException {
+        shardFor(customer.getUsername()).save(customer);
+    }
+
+    @Override
+    public void saveAll(List<Customer> customers) throws IOException {
+        List<List<Customer>> parts = split(customers);
+        int written = 0;
+        for (List<Customer> part : parts) {
+            written += part.isEmpty() ? 0 : 1;
+        }
+        if (written > 1) {
+            // Each shard checks its own part, so the others only need checking when there are several
+            for (Customer customer : customers) {
+                if (!exists(customer.getUsername())) {
+                    throw new IllegalArgumentException("Customer does not exist");
+                }
+            }
+        }
+        for (int i = 0; i < parts.size(); i++) {
+            if (!parts.get(i).isEmpty()) {
+                shards.get(i).saveAll(parts.get(i));
+            }
+        }
+    }
+
+    @Override
+    public void delete(String username) throws IOException {
+        shardFor(username).delete(username);
+    }
+
+    @Override
+    public List<String> usernames() throws IOException {
+        List<String> usernames = new ArrayList<>();
+        for (AccountStore shard : shards) {
+            usernames.addAll(shard.usernames());
+        }
+        return usernames;
+    }
+
+    @Override
+    public void forEach(AccountSnapshot.Visitor visitor) throws IOException {
+        for (AccountStore shard : shards) {
+            shard.forEach(visitor);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        for (AccountStore shard : shards) {
+            shard.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (AccountStore shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Checks if the representation invariant holds, apart from the placement of accounts,
+     * which would need every shard to be read.
+     * @effects returns true if the checked part of the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        return shards != null && !shards.isEmpty() && !shards.contains(null);
+    }
+
+    @Override
+    public String toString() {
+        return "ShardedAccountStore{" + "shards=" + shards + '}';
+    }
+}
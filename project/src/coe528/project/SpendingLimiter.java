@@ -0,0 +1,332 @@
+package coe528.project;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Overview: The SpendingLimiter class enforces the velocity rules of each tier on online
+ * purchases: within any rolling window, a customer may not spend more than their tier's
+ * spending limit or make more purchases than their tier's purchase limit. The window is split
+ * into eight buckets, and each account that purchased recently has one array of eight
+ * counters. A counter packs the bucket's number, its purchases and the amount spent into one
+ * long, changed with a compare-and-set, so a check never takes a lock or touches the account
+ * store; the counters are kept in memory only and start empty when the bank opens.
+ * A purchase is counted first and then checked against the buckets still inside the window.
+ * If it breaks a limit it is taken back out, so concurrent purchases can never together go
+ * over a limit; at worst one is refused that would just have fitted. The window slides a bucket
+ * at a time, so it covers between seven and eight eighths of its length. Time is read from a
+ * clock that a daemon thread advances every TICK_MILLIS, because reading System.nanoTime can
+ * cost more than the rest of a check, so windows are measured to within that tick.
+ * Accounts whose counters have all left the window are dropped when the number of accounts
+ * doubles, and at least every 2^20 buckets, so memory follows the accounts that purchased
+ * recently rather than every customer. A purchase counted while its account is being dropped
+ * waits for the sweep (a few reads) and is counted again in a new array if the old one went.
+ * This class is mutable as purchases are counted.
+ *
+ * Abstraction Function: AF(c) = For each username u in c.windows, the purchases of u in the
+ * buckets from b - 7 to b, where b = (Clock.nanos - c.origin) / c.bucketNanos, given by the
+ * counters of c.windows.get(u)[0..7] whose bucket number is within 8 of b; users not in
+ * c.windows, or whose array is GONE, have made no purchases in the window.
+ *
+ * Representation Invariant: c.windows != null && c.bucketNanos > 0 && c.sweeping != null &&
+ * every value of c.windows has length BUCKETS + 1 and c.windows[u][i] is 0 or has a bucket
+ * number congruent to i modulo BUCKETS
+ */
+public class SpendingLimiter {
+    public static final long DEFAULT_WINDOW_MILLIS = 60_000;
+    public static final int MAX_PURCHASE_LIMIT = (1 << 10) - 1;
+    public static final long MAX_SPENDING_LIMIT = 0xFFFFFFFFL;
+    public static final long TICK_MILLIS = 10;
+
+    private static final int BUCKETS = 8;
+    // A counter is: bucket number (22 bits) | purchases (10 bits) | amount in cents (32 bits)
+    private static final int EPOCH_BITS = 22;
+    private static final int EPOCH_SHIFT = 42;
+    private static final int EPOCH_MASK = (1 << EPOCH_BITS) - 1;
+    private static final int COUNT_SHIFT = 32;
+    // The last element of each array says whether it is in use, being swept or dropped
+    private static final int STATE = BUCKETS;
+    private static final long ALIVE = 0;
+    private static final long SWEEPING = 1;
+    private static final long GONE = 2;
+    // Sweeping well within half the range of the bucket numbers keeps every counter's age exact
+    private static final long SWEEP_INTERVAL = 1L << 20;
+    private static final long MIN_SWEEP_SIZE = 4096;
+    private static final VarHandle COUNTERS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final long windowMillis;
+    private final long bucketNanos;
+    private final long origin = Clock.nanos;
+    private final ConcurrentHashMap<String, long[]> windows = new ConcurrentHashMap<>();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private volatile long lastSweep;
+    private volatile long sweepSize = MIN_SWEEP_SIZE;
+
+    /**
+     * Overview: The clock shared by every limiter, started the first time a limiter is created.
+     */
+    private static final class Clock {
+        static volatile long nanos = System.nanoTime();
+
+        static {
+            ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "spending-limiter-clock");
+                thread.setDaemon(true);
+                return thread;
+            });
+            ticker.scheduleAtFixedRate(() -> nanos = System.nanoTime(), TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public SpendingLimiter() {
+        this(DEFAULT_WINDOW_MILLIS);
+    }
+
+    /**
+     * Creates a limiter with no purchases counted.
+     * @param windowMillis the length of the rolling window in milliseconds
+     * @throws IllegalArgumentException if windowMillis is not positive
+     */
+    public SpendingLimiter(long windowMillis) {
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("Window must be positive");
+        }
+        this.windowMillis = windowMillis;
+        this.bucketNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(windowMillis) / BUCKETS, 1);
+    }
+
+    /**
+     * Counts an online purchase, if it keeps the customer within the limits of their tier.
+     * @param username the customer making the purchase
+     * @param tier the customer's current tier
+     * @param amount the purchase amount in cents
+     * @requires username != null && tier != null && amount > 0
+     * @modifies this
+     * @effects if amount plus the customer's purchases in the window is at most
+     *          tier.getSpendingLimit() and the number of those purchases is less than
+     *          tier.getPurchaseLimit() (or the limit is 0), counts the purchase and returns a
+     *          ticket that release takes to undo it; otherwise counts nothing
+     * @throws IllegalArgumentException if the purchase would exceed either limit
+     */
+    public long acquire(String username, Tier tier, long amount) {
+        long spendingLimit = tier.getSpendingLimit();
+        int purchaseLimit = tier.getPurchaseLimit();
+        if (spendingLimit > 0 && amount > spendingLimit) {
+            throw spendingLimitExceeded(spendingLimit);
+        }
+        long bucket = (Clock.nanos - origin) / bucketNanos;
+        int epoch = (int) (bucket & EPOCH_MASK);
+        long[] window;
+        while (true) {
+            window = windowOf(username, bucket);
+            add(window, epoch, Math.min(amount, MAX_SPENDING_LIMIT));
+            if (settle(window)) {
+                break;
+            }
+            windows.remove(username, window); // Dropped by a sweep with this purchase in it
+        }
+        long spent = 0;
+        int purchases = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long counter = (long) COUNTERS.getVolatile(window, i);
+            if (counter == 0) {
+                continue;
+            }
+            if (age(epoch, counter) < BUCKETS) {
+                spent += counter & MAX_SPENDING_LIMIT;
+                purchases += (int) (counter >>> COUNT_SHIFT) & MAX_PURCHASE_LIMIT;
+            } else {
+                COUNTERS.compareAndSet(window, i, counter, 0L); // Left the window
+            }
+        }
+        if (spendingLimit > 0 && spent > spendingLimit) {
+            release(window, epoch, amount);
+            throw spendingLimitExceeded(spendingLimit);
+        }
+        if (purchaseLimit > 0 && purchases > purchaseLimit) {
+            release(window, epoch, amount);
+            throw new IllegalArgumentException("Purchase would exceed the limit of " + purchaseLimit
+                    + " purchases per " + describeWindow());
+        }
+        return bucket;
+    }
+
+    /**
+     * Undoes a purchase counted by acquire, such as one the balance did not cover.
+     * @param username the customer who made the purchase
+     * @param ticket the value acquire returned for the purchase
+     * @param amount the purchase amount in cents
+     * @requires the purchase was counted by acquire and has not been released
+     * @modifies this
+     * @effects removes the purchase from the customer's window, unless it has already left it
+     */
+    public void release(String username, long ticket, long amount) {
+        long[] window = windows.get(username);
+        if (window != null) {
+            release(window, (int) (ticket & EPOCH_MASK), amount);
+        }
+    }
+
+    private long[] windowOf(String username, long bucket) {
+        long[] window = windows.get(username);
+        if (window == null) {
+            window = windows.computeIfAbsent(username, key -> new long[BUCKETS + 1]);
+            if (windows.mappingCount() > sweepSize) {
+                sweep(bucket);
+            }
+        } else if (bucket - lastSweep >= SWEEP_INTERVAL) {
+            sweep(bucket);
+        }
+        return window;
+    }
+
+    /**
+     * Adds one purchase to the counter of a bucket. A counter still holding an older bucket is
+     * restarted; one already holding a newer bucket, when this thread was held up, keeps it.
+     */
+    private static void add(long[] window, int epoch, long amount) {
+        int index = epoch & (BUCKETS - 1);
+        long counter;
+        long next;
+        do {
+            counter = (long) COUNTERS.getVolatile(window, index);
+            if (counter == 0 || age(epoch, counter) > 0) {
+                next = ((long) epoch << EPOCH_SHIFT) | (1L << COUNT_SHIFT) | amount;
+            } else {
+                long purchases = Math.min(((counter >>> COUNT_SHIFT) & MAX_PURCHASE_LIMIT) + 1, MAX_PURCHASE_LIMIT);
+                long spent = Math.min((counter & MAX_SPENDING_LIMIT) + amount, MAX_SPENDING_LIMIT);
+                next = (counter & ~((1L << EPOCH_SHIFT) - 1)) | (purchases << COUNT_SHIFT) | spent;
+            }
+        } while (!COUNTERS.compareAndSet(window, index, counter, next));
+    }
+
+    private static void release(long[] window, int epoch, long amount) {
+        int index = epoch & (BUCKETS - 1);
+        long counter;
+        long next;
+        do {
+            counter = (long) COUNTERS.getVolatile(window, index);
+            if (counter == 0 || age(epoch, counter) != 0) {
+                return; // The bucket has been reused, so the purchase has already left the window
+            }
+            long purchases = Math.max(((counter >>> COUNT_SHIFT) & MAX_PURCHASE_LIMIT) - 1, 0);
+            long spent = Math.max((counter & MAX_SPENDING_LIMIT) - amount, 0);
+            next = ((long) epoch << EPOCH_SHIFT) | (purchases << COUNT_SHIFT) | spent;
+        } while (!COUNTERS.compareAndSet(window, index, counter, next));
+    }
+
+    /**
+     * Waits for a sweep of a window that was just counted in to finish.
+     * @effects returns true if the window is still in use, false if the sweep dropped it
+     */
+    private static boolean settle(long[] window) {
+        long state;
+        while ((state = (long) COUNTERS.getVolatile(window, STATE)) == SWEEPING) {
+            Thread.onSpinWait();
+        }
+        return state == ALIVE;
+    }
+
+    /**
+     * Drops the windows whose counters have all left the window. A window is marked SWEEPING
+     * before its counters are read again, and acquire reads the mark after counting, so either
+     * the sweep sees the new purchase and keeps the window or acquire sees the mark and waits.
+     */
+    private void sweep(long bucket) {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int epoch = (int) (bucket & EPOCH_MASK);
+            for (Map.Entry<String, long[]> entry : windows.entrySet()) {
+                long[] window = entry.getValue();
+                if (idle(window, epoch) && COUNTERS.compareAndSet(window, STATE, ALIVE, SWEEPING)) {
+                    if (idle(window, epoch)) {
+                        COUNTERS.setVolatile(window, STATE, GONE);
+                        windows.remove(entry.getKey(), window);
+                    } else {
+                        COUNTERS.setVolatile(window, STATE, ALIVE);
+                    }
+                }
+            }
+            lastSweep = bucket;
+            sweepSize = Math.max(MIN_SWEEP_SIZE, 2 * windows.mappingCount());
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    private static boolean idle(long[] window, int epoch) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long counter = (long) COUNTERS.getVolatile(window, i);
+            if (counter != 0 && age(epoch, counter) < BUCKETS) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns how many buckets before epoch a counter's bucket is, negative if it is after.
+     */
+    private static int age(int epoch, long counter) {
+        int shift = 32 - EPOCH_BITS;
+        return ((epoch - (int) (counter >>> EPOCH_SHIFT)) << shift) >> shift;
+    }
+
+    private IllegalArgumentException spendingLimitExceeded(long spendingLimit) {
+        return new IllegalArgumentException("Purchase would exceed the spending limit of $"
+                + Money.format(spendingLimit) + " per " + describeWindow());
+    }
+
+    private String describeWindow() {
+        if (windowMillis % 60_000 == 0) {
+            return windowMillis == 60_000 ? "minute" : windowMillis / 60_000 + " minutes";
+        }
+        return windowMillis % 1000 == 0 ? windowMillis / 1000 + " seconds" : windowMillis + " ms";
+    }
+
+    public long getWindowMillis() {
+        return this.windowMillis;
+    }
+
+    /**
+     * Returns how many accounts have counters.
+     * @effects returns the number of accounts that purchased recently and have not been dropped
+     */
+    public long size() {
+        return windows.mappingCount();
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        if (bucketNanos <= 0 || sweeping == null) {
+            return false;
+        }
+        for (long[] window : windows.values()) {
+            if (window.length != BUCKETS + 1) {
+                return false;
+            }
+            for (int i = 0; i < BUCKETS; i++) {
+                if (window[i] != 0 && ((window[i] >>> EPOCH_SHIFT) & (BUCKETS - 1)) != i) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "SpendingLimiter{" + "window=" + describeWindow() + ", accounts=" + size() + '}';
+    }
+}
@@ -0,0 +1,139 @@
+package coe528.project;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Overview: The TextFileAccountStore class stores every customer account in its own
+ * "username.txt" file holding the username, password, balance in dollars and the word
+ * "customer" on separate lines. This is the original on-disk layout of the application and is kept
+ * so that existing customer files can be read and migrated.
+ * This class is mutable as customer files can be created, rewritten and deleted.
+ *
+ * Abstraction Function: AF(c) = The set of customer accounts described by the
+ * "username.txt" files in the directory c.directory.
+ *
+ * Representation Invariant: c.directory != null
+ */
+public class TextFileAccountStore implements AccountStore {
+    private final File directory;
+
+    public TextFileAccountStore(File directory) {
+        this.directory = directory;
+    }
+
+    private File fileFor(String username) {
+        return new File(directory, username + ".txt");
+    }
+
+    /**
+     * Reads the lines of a customer file.
+     * @param file the file to read
+     * @effects returns the lines of the file if it is a customer file, null otherwise
+     * @throws IOException if an I/O error occurs
+     */
+    private static List<String> readCustomerLines(File file) throws IOException {
+        List<String> lines = Files.readAllLines(file.toPath());
+        Metrics.getDefault().addBytesRead(file.length());
+        if (lines.size() == 4 && lines.get(3).equals("customer")) {
+            return lines;
+        }
+        return null;
+    }
+
+    private static void write(File file, String username, String password, long balance) throws IOException {
+        String contents = username + "\n" + password + "\n" + Money.format(balance) + "\n" + "customer";
+        try (FileWriter writer = new FileWriter(file, false)) {
+            writer.write(contents);
+        }
+        Metrics.getDefault().addBytesWritten(contents.length());
+    }
+
+    @Override
+    public boolean exists(String username) {
+        return fileFor(username).exists();
+    }
+
+    @Override
+    public Customer load(String username) throws IOException {
+        File customerFile = fileFor(username);
+        if (!customerFile.exists()) {
+            return null;
+        }
+        List<String> lines = readCustomerLines(customerFile);
+        if (lines == null) {
+            return null;
+        }
+        return new Customer(lines.get(0), lines.get(1), Money.parseLegacy(lines.get(2)));
+    }
+
+    @Override
+    public void create(String username, String password, long balance) throws IOException {
+        File customerFile = fileFor(username);
+        if (customerFile.exists()) {
+            throw new IllegalArgumentException("Customer already exists");
+        }
+        write(customerFile, username, password, balance);
+    }
+
+    @Override
+    public void save(Customer customer) throws IOException {
+        File customerFile = fileFor(customer.getUsername());
+        if (!customerFile.exists()) {
+            throw new IllegalArgumentException("Customer does not exist");
+        }
+        write(customerFile, customer.getUsername(), customer.getPassword(), customer.getBalance());
+    }
+
+    @Override
+    public void delete(String username) throws IOException {
+        File customerFile = fileFor(username);
+        if (!customerFile.exists()) {
+            throw new IllegalArgumentException("Customer does not exist");
+        }
+        Files.delete(customerFile.toPath());
+    }
+
+    @Override
+    public List<String> usernames() throws IOException {
+        List<String> usernames = new ArrayList<>();
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".txt"));
+        if (files == null) {
+            return usernames;
+        }
+        for (File file : files) {
+            List<String> lines = readCustomerLines(file);
+            if (lines != null) {
+                usernames.add(lines.get(0));
+            }
+        }
+        return usernames;
+    }
+
+    @Override
+    public void flush() {
+        // Every change is written through to its file immediately
+    }
+
+    @Override
+    public void close() {
+        // No resources are held open
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        return directory != null;
+    }
+
+    @Override
+    public String toString() {
+        return "TextFileAccountStore{" + "directory=" + directory + '}';
+    }
+}
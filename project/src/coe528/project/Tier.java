@@ -0,0 +1,130 @@
+package coe528.project;
+
+/**
+ * Overview: A Tier is one membership level of the bank, such as Silver, Gold or Platinum.
+ * It is responsible for the rules that depend on a customer's level: the lowest balance
+ * that qualifies for the tier, the fee charged on each online purchase, and the interest
+ * paid and maintenance fee charged at the end of each month, and the velocity rules on online
+ * purchases: the most that may be spent, and the most purchases that may be made, within the
+ * rolling window of the bank's SpendingLimiter.
+ * Tiers are created once by a TierTable and shared by every customer at that level.
+ * This class is immutable.
+ *
+ * Abstraction Function: AF(c) = The tier named c.name, ranked c.rank from the lowest tier,
+ * that applies to balances of at least c.minimumBalance cents, charges c.purchaseFee
+ * cents per online purchase, pays c.interestBasisPoints / 100 percent interest a year and
+ * charges c.monthlyFee cents a month, and allows online purchases of at most c.spendingLimit
+ * cents and at most c.purchaseLimit purchases per window, where 0 means no limit.
+ *
+ * Representation Invariant: c.name != null && !c.name.isEmpty() && c.rank >= 0 && c.purchaseFee >= 0 &&
+ * c.interestBasisPoints >= 0 && c.monthlyFee >= 0 && c.spendingLimit >= 0 && c.purchaseLimit >= 0
+ */
+public final class Tier {
+    private final String name;
+    private final int rank;
+    private final long minimumBalance;
+    private final long purchaseFee;
+    private final int interestBasisPoints;
+    private final long monthlyFee;
+    private final long spendingLimit;
+    private final int purchaseLimit;
+
+    public Tier(String name, int rank, long minimumBalance, long purchaseFee) {
+        this(name, rank, minimumBalance, purchaseFee, 0, 0);
+    }
+
+    public Tier(String name, int rank, long minimumBalance, long purchaseFee, int interestBasisPoints, long monthlyFee) {
+        this(name, rank, minimumBalance, purchaseFee, interestBasisPoints, monthlyFee, 0, 0);
+    }
+
+    public Tier(String name, int rank, long minimumBalance, long purchaseFee, int interestBasisPoints, long monthlyFee,
+            long spendingLimit, int purchaseLimit) {
+        this.name = name;
+        this.rank = rank;
+        this.minimumBalance = minimumBalance;
+        this.purchaseFee = purchaseFee;
+        this.interestBasisPoints = interestBasisPoints;
+        this.monthlyFee = monthlyFee;
+        this.spendingLimit = spendingLimit;
+        this.purchaseLimit = purchaseLimit;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public int getRank() {
+        return this.rank;
+    }
+
+    public long getMinimumBalance() {
+        return this.minimumBalance;
+    }
+
+    public long getPurchaseFee() {
+        return this.purchaseFee;
+    }
+
+    public int getInterestBasisPoints() {
+        return this.interestBasisPoints;
+    }
+
+    public long getMonthlyFee() {
+        return this.monthlyFee;
+    }
+
+    /**
+     * Returns the most a customer at this tier may spend on online purchases in one window.
+     * @effects returns the limit in cents, or 0 if there is none
+     */
+    public long getSpendingLimit() {
+        return this.spendingLimit;
+    }
+
+    /**
+     * Returns the most online purchases a customer at this tier may make in one window.
+     * @effects returns the limit, or 0 if there is none
+     */
+    public int getPurchaseLimit() {
+        return this.purchaseLimit;
+    }
+
+    /**
+     * Returns one month of interest on a balance.
+     * @param balance the balance in cents
+     * @requires balance >= 0
+     * @effects returns a twelfth of the yearly interest on balance, rounded down to a whole cent
+     */
+    public long monthlyInterest(long balance) {
+        return Math.multiplyExact(balance, (long) interestBasisPoints) / (12 * 10000);
+    }
+
+    /**
+     * Returns the balance left after the month-end interest and maintenance fee.
+     * @param balance the balance in cents at the end of the month
+     * @requires balance >= 0
+     * @effects returns balance plus monthlyInterest(balance) minus the monthly fee, where the fee
+     *          is limited so the result is never negative
+     */
+    public long monthEndBalance(long balance) {
+        long credited = Math.addExact(balance, monthlyInterest(balance));
+        return credited - Math.min(monthlyFee, credited);
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        return name != null && !name.isEmpty() && rank >= 0 && purchaseFee >= 0 && interestBasisPoints >= 0
+                && monthlyFee >= 0 && spendingLimit >= 0 && purchaseLimit >= 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Tier{" + "name='" + name + '\'' + ", rank=" + rank + ", minimumBalance=" + Money.format(minimumBalance)
+                + ", purchaseFee=" + Money.format(purchaseFee) + ", interestBasisPoints=" + interestBasisPoints
+                + ", monthlyFee=" + Money.format(monthlyFee) + ", spendingLimit=" + Money.format(spendingLimit)
+                + ", purchaseLimit=" + purchaseLimit + '}';
+    }
+}
@@ -0,0 +1,260 @@
+package coe528.project;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Overview: The TierTable class holds the membership tiers of the bank ordered by the
+ * lowest balance that qualifies for each, and finds the tier for a balance with a binary
+ * search over those thresholds. Tiers are read from a properties file, so tiers can be
+ * added or their thresholds and fees changed without code changes:
+ * <pre>
+ * tiers=Silver,Gold,Platinum
+ * Silver.minBalance=0
+ * Silver.purchaseFee=20
+ * Gold.minBalance=10000
+ * Gold.interestRate=0.5
+ * Gold.monthlyFee=0
+ * Gold.spendingLimit=10000
+ * Gold.purchaseLimit=10
+ * ...
+ * </pre>
+ * Amounts are written in dollars and interest rates as yearly percentages. A tier without an
+ * interestRate or monthlyFee pays no interest or charges no fee at the end of the month, and
+ * one without a spendingLimit or purchaseLimit has no limit on how much it spends or how many
+ * purchases it makes in each window of the SpendingLimiter. The default table is read from the file named by the
+ * bank.tiers system property, or from the tiers.properties resource next to this class.
+ * This class is immutable.
+ *
+ * Abstraction Function: AF(c) = The tiers c.tiers[0..n-1], where a balance b belongs to
+ * c.tiers[i] for the largest i with c.thresholds[i] <= b, or to c.tiers[0] if there is none.
+ *
+ * Representation Invariant: c.tiers.length > 0 && c.tiers.length == c.thresholds.length &&
+ * c.thresholds is strictly increasing && c.tiers[i].getMinimumBalance() == c.thresholds[i] &&
+ * c.tiers[i].getRank() == i
+ */
+public final class TierTable {
+    private static final String RESOURCE = "tiers.properties";
+
+    private final Tier[] tiers;
+    private final long[] thresholds;
+
+    /**
+     * Overview: Holds the default table, which is loaded the first time it is used.
+     */
+    private static final class DefaultHolder {
+        static final TierTable DEFAULT = loadDefault();
+    }
+
+    /**
+     * Creates a table from tiers given in any order.
+     * @param tiers the tiers of the table
+     * @requires tiers is not empty, no two tiers have the same minimum balance and every tier's
+     *           limits are at most SpendingLimiter.MAX_SPENDING_LIMIT and SpendingLimiter.MAX_PURCHASE_LIMIT
+     * @effects creates a table of the tiers ordered by minimum balance, renumbering their ranks from 0
+     * @throws IllegalArgumentException if tiers is empty, two tiers have the same minimum balance
+     *         or a tier's limit is larger than a SpendingLimiter can count
+     */
+    public TierTable(List<Tier> tiers) {
+        if (tiers.isEmpty()) {
+            throw new IllegalArgumentException("At least one tier is required");
+        }
+        List<Tier> sorted = new ArrayList<>(tiers);
+        sorted.sort((a, b) -> Long.compare(a.getMinimumBalance(), b.getMinimumBalance()));
+        this.tiers = new Tier[sorted.size()];
+        this.thresholds = new long[sorted.size()];
+        for (int i = 0; i < this.tiers.length; i++) {
+            Tier tier = sorted.get(i);
+            if (i > 0 && tier.getMinimumBalance() == thresholds[i - 1]) {
+                throw new IllegalArgumentException("Tiers " + this.tiers[i - 1].getName() + " and "
+                        + tier.getName() + " have the same minimum balance");
+            }
+            if (tier.getSpendingLimit() > SpendingLimiter.MAX_SPENDING_LIMIT
+                    || tier.getPurchaseLimit() > SpendingLimiter.MAX_PURCHASE_LIMIT) {
+                throw new IllegalArgumentException("Tier " + tier.getName() + " has a limit larger than $"
+                        + Money.format(SpendingLimiter.MAX_SPENDING_LIMIT) + " or "
+                        + SpendingLimiter.MAX_PURCHASE_LIMIT + " purchases");
+            }
+            this.tiers[i] = new Tier(tier.getName(), i, tier.getMinimumBalance(), tier.getPurchaseFee(),
+                    tier.getInterestBasisPoints(), tier.getMonthlyFee(), tier.getSpendingLimit(), tier.getPurchaseLimit());
+            this.thresholds[i] = tier.getMinimumBalance();
+        }
+    }
+
+    /**
+     * Returns the table used by customers that are not given one explicitly.
+     * @effects returns the table loaded from the bank.tiers file, the tiers.properties
+     *          resource, or the built-in Silver, Gold and Platinum tiers, in that order of preference
+     * @throws UncheckedIOException if the configured tier file cannot be read
+     * @throws IllegalArgumentException if the tier configuration is invalid
+     */
+    public static TierTable getDefault() {
+        return DefaultHolder.DEFAULT;
+    }
+
+    private static TierTable loadDefault() {
+        try {
+            String file = System.getProperty("bank.tiers");
+            if (file != null) {
+                try (InputStream in = new FileInputStream(file)) {
+                    return load(in);
+                }
+            }
+            try (InputStream in = TierTable.class.getResourceAsStream(RESOURCE)) {
+                if (in != null) {
+                    return load(in);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load tier configuration", e);
+        }
+        return new TierTable(List.of(
+                new Tier("Silver", 0, 0, Money.ofDollars(20), 10, Money.ofDollars(5), Money.ofDollars(2500), 5),
+                new Tier("Gold", 1, Money.ofDollars(10000), Money.ofDollars(10), 50, 0, Money.ofDollars(10000), 10),
+                new Tier("Platinum", 2, Money.ofDollars(20000), 0, 100, 0, Money.ofDollars(25000), 20)));
+    }
+
+    /**
+     * Reads a table from a tier properties file.
+     * @param in the properties to read
+     * @effects returns the table described by the properties
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if a tier is missing a setting or has an invalid amount
+     */
+    public static TierTable load(InputStream in) throws IOException {
+        Properties properties = new Properties();
+        properties.load(in);
+        return fromProperties(properties);
+    }
+
+    /**
+     * Builds a table from tier properties.
+     * @param properties the tier settings
+     * @effects returns the table described by the properties
+     * @throws IllegalArgumentException if a tier is missing a setting or has an invalid amount
+     */
+    public static TierTable fromProperties(Properties properties) {
+        String names = properties.getProperty("tiers");
+        if (names == null || names.isBlank()) {
+            throw new IllegalArgumentException("Tier configuration has no tiers");
+        }
+        List<Tier> tiers = new ArrayList<>();
+        for (String name : names.split(",")) {
+            name = name.trim();
+            tiers.add(new Tier(name, tiers.size(), amount(properties, name + ".minBalance"),
+                    amount(properties, name + ".purchaseFee"), basisPoints(properties, name + ".interestRate"),
+                    properties.containsKey(name + ".monthlyFee") ? amount(properties, name + ".monthlyFee") : 0,
+                    properties.containsKey(name + ".spendingLimit") ? amount(properties, name + ".spendingLimit") : 0,
+                    count(properties, name + ".purchaseLimit")));
+        }
+        return new TierTable(tiers);
+    }
+
+    private static int basisPoints(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            int basisPoints = new BigDecimal(value.trim()).movePointRight(2).intValueExact();
+            if (basisPoints < 0) {
+                throw new IllegalArgumentException("Negative interest rate for " + key + ": " + value);
+            }
+            return basisPoints;
+        } catch (ArithmeticException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid interest rate for " + key + ": " + value, e);
+        }
+    }
+
+    private static int count(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            int count = Integer.parseInt(value.trim());
+            if (count < 0) {
+                throw new IllegalArgumentException("Negative count for " + key + ": " + value);
+            }
+            return count;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid count for " + key + ": " + value, e);
+        }
+    }
+
+    private static long amount(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            throw new IllegalArgumentException("Tier configuration is missing " + key);
+        }
+        try {
+            return Money.parse(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid amount for " + key + ": " + value, e);
+        }
+    }
+
+    /**
+     * Returns the tier for a balance.
+     * @param balance the balance in cents
+     * @effects returns the highest tier whose minimum balance is at most balance,
+     *          or the lowest tier if there is none
+     */
+    public Tier tierFor(long balance) {
+        int index = Arrays.binarySearch(thresholds, balance);
+        if (index < 0) {
+            index = -index - 2; // The tier below the insertion point
+        }
+        return tiers[Math.max(index, 0)];
+    }
+
+    /**
+     * Returns the lowest tier.
+     * @effects returns the tier with rank 0
+     */
+    public Tier lowest() {
+        return tiers[0];
+    }
+
+    /**
+     * Returns the tiers from lowest to highest.
+     * @effects returns an unmodifiable list of the tiers
+     */
+    public List<Tier> getTiers() {
+        return Collections.unmodifiableList(Arrays.asList(tiers));
+    }
+
+    public int size() {
+        return tiers.length;
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        if (tiers.length == 0 || tiers.length != thresholds.length) {
+            return false;
+        }
+        for (int i = 0; i < tiers.length; i++) {
+            if ((i > 0 && thresholds[i] <= thresholds[i - 1])
+                    || tiers[i].getMinimumBalance() != thresholds[i] || tiers[i].getRank() != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "TierTable{" + "tiers=" + Arrays.toString(tiers) + '}';
+    }
+}
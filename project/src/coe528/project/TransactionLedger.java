@@ -0,0 +1,452 @@
+package coe528.project;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Overview: The TransactionLedger class keeps the transaction history of every customer.
+ * Entries are appended to a single file of fixed-size 33-byte binary records:
+ * account id (int), time in milliseconds (long), transaction type code (byte), amount (long),
+ * fee (int) and balance after the transaction (long), all amounts in cents. Usernames are
+ * stored once in a separate dictionary file that assigns each account its id.
+ * For each account the ledger keeps in memory only the record numbers of its entries, 4 bytes
+ * per entry in time order, so the last N entries or the entries between two times are read by
+ * seeking directly to their records (a binary search over the record times for time ranges)
+ * instead of scanning the file.
+ * When an account is deleted its id is retired: its entries stay in the file, but a new
+ * account created later with the same username gets a new id and starts with an empty history.
+ * A retired id is recorded in the dictionary as an empty name followed by the username, which
+ * cannot be confused with an account since usernames are never empty.
+ * This class is mutable as entries are appended.
+ *
+ * Abstraction Function: AF(c) = For each username u with id i = c.ids.get(u), the sequence of
+ * entries stored in the records c.histories.get(i)[0..size-1] of c.ledger, oldest first.
+ *
+ * Representation Invariant: c.ledger != null && c.accounts != null &&
+ * the values of c.ids are distinct indices of c.histories && every record number in c.histories
+ * is less than c.records
+ */
+public class TransactionLedger implements Closeable {
+    public static final int RECORD_BYTES = 33;
+
+    private final File directory;
+    private final FileChannel ledger;
+    private final FileChannel accounts;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<History> histories = new ArrayList<>();
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+    private final ByteBuffer pair = ByteBuffer.allocate(2 * RECORD_BYTES);
+    private long records;
+    private long accountsSize;
+    private long lastTimestamp;
+
+    /**
+     * Overview: A History holds the record numbers of one account's entries, oldest first.
+     */
+    private static final class History {
+        int[] records = new int[4];
+        int size;
+
+        void add(int recordNumber) {
+            if (size == records.length) {
+                int[] grown = new int[size * 2];
+                System.arraycopy(records, 0, grown, 0, size);
+                records = grown;
+            }
+            records[size++] = recordNumber;
+        }
+    }
+
+    /**
+     * Opens or creates the ledger in a directory, rebuilding the per-account index.
+     * Records that were only partly written at the end of either file are discarded.
+     * @param directory the directory holding the ledger files
+     * @effects opens the ledger
+     * @throws IOException if the files cannot be opened or read
+     */
+    public TransactionLedger(File directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory.toPath());
+        accounts = FileChannel.open(new File(directory, "accounts.dat").toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ledger = FileChannel.open(new File(directory, "ledger.dat").toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        loadAccounts();
+        loadLedger();
+    }
+
+    private void loadAccounts() throws IOException {
+        byte[] bytes = new byte[(int) accounts.size()];
+        readFully(accounts, ByteBuffer.wrap(bytes), 0);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        long position = 0;
+        try {
+            while (in.available() > 0) {
+                String username = in.readUTF();
+                if (username.isEmpty()) {
+                    ids.remove(in.readUTF()); // Retired when its account was deleted
+                } else {
+                    ids.put(username, histories.size());
+                    histories.add(new History());
+                }
+                position = bytes.length - in.available();
+            }
+        } catch (IOException e) {
+            accounts.truncate(position); // Torn write from a crash
+        }
+        accountsSize = position;
+    }
+
+    private void loadLedger() throws IOException {
+        long complete = ledger.size() / RECORD_BYTES;
+        if (complete > Integer.MAX_VALUE) {
+            throw new IOException("Ledger has more records than can be indexed");
+        }
+        ledger.truncate(complete * RECORD_BYTES);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_BYTES * 32768);
+        long position = 0;
+        int recordNumber = 0;
+        while (recordNumber < complete) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), complete * RECORD_BYTES - position));
+            readFully(ledger, buffer, position);
+            buffer.flip();
+            while (buffer.remaining() >= RECORD_BYTES) {
+                int start = buffer.position();
+                int id = buffer.getInt(start);
+                long timestamp = buffer.getLong(start + 4);
+                if (id >= 0 && id < histories.size()) {
+                    histories.get(id).add(recordNumber);
+                }
+                lastTimestamp = Math.max(lastTimestamp, timestamp);
+                buffer.position(start + RECORD_BYTES);
+                recordNumber++;
+            }
+            position += buffer.limit();
+        }
+        records = complete;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of ledger");
+            }
+            position += read;
+        }
+        Metrics.getDefault().addBytesRead(length);
+    }
+
+    private int idFor(String username) throws IOException {
+        Integer id = ids.get(username);
+        if (id != null) {
+            return id;
+        }
+        writeAccount(username);
+        id = histories.size();
+        ids.put(username, id);
+        histories.add(new History());
+        return id;
+    }
+
+    private void writeAccount(String... names) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        while (buffer.hasRemaining()) {
+            accountsSize += accounts.write(buffer, accountsSize);
+        }
+        Metrics.getDefault().addBytesWritten(buffer.limit());
+    }
+
+    /**
+     * Retires the id of a deleted account, so that an account created later with the same
+     * username does not see the deleted account's history.
+     * @param username the username of the deleted account
+     * @modifies this
+     * @effects if username has a history, durably records that its id is retired, after which
+     *          username has no entries until new ones are appended
+     * @throws IOException if the dictionary cannot be written
+     */
+    public synchronized void retire(String username) throws IOException {
+        if (!ids.containsKey(username)) {
+            return;
+        }
+        writeAccount("", username);
+        accounts.force(false);
+        ids.remove(username);
+    }
+
+    /**
+     * Appends an entry to a customer's history.
+     * @param username the customer's username
+     * @param type the kind of transaction
+     * @param amount the transaction amount in cents
+     * @param fee the fee charged in cents
+     * @param balanceAfter the balance after the transaction in cents
+     * @requires amount >= 0 && 0 <= fee <= Integer.MAX_VALUE
+     * @modifies this
+     * @effects appends an entry timestamped now (never earlier than the previous entry) and returns it
+     * @throws IOException if the entry cannot be written
+     */
+    public synchronized LedgerEntry append(String username, TransactionType type, long amount, long fee,
+            long balanceAfter) throws IOException {
+        return append(username, type, amount, fee, balanceAfter, System.currentTimeMillis());
+    }
+
+    private LedgerEntry append(String username, TransactionType type, long amount, long fee, long balanceAfter,
+            long timestamp) throws IOException {
+        if (records >= Integer.MAX_VALUE) {
+            throw new IOException("Ledger is full");
+        }
+        int id = idFor(username);
+        timestamp = Math.max(timestamp, lastTimestamp);
+        record.clear();
+        put(record, id, timestamp, type, amount, fee, balanceAfter);
+        write(record);
+        histories.get(id).add((int) records++);
+        lastTimestamp = timestamp;
+        return new LedgerEntry(timestamp, type, amount, fee, balanceAfter);
+    }
+
+    /**
+     * Appends the two entries of a transfer, one to each customer's history, in a single write
+     * and with the same time.
+     * @param from the username of the customer who sent the money
+     * @param to the username of the customer who received it
+     * @param amount the amount transferred in cents
+     * @param fromBalanceAfter the sender's balance after the transfer in cents
+     * @param toBalanceAfter the recipient's balance after the transfer in cents
+     * @requires amount >= 0
+     * @modifies this
+     * @effects appends a TRANSFER_OUT entry to the history of from and a TRANSFER_IN entry to the
+     *          history of to, both timestamped now, and returns the TRANSFER_OUT entry
+     * @throws IOException if the entries cannot be written
+     */
+    public LedgerEntry appendTransfer(String from, String to, long amount, long fromBalanceAfter,
+            long toBalanceAfter) throws IOException {
+        return appendTransfer(from, to, amount, fromBalanceAfter, toBalanceAfter, System.currentTimeMillis());
+    }
+
+    /**
+     * Appends the two entries of a transfer made at a given time, one to each customer's history,
+     * in a single write.
+     * @param timestamp the time of the transfer in milliseconds since the epoch
+     * @requires amount >= 0
+     * @modifies this
+     * @effects appends a TRANSFER_OUT entry to the history of from and a TRANSFER_IN entry to the
+     *          history of to, both timestamped timestamp (or the previous entry's time if that is
+     *          later), and returns the TRANSFER_OUT entry
+     * @throws IOException if the entries cannot be written
+     */
+    public synchronized LedgerEntry appendTransfer(String from, String to, long amount, long fromBalanceAfter,
+            long toBalanceAfter, long timestamp) throws IOException {
+        if (records >= Integer.MAX_VALUE - 1) {
+            throw new IOException("Ledger is full");
+        }
+        int fromId = idFor(from);
+        int toId = idFor(to);
+        timestamp = Math.max(timestamp, lastTimestamp);
+        pair.clear();
+        put(pair, fromId, timestamp, TransactionType.TRANSFER_OUT, amount, 0, fromBalanceAfter);
+        put(pair, toId, timestamp, TransactionType.TRANSFER_IN, amount, 0, toBalanceAfter);
+        write(pair);
+        histories.get(fromId).add((int) records++);
+        histories.get(toId).add((int) records++);
+        lastTimestamp = timestamp;
+        return new LedgerEntry(timestamp, TransactionType.TRANSFER_OUT, amount, 0, fromBalanceAfter);
+    }
+
+    /**
+     * Restores the entries of a transfer recovered from the journal, appending only those that
+     * did not reach the ledger before a crash. Each history records how many entries it held
+     * before the transfer, so an entry is present exactly when its history has grown past that.
+     * @param fromEntry the number of entries in the history of from before the transfer
+     * @param toEntry the number of entries in the history of to before the transfer
+     * @requires amount >= 0 && every later entry of from and to was appended after this transfer
+     * @modifies this
+     * @effects appends the TRANSFER_OUT entry to the history of from if count(from) <= fromEntry
+     *          and the TRANSFER_IN entry to the history of to if count(to) <= toEntry
+     * @throws IOException if the entries cannot be written
+     */
+    public synchronized void restoreTransfer(String from, int fromEntry, String to, int toEntry, long amount,
+            long fromBalanceAfter, long toBalanceAfter, long timestamp) throws IOException {
+        if (count(from) <= fromEntry) {
+            append(from, TransactionType.TRANSFER_OUT, amount, 0, fromBalanceAfter, timestamp);
+        }
+        if (count(to) <= toEntry) {
+            append(to, TransactionType.TRANSFER_IN, amount, 0, toBalanceAfter, timestamp);
+        }
+    }
+
+    private static void put(ByteBuffer buffer, int id, long timestamp, TransactionType type, long amount, long fee,
+            long balanceAfter) {
+        buffer.putInt(id).putLong(timestamp).put(type.getCode()).putLong(amount).putInt(Math.toIntExact(fee))
+                .putLong(balanceAfter);
+    }
+
+    /**
+     * Writes whole records after the last one.
+     * @requires buffer holds whole records and has not been flipped
+     * @modifies the ledger file
+     * @effects writes the records of buffer at record number records
+     */
+    private void write(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        int length = buffer.remaining();
+        long position = records * RECORD_BYTES;
+        while (buffer.hasRemaining()) {
+            position += ledger.write(buffer, position);
+        }
+        Metrics.getDefault().addBytesWritten(length);
+    }
+
+    private LedgerEntry read(int recordNumber) throws IOException {
+        record.clear();
+        readFully(ledger, record, (long) recordNumber * RECORD_BYTES);
+        record.flip();
+        record.getInt();
+        long timestamp = record.getLong();
+        TransactionType type = TransactionType.fromCode(record.get());
+        long amount = record.getLong();
+        long fee = record.getInt();
+        long balanceAfter = record.getLong();
+        return new LedgerEntry(timestamp, type, amount, fee, balanceAfter);
+    }
+
+    private long timestampOf(int recordNumber) throws IOException {
+        ByteBuffer timestamp = ByteBuffer.allocate(8);
+        readFully(ledger, timestamp, (long) recordNumber * RECORD_BYTES + 4);
+        return timestamp.getLong(0);
+    }
+
+    /**
+     * Returns a customer's most recent entries.
+     * @param username the customer's username
+     * @param n the maximum number of entries
+     * @effects returns up to n of the customer's latest entries, newest first
+     * @throws IOException if the entries cannot be read
+     */
+    public synchronized List<LedgerEntry> last(String username, int n) throws IOException {
+        List<LedgerEntry> entries = new ArrayList<>();
+        Integer id = ids.get(username);
+        if (id == null) {
+            return entries;
+        }
+        History history = histories.get(id);
+        for (int i = history.size - 1; i >= 0 && entries.size() < n; i--) {
+            entries.add(read(history.records[i]));
+        }
+        return entries;
+    }
+
+    /**
+     * Returns a customer's entries in a time range.
+     * @param username the customer's username
+     * @param fromMillis the start of the range, inclusive, in milliseconds since the epoch
+     * @param toMillis the end of the range, exclusive, in milliseconds since the epoch
+     * @param limit the maximum number of entries
+     * @effects returns up to limit of the customer's entries with fromMillis <= time < toMillis, oldest first
+     * @throws IOException if the entries cannot be read
+     */
+    public synchronized List<LedgerEntry> between(String username, long fromMillis, long toMillis, int limit)
+            throws IOException {
+        List<LedgerEntry> entries = new ArrayList<>();
+        Integer id = ids.get(username);
+        if (id == null) {
+            return entries;
+        }
+        History history = histories.get(id);
+        // Binary search for the first entry at or after fromMillis
+        int low = 0;
+        int high = history.size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (timestampOf(history.records[middle]) < fromMillis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < history.size && entries.size() < limit; i++) {
+            LedgerEntry entry = read(history.records[i]);
+            if (entry.getTimestamp() >= toMillis) {
+                break;
+            }
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the number of entries in a customer's history.
+     * @effects returns the number of entries recorded for username
+     */
+    public synchronized int count(String username) {
+        Integer id = ids.get(username);
+        return id == null ? 0 : histories.get(id).size;
+    }
+
+    /**
+     * Forces the ledger to disk.
+     * @throws IOException if an I/O error occurs
+     */
+    public synchronized void flush() throws IOException {
+        accounts.force(false);
+        ledger.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        accounts.close();
+        ledger.close();
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public synchronized boolean repOK() {
+        if (ledger == null || accounts == null || new HashSet<>(ids.values()).size() != ids.size()) {
+            return false;
+        }
+        for (int id : ids.values()) {
+            if (id < 0 || id >= histories.size()) {
+                return false;
+            }
+        }
+        for (History history : histories) {
+            for (int i = 0; i < history.size; i++) {
+                if (history.records[i] >= records) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TransactionLedger{" + "directory=" + directory + ", accounts=" + ids.size() + ", records=" + records + '}';
+    }
+}
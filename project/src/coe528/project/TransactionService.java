@@ -0,0 +1,551 @@
+package coe528.project;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Overview: The TransactionService class is the headless entry point to the bank's business
+ * operations: customer and manager login, deposits, withdrawals, online purchases, transfers
+ * between customers and adding or deleting customers. Each operation applies the Customer and
+ * Manager rules and persists the result, so the JavaFX interface and non-UI callers such as
+ * batch jobs, load tests and servers all run exactly the same logic. When a TransactionLedger
+ * is given, every deposit, withdrawal, purchase and transfer is also recorded in the history
+ * of each customer involved. Each purchase must also pass the velocity rules of the customer's
+ * tier, counted in memory by a SpendingLimiter before the balance changes.
+ * Each transaction holds the AccountLocks of its accounts from the balance change until it is
+ * stored and recorded, so the balance stored and recorded is the one it produced. A transfer
+ * holds both accounts (taken in a fixed order, so transfers cannot deadlock). When the store is
+ * a JournaledAccountStore that keeps the ledger, both balances and both transfer entries are
+ * committed in one durable journal record; otherwise both balances are stored with a single
+ * saveAll and the entries are appended to the ledger afterwards.
+ * Every operation records its latency and outcome in the default Metrics, as does each save
+ * of a customer to the store (store.save).
+ * This class is mutable as its operations change the accounts held in the store.
+ *
+ * Abstraction Function: AF(c) = The bank whose customer accounts are held in c.store and
+ * which is managed by c.manager.
+ *
+ * Representation Invariant: c.store != null && c.manager != null && c.manager.getStore() == c.store &&
+ * c.limiter != null
+ */
+public class TransactionService {
+    private final AccountStore store;
+    private final Manager manager;
+    private final TransactionLedger ledger;
+    // The store, if it commits transfers together with their entries in ledger; otherwise null
+    private final JournaledAccountStore transferStore;
+    private final AccountLocks locks = new AccountLocks();
+    private final SpendingLimiter limiter;
+    private final OperationMetrics loginMetrics;
+    private final OperationMetrics managerLoginMetrics;
+    private final OperationMetrics depositMetrics;
+    private final OperationMetrics withdrawMetrics;
+    private final OperationMetrics purchaseMetrics;
+    private final OperationMetrics transferMetrics;
+    private final OperationMetrics saveMetrics;
+    private final OperationMetrics addCustomerMetrics;
+    private final OperationMetrics addCustomersMetrics;
+    private final OperationMetrics deleteCustomerMetrics;
+    private final OperationMetrics listCustomersMetrics;
+    private final OperationMetrics findCustomersMetrics;
+    private final OperationMetrics historyMetrics;
+
+    public TransactionService(Manager manager) {
+        this(manager, null);
+    }
+
+    /**
+     * Creates a service that records every transaction in a ledger.
+     * @param manager the bank's manager
+     * @param ledger the transaction history, or null to keep no history
+     */
+    public TransactionService(Manager manager, TransactionLedger ledger) {
+        this(manager, ledger, new SpendingLimiter());
+    }
+
+    /**
+     * Creates a service that records every transaction in a ledger and limits purchases with limiter.
+     * @param manager the bank's manager
+     * @param ledger the transaction history, or null to keep no history
+     * @param limiter the counters of each customer's recent purchases
+     * @requires limiter != null
+     */
+    public TransactionService(Manager manager, TransactionLedger ledger, SpendingLimiter limiter) {
+        this.manager = manager;
+        this.store = manager.getStore();
+        this.ledger = ledger;
+        this.transferStore = ledger != null && store instanceof JournaledAccountStore
+                && ((JournaledAccountStore) store).getLedger() == ledger ? (JournaledAccountStore) store : null;
+        this.limiter = limiter;
+        Metrics metrics = Metrics.getDefault();
+        this.loginMetrics = metrics.operation("login");
+        this.managerLoginMetrics = metrics.operation("managerLogin");
+        this.depositMetrics = metrics.operation("deposit");
+        this.withdrawMetrics = metrics.operation("withdraw");
+        this.purchaseMetrics = metrics.operation("purchase");
+        this.transferMetrics = metrics.operation("transfer");
+        this.saveMetrics = metrics.operation("store.save");
+        this.addCustomerMetrics = metrics.operation("addCustomer");
+        this.addCustomersMetrics = metrics.operation("addCustomers");
+        this.deleteCustomerMetrics = metrics.operation("deleteCustomer");
+        this.listCustomersMetrics = metrics.operation("listCustomers");
+        this.findCustomersMetrics = metrics.operation("findCustomers");
+        this.historyMetrics = metrics.operation("history");
+    }
+
+    public AccountStore getStore() {
+        return this.store;
+    }
+
+    public Manager getManager() {
+        return this.manager;
+    }
+
+    public TransactionLedger getLedger() {
+        return this.ledger;
+    }
+
+    /**
+     * Returns the locks that serialize changes to each account, for batch jobs that change
+     * accounts outside this service.
+     * @effects returns the locks held by every operation of this service
+     */
+    public AccountLocks getLocks() {
+        return this.locks;
+    }
+
+    public SpendingLimiter getLimiter() {
+        return this.limiter;
+    }
+
+    /**
+     * Logs a customer in.
+     * @param username the customer's username
+     * @param password the customer's password
+     * @effects returns the customer with the given username and password
+     * @throws IllegalArgumentException if the customer does not exist or the password is wrong
+     * @throws IOException if an I/O error occurs
+     */
+    public Customer login(String username, String password) throws IOException {
+        return loginMetrics.time(() -> {
+            Customer customer = store.load(username);
+            if (customer == null) {
+                throw new IllegalArgumentException("Customer does not exist.");
+            }
+            if (!customer.checkPassword(password)) {
+                throw new IllegalArgumentException("Invalid username or password.");
+            }
+            return customer;
+        });
+    }
+
+    /**
+     * Looks up a customer without checking a password, for trusted callers such as batch jobs.
+     * @param username the customer's username
+     * @effects returns the customer with the given username
+     * @throws IllegalArgumentException if the customer does not exist
+     * @throws IOException if an I/O error occurs
+     */
+    public Customer find(String username) throws IOException {
+        Customer customer = store.load(username);
+        if (customer == null) {
+            throw new IllegalArgumentException("Customer does not exist.");
+        }
+        return customer;
+    }
+
+    /**
+     * Logs the manager in.
+     * @param username the manager's username
+     * @param password the manager's password
+     * @effects returns the manager if the username and password are the manager's
+     * @throws IllegalArgumentException if the username or password is wrong
+     */
+    public Manager managerLogin(String username, String password) {
+        long start = System.nanoTime();
+        if (!manager.getUsername().equals(username) || !manager.getPassword().equals(password)) {
+            managerLoginMetrics.record(OperationMetrics.Outcome.REJECTED, System.nanoTime() - start);
+            throw new IllegalArgumentException("Invalid username or password.");
+        }
+        managerLoginMetrics.record(OperationMetrics.Outcome.OK, System.nanoTime() - start);
+        return manager;
+    }
+
+    /**
+     * Deposits money into a customer's account and stores the new balance.
+     * @param customer the customer
+     * @param amount the amount to deposit in cents
+     * @requires amount > 0
+     * @modifies customer, the account store
+     * @effects adds amount to the customer's balance, saves the customer and returns the recorded transaction
+     * @throws IllegalArgumentException if amount is not positive
+     * @throws IOException if the new balance cannot be stored, in which case the balance is restored
+     */
+    public LedgerEntry deposit(Customer customer, long amount) throws IOException {
+        return depositMetrics.time(() -> {
+            locks.lock(customer.getUsername());
+            try {
+                customer.deposit(amount);
+                try {
+                    save(customer);
+                } catch (IOException | RuntimeException e) {
+                    customer.withdraw(amount); // The balance was not stored, so take the money back out
+                    throw e;
+                }
+                return record(customer, TransactionType.DEPOSIT, amount, 0);
+            } finally {
+                locks.unlock(customer.getUsername());
+            }
+        });
+    }
+
+    /**
+     * Withdraws money from a customer's account and stores the new balance.
+     * @param customer the customer
+     * @param amount the amount to withdraw in cents
+     * @requires amount > 0 && amount <= customer.getBalance()
+     * @modifies customer, the account store
+     * @effects subtracts amount from the customer's balance, saves the customer and returns the recorded transaction
+     * @throws IllegalArgumentException if amount is not positive or exceeds the balance
+     * @throws IOException if the new balance cannot be stored, in which case the balance is restored
+     */
+    public LedgerEntry withdraw(Customer customer, long amount) throws IOException {
+        return withdrawMetrics.time(() -> {
+            locks.lock(customer.getUsername());
+            try {
+                customer.withdraw(amount);
+                try {
+                    save(customer);
+                } catch (IOException | RuntimeException e) {
+                    customer.deposit(amount); // The balance was not stored, so put the money back
+                    throw e;
+                }
+                return record(customer, TransactionType.WITHDRAWAL, amount, 0);
+            } finally {
+                locks.unlock(customer.getUsername());
+            }
+        });
+    }
+
+    /**
+     * Makes an online purchase for a customer and stores the new balance.
+     * @param customer the customer
+     * @param amount the purchase amount in cents
+     * @requires amount >= $50, the balance covers amount plus the customer's purchase fee and
+     *           the purchase keeps the customer within the spending and purchase limits of their tier
+     * @modifies customer, the account store, this.limiter
+     * @effects subtracts amount and the purchase fee from the customer's balance, counts the
+     *          purchase against the customer's limits, saves the customer and returns the recorded transaction
+     * @throws IllegalArgumentException if amount is below the minimum, the balance is insufficient
+     *         or the purchase would exceed a limit of the customer's tier
+     * @throws IOException if the new balance cannot be stored, in which case the balance is
+     *         restored and the purchase is not counted against the limits
+     */
+    public LedgerEntry purchase(Customer customer, long amount) throws IOException {
+        return purchaseMetrics.time(() -> {
+            locks.lock(customer.getUsername());
+            try {
+                long ticket = limiter.acquire(customer.getUsername(), customer.getTier(), amount);
+                long fee;
+                try {
+                    fee = customer.onlinePurchase(amount);
+                } catch (RuntimeException e) {
+                    limiter.release(customer.getUsername(), ticket, amount);
+                    throw e;
+                }
+                try {
+                    save(customer);
+                } catch (IOException | RuntimeException e) {
+                    // The purchase was not stored, so refund it and stop counting it against the limits
+                    customer.deposit(amount + fee);
+                    limiter.release(customer.getUsername(), ticket, amount);
+                    throw e;
+                }
+                return record(customer, TransactionType.PURCHASE, amount, fee);
+            } finally {
+                locks.unlock(customer.getUsername());
+            }
+        });
+    }
+
+    /**
+     * Transfers money from one customer to another as a single transaction: both new balances
+     * are stored together and a transfer is recorded in both customers' histories, or, if the
+     * balances cannot be stored, neither customer's balance changes.
+     * @param from the customer sending the money
+     * @param toUsername the username of the customer receiving it
+     * @param amount the amount to transfer in cents
+     * @requires amount > 0 && amount <= from.getBalance() && toUsername is another existing customer
+     * @modifies from, the recipient, the account store, the ledger
+     * @effects moves amount from the balance of from to the recipient's balance, saves both and
+     *          returns the transfer recorded in the history of from
+     * @throws IllegalArgumentException if amount is not positive or exceeds the balance of from,
+     *         or the recipient does not exist or is from
+     * @throws ArithmeticException if the recipient's balance would overflow, in which case neither changes
+     * @throws IOException if the new balances cannot be stored, in which case both are restored
+     */
+    public LedgerEntry transfer(Customer from, String toUsername, long amount) throws IOException {
+        return transferMetrics.time(() -> {
+            if (amount <= 0) {
+                throw new IllegalArgumentException("Amount must be positive.");
+            }
+            if (from.getUsername().equals(toUsername)) {
+                throw new IllegalArgumentException("Cannot transfer to your own account.");
+            }
+            locks.lock(from.getUsername(), toUsername);
+            try {
+                Customer to = find(toUsername);
+                if (amount > from.getBalance()) {
+                    throw new IllegalArgumentException("Insufficient balance for this transfer.");
+                }
+                from.withdraw(amount);
+                boolean deposited = false;
+                try {
+                    to.deposit(amount);
+                    deposited = true;
+                    if (transferStore != null) {
+                        return transferStore.saveTransfer(from, to, amount);
+                    }
+                    store.saveAll(List.of(from, to));
+                } catch (IOException | RuntimeException e) {
+                    // Neither balance was stored, so undo whichever changes were made
+                    if (deposited) {
+                        to.withdraw(amount);
+                    }
+                    from.deposit(amount);
+                    throw e;
+                }
+                if (ledger == null) {
+                    return new LedgerEntry(System.currentTimeMillis(), TransactionType.TRANSFER_OUT, amount, 0,
+                            from.getBalance());
+                }
+                return ledger.appendTransfer(from.getUsername(), toUsername, amount, from.getBalance(), to.getBalance());
+            } finally {
+                locks.unlock(from.getUsername(), toUsername);
+            }
+        });
+    }
+
+    private void save(Customer customer) throws IOException {
+        saveMetrics.time(() -> {
+            store.save(customer);
+            return null;
+        });
+    }
+
+    private LedgerEntry record(Customer customer, TransactionType type, long amount, long fee) throws IOException {
+        if (ledger == null) {
+            return new LedgerEntry(System.currentTimeMillis(), type, amount, fee, customer.getBalance());
+        }
+        return ledger.append(customer.getUsername(), type, amount, fee, customer.getBalance());
+    }
+
+    /**
+     * Applies a transaction of the given type to a customer's account and stores the new balance.
+     * @param customer the customer
+     * @param type the kind of transaction
+     * @param amount the amount of the transaction in cents
+     * @modifies customer, the account store
+     * @effects performs deposit, withdraw or purchase with amount according to type and returns the recorded transaction
+     * @throws IllegalArgumentException if the transaction is rejected by the customer's rules
+     * @throws IOException if the new balance cannot be stored
+     */
+    public LedgerEntry apply(Customer customer, TransactionType type, long amount) throws IOException {
+        switch (type) {
+            case DEPOSIT:
+                return deposit(customer, amount);
+            case WITHDRAWAL:
+                return withdraw(customer, amount);
+            case PURCHASE:
+                return purchase(customer, amount);
+            default:
+                throw new IllegalArgumentException("Unsupported transaction type: " + type);
+        }
+    }
+
+    /**
+     * Stores the customer's current state when they log out.
+     * @param customer the customer logging out
+     * @modifies the account store
+     * @effects saves the customer
+     * @throws IOException if an I/O error occurs
+     */
+    public void logout(Customer customer) throws IOException {
+        save(customer);
+    }
+
+    /**
+     * Adds a new customer with the manager's opening balance.
+     * @param username the username of the new customer
+     * @param password the password of the new customer
+     * @requires username and password are not empty and username is not used by an existing customer
+     * @modifies the account store, the ledger
+     * @effects creates an account for the new customer, which starts with an empty history
+     * @throws IllegalArgumentException if username or password is empty or the customer already exists
+     * @throws IOException if an I/O error occurs
+     */
+    public void addCustomer(String username, String password) throws IOException {
+        addCustomerMetrics.time(() -> {
+            if (username.isEmpty() || password.isEmpty()) {
+                throw new IllegalArgumentException("Username and password cannot be empty.");
+            }
+            locks.lock(username);
+            try {
+                retireStaleHistory(username);
+                manager.addCustomer(username, password);
+            } finally {
+                locks.unlock(username);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Adds several new customers at once, each with its own opening balance.
+     * @param customers the new customers, each with its username, password and opening balance
+     * @requires every username and password is not empty, no two customers have the same
+     *           username and none is used by an existing customer
+     * @modifies the account store, the ledger
+     * @effects creates an account for every customer, each with an empty history, or for none
+     *          of them if any is invalid
+     * @throws IllegalArgumentException if a username or password is empty or a customer already
+     *         exists, in which case no customer is added
+     * @throws IOException if an I/O error occurs
+     */
+    public void addCustomers(List<Customer> customers) throws IOException {
+        addCustomersMetrics.time(() -> {
+            List<String> usernames = new ArrayList<>(customers.size());
+            for (Customer customer : customers) {
+                if (customer.getUsername().isEmpty() || customer.getPassword().isEmpty()) {
+                    throw new IllegalArgumentException("Username and password cannot be empty.");
+                }
+                usernames.add(customer.getUsername());
+            }
+            BitSet held = locks.lockAll(usernames);
+            try {
+                for (String username : usernames) {
+                    retireStaleHistory(username);
+                }
+                manager.addCustomers(customers);
+            } finally {
+                locks.unlockAll(held);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Retires the history left in the ledger under a username that no account has, which
+     * happens when the process stops after an account is deleted but before its history is
+     * retired, or when the journal restores a transfer of an account deleted later.
+     * @requires the current thread holds the lock of username
+     * @modifies the ledger
+     * @effects if username has entries but no account, retires its history
+     */
+    private void retireStaleHistory(String username) throws IOException {
+        if (ledger != null && ledger.count(username) > 0 && !store.exists(username)) {
+            ledger.retire(username);
+        }
+    }
+
+    /**
+     * Deletes a customer, holding the account's lock so no transaction changes the balance
+     * while it is closed, and retires the customer's history so that a customer added later
+     * with the same username does not see it.
+     * @param username the username of the customer to delete
+     * @requires a customer with the username exists
+     * @modifies the account store, the ledger
+     * @effects removes the customer's account and retires its history
+     * @throws IllegalArgumentException if the customer does not exist
+     * @throws IOException if an I/O error occurs
+     */
+    public void deleteCustomer(String username) throws IOException {
+        deleteCustomerMetrics.time(() -> {
+            locks.lock(username);
+            try {
+                manager.deleteCustomer(username);
+                if (ledger != null) {
+                    ledger.retire(username);
+                }
+            } finally {
+                locks.unlock(username);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Returns the usernames of all customers.
+     * @effects returns a new list of every customer's username, sorted if the manager keeps a customer index
+     * @throws IOException if an I/O error occurs
+     */
+    public List<String> listCustomers() throws IOException {
+        CustomerIndex index = manager.getIndex();
+        if (index != null) {
+            return listCustomersMetrics.time(() -> index.page("", null, Integer.MAX_VALUE));
+        }
+        return listCustomersMetrics.time(store::usernames);
+    }
+
+    /**
+     * Returns one page of the customers whose usernames start with a prefix, in sorted order.
+     * @param prefix the prefix to match; the empty string matches every customer
+     * @param after the last username of the previous page, or null for the first page
+     * @param limit the maximum number of usernames
+     * @requires the manager keeps a customer index
+     * @effects returns up to limit usernames starting with prefix and greater than after, sorted
+     * @throws IllegalStateException if the manager keeps no customer index
+     */
+    public List<String> findCustomers(String prefix, String after, int limit) {
+        CustomerIndex index = manager.getIndex();
+        if (index == null) {
+            throw new IllegalStateException("No customer index");
+        }
+        long start = System.nanoTime();
+        List<String> page = index.page(prefix, after, limit);
+        findCustomersMetrics.record(OperationMetrics.Outcome.OK, System.nanoTime() - start);
+        return page;
+    }
+
+    /**
+     * Returns a customer's most recent transactions.
+     * @param username the customer's username
+     * @param n the maximum number of transactions
+     * @effects returns up to n of the customer's latest transactions, newest first;
+     *          an empty list if no ledger is kept
+     * @throws IOException if the history cannot be read
+     */
+    public List<LedgerEntry> history(String username, int n) throws IOException {
+        return historyMetrics.time(() -> ledger == null ? new ArrayList<>() : ledger.last(username, n));
+    }
+
+    /**
+     * Returns a customer's transactions in a time range.
+     * @param username the customer's username
+     * @param fromMillis the start of the range, inclusive, in milliseconds since the epoch
+     * @param toMillis the end of the range, exclusive, in milliseconds since the epoch
+     * @param limit the maximum number of transactions
+     * @effects returns up to limit of the customer's transactions in the range, oldest first;
+     *          an empty list if no ledger is kept
+     * @throws IOException if the history cannot be read
+     */
+    public List<LedgerEntry> history(String username, long fromMillis, long toMillis, int limit) throws IOException {
+        return historyMetrics.time(() -> ledger == null ? new ArrayList<>()
+                : ledger.between(username, fromMillis, toMillis, limit));
+    }
+
+    /**
+     * Checks if the representation invariant holds.
+     * @effects returns true if the rep invariant holds, false otherwise
+     */
+    public boolean repOK() {
+        return store != null && manager != null && manager.getStore() == store && limiter != null;
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionService{" + "store=" + store + ", manager=" + manager + ", ledger=" + ledger + ", limiter=" + limiter + '}';
+    }
+}
@@ -0,0 +1,60 @@
+package coe528.project;
+
+/**
+ * Overview: A TransactionType is a kind of customer transaction. The code of each type is
+ * used wherever transactions are written in a compact binary form.
+ * This type is immutable.
+ */
+public enum TransactionType {
+    DEPOSIT(0),
+    WITHDRAWAL(1),
+    PURCHASE(2),
+    MONTH_END(3),
+    TRANSFER_OUT(4),
+    TRANSFER_IN(5);
+
+    private static final TransactionType[] BY_CODE = values();
+
+    private final byte code;
+
+    TransactionType(int code) {
+        this.code = (byte) code;
+    }
+
+    public byte getCode() {
+        return this.code;
+    }
+
+    /**
+     * Returns the type with the given binary code.
+     * @param code the code of the type
+     * @effects returns the type whose getCode() is code
+     * @throws IllegalArgumentException if no type has the code
+     */
+    public static TransactionType fromCode(int code) {
+        if (code < 0 || code >= BY_CODE.length) {
+            throw new IllegalArgumentException("Unknown transaction type code " + code);
+        }
+        return BY_CODE[code];
+    }
+
+    /**
+     * Parses a transaction type written as text, ignoring case.
+     * @param text the type, such as "deposit", "withdraw", "withdrawal" or "purchase"
+     * @effects returns the type named by text
+     * @throws IllegalArgumentException if text does not name a type
+     */
+    public static TransactionType parse(String text) {
+        switch (text.trim().toLowerCase()) {
+            case "deposit":
+                return DEPOSIT;
+            case "withdraw":
+            case "withdrawal":
+                return WITHDRAWAL;
+            case "purchase":
+                return PURCHASE;
+            default:
+                throw new IllegalArgumentException("Unknown transaction type: " + text);
+        }
+    }
+}
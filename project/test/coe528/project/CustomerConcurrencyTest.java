@@ -0,0 +1,113 @@
+package coe528.project;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+/**
+ * Overview: Stress tests of Customer under many threads. Every thread runs a fixed sequence of
+ * deposits, withdrawals and online purchases on one shared customer, chosen so the tier (and so
+ * the purchase fee) cannot change during the run, which makes the final balance exact whatever
+ * the interleaving. A lost update would leave a different balance, and the balance listener
+ * must be told of every change with the exact balance it replaced.
+ */
+public class CustomerConcurrencyTest {
+    private static final int THREADS = 16;
+    private static final int ITERATIONS = 20000;
+
+    /**
+     * Overview: A BalanceListener that sums the changes it is told about.
+     */
+    private static final class SumListener implements Customer.BalanceListener {
+        private final AtomicLong total = new AtomicLong();
+
+        @Override
+        public void balanceChanged(Customer customer, long oldBalance, long newBalance) {
+            total.addAndGet(newBalance - oldBalance);
+        }
+    }
+
+    /**
+     * Runs a task on THREADS threads started at the same moment.
+     * @effects returns once every thread has run task ITERATIONS times, rethrowing the first failure
+     */
+    private static void runConcurrently(Runnable task) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Void>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                results.add(pool.submit((Callable<Void>) () -> {
+                    start.await();
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        task.run();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void silverTransactionsLoseNoUpdates() throws Exception {
+        SumListener listener = new SumListener();
+        long opening = Money.ofDollars(5000);
+        Customer customer = new Customer("alice", "password", opening, TierTable.getDefault(), listener);
+        // Each round nets to zero, and the balance stays between $5,000 - 16 * $100 and $5,000 + 16 * $100
+        runConcurrently(() -> {
+            customer.deposit(Money.ofDollars(100));
+            customer.withdraw(Money.ofDollars(30));
+            customer.onlinePurchase(Money.ofDollars(50)); // Plus the $20 Silver fee
+        });
+        assertEquals(opening, customer.getBalance());
+        assertEquals("Silver", customer.getLevel());
+        assertEquals(0, listener.total.get());
+    }
+
+    @Test
+    public void platinumTransactionsLoseNoUpdates() throws Exception {
+        SumListener listener = new SumListener();
+        long opening = Money.ofDollars(25000);
+        Customer customer = new Customer("bob", "password", opening, TierTable.getDefault(), listener);
+        // Each round adds $20, and the balance never falls below $25,000 - 16 * $80, so no fee is charged
+        runConcurrently(() -> {
+            customer.withdraw(Money.ofDollars(30));
+            customer.onlinePurchase(Money.ofDollars(50));
+            customer.deposit(Money.ofDollars(100));
+        });
+        long expected = opening + (long) THREADS * ITERATIONS * Money.ofDollars(20);
+        assertEquals(expected, customer.getBalance());
+        assertEquals("Platinum", customer.getLevel());
+        assertEquals(expected - opening, listener.total.get());
+    }
+
+    @Test
+    public void depositsAcrossTierThresholdLoseNoUpdates() throws Exception {
+        SumListener listener = new SumListener();
+        long opening = Money.ofDollars(9000);
+        Customer customer = new Customer("carol", "password", opening, TierTable.getDefault(), listener);
+        // Deposits and withdrawals carry no fee, so the balance is exact as it crosses $10,000
+        runConcurrently(() -> {
+            customer.deposit(Money.ofDollars(1) + 1);
+            customer.withdraw(Money.ofDollars(1) - 1);
+        });
+        long expected = opening + (long) THREADS * ITERATIONS * 2;
+        assertEquals(expected, customer.getBalance());
+        assertEquals("Gold", customer.getLevel());
+        assertEquals(expected - opening, listener.total.get());
+    }
+}